@@ -0,0 +1,53 @@
+package net.toydotgame.TRC3emu;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import net.toydotgame.TRC3emu.assembler.Assembler;
+import net.toydotgame.utils.Log;
+
+/**
+ * Reading a text binary into memory, as {@code -e} does before emulating.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoadBenchmark {
+	@Param({"false", "true"})
+	public boolean verbose;
+	private File binary;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Workloads.quiet();
+		Log.setLogLevel(verbose ? Log.VERBOSE : Log.NOTHING); // Verbose binaries have a source column
+		byte[] image = Workloads.assemble(Workloads.source("term"));
+		List<String> lines = Assembler.render(image);
+		Log.setLogLevel(Log.NOTHING);
+		
+		binary = File.createTempFile("trc3emu-bench", ".bin");
+		Files.write(binary.toPath(), lines);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		binary.delete();
+	}
+	
+	@Benchmark
+	public List<Integer> load() {
+		return Main.load(binary.getPath(), new String[1024]);
+	}
+}
@@ -0,0 +1,92 @@
+package net.toydotgame.TRC3emu;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.toydotgame.TRC3emu.assembler.Assembler;
+import net.toydotgame.TRC3emu.workload.Generator;
+import net.toydotgame.utils.FileHandler;
+import net.toydotgame.utils.Log;
+
+/**
+ * Sources and memory images shared by the benchmarks. Workloads are read from
+ * the repository's {@code tests/} directory, which the build passes in as the
+ * {@code trc3emu.tests} system property.
+ */
+public class Workloads {
+	/**
+	 * Silences logging and GPIO output, which would otherwise dominate (and
+	 * flood) every benchmark that runs a program.
+	 */
+	public static void quiet() {
+		Log.setLogLevel(Log.NOTHING);
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	}
+	
+	/**
+	 * @param name Name of a source file in {@code tests/}, without {@code .s}
+	 * @return Lines of the source file
+	 */
+	public static List<String> source(String name) {
+		File file = new File(System.getProperty("trc3emu.tests", "tests"), name+".s");
+		return new FileHandler(file.getPath()).readIntoList();
+	}
+	
+	/**
+	 * @param name Name of a source file in {@code tests/}, a {@link Generator}
+	 * section kind for a generated workload of only that kind, or {@code
+	 * mixed} for a generated workload of every kind
+	 * @return Lines of the source
+	 */
+	public static List<String> workload(String name) {
+		int[] mix = new int[Generator.KINDS.length];
+		if(name.equals("mixed")) Arrays.fill(mix, 2);
+		else mix = Generator.parseMix(name+"=4");
+		return Generator.generate(mix, 1);
+	}
+	
+	/**
+	 * Generates a straight-line source of about {@code instructions}
+	 * instructions, split into labelled blocks each ending in a branch, to
+	 * stand in for a large program.
+	 * @param instructions Instructions to generate, at most 1,024
+	 * @return Lines of the source
+	 */
+	public static List<String> large(int instructions) {
+		List<String> source = new ArrayList<String>();
+		source.add("#step 3");
+		for(int i = 0; i+4 <= instructions; i += 4) {
+			source.add("block"+i+":");
+			source.add("ldi "+(i&0xFF)+" r1");
+			source.add("adi step r2");
+			source.add("add r1 r2 r3");
+			source.add("bne block"+i+" ; Loop back");
+		}
+		source.add("hlt");
+		return source;
+	}
+	
+	/**
+	 * @param source Source lines
+	 * @return Memory image of the assembled program
+	 * @throws IllegalStateException If the source has errors
+	 */
+	public static byte[] assemble(List<String> source) {
+		byte[] image = Assembler.assemble(source);
+		if(image == null) throw new IllegalStateException("Workload has assembly errors");
+		return image;
+	}
+	
+	/**
+	 * @param image Memory image
+	 * @return Full 2,048 byte memory map holding the image
+	 */
+	public static List<Integer> memory(byte[] image) {
+		List<Integer> memory = new ArrayList<Integer>(2048);
+		for(int i = 0; i < 2048; i++) memory.add(i < image.length ? image[i]&0xFF : 0);
+		return memory;
+	}
+}
@@ -0,0 +1,39 @@
+package net.toydotgame.TRC3emu.assembler;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import net.toydotgame.TRC3emu.Workloads;
+
+/**
+ * {@link Assembler#main(List)} from source lines to output lines, on a small
+ * test program and a generated program that fills most of memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AssemblerBenchmark {
+	@Param({"small", "large"})
+	public String size;
+	private List<String> source;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		Workloads.quiet();
+		source = size.equals("small") ? Workloads.source("calc") : Workloads.large(960);
+		Workloads.assemble(source); // Fail early on a bad workload
+	}
+	
+	@Benchmark
+	public List<String> assemble() {
+		return Assembler.main(source);
+	}
+}
@@ -0,0 +1,35 @@
+package net.toydotgame.TRC3emu.assembler;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import net.toydotgame.TRC3emu.Workloads;
+
+/**
+ * {@link Encoder#main(Program)} alone, on an already validated program that
+ * fills most of memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EncoderBenchmark {
+	private Program program;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		Workloads.quiet();
+		Workloads.assemble(Workloads.large(960));
+		program = Assembler.getProgram();
+	}
+	
+	@Benchmark
+	public byte[] encode() {
+		return Encoder.main(program);
+	}
+}
@@ -0,0 +1,42 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import net.toydotgame.TRC3emu.Workloads;
+
+/**
+ * Each {@link ALU} operation, as {@code r1 <op> r2 → r3}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AluBenchmark {
+	@Param({"ADD", "SUB", "XOR", "XNO", "IOR", "NOR", "AND", "NAN", "RSH"})
+	public String operation;
+	private int op;
+	private Machine machine;
+	private static final int ARGS = 1<<6 | 2<<3 | 3; // r1, r2, r3
+	
+	@Setup(Level.Trial)
+	public void setup() throws ReflectiveOperationException {
+		Workloads.quiet();
+		op = ALU.class.getField(operation).getInt(null);
+		machine = new Machine(new int[2048]);
+		machine.regfile.write(1, 0x5A);
+		machine.regfile.write(2, 0x3C);
+	}
+	
+	@Benchmark
+	public int alu() {
+		ALU.main(machine, ARGS, op);
+		return machine.regfile.read(3);
+	}
+}
@@ -0,0 +1,43 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import net.toydotgame.TRC3emu.Workloads;
+
+/**
+ * The {@link Emulator#main(List)} dispatch loop, running programs from
+ * power-on to {@code HLT}: test programs that halt without input or a bell,
+ * and generated workloads of each kind, with GPIO on the null device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmulatorBenchmark {
+	@Param({"alutest", "term", "alu", "memory", "calls", "branches", "gpio", "mixed"})
+	public String workload;
+	private List<Integer> image;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		Workloads.quiet();
+		List<String> source = workload.equals("alutest") || workload.equals("term")
+			? Workloads.source(workload) : Workloads.workload(workload);
+		image = Workloads.memory(Workloads.assemble(source));
+		Emulator.nullDevice = true;
+	}
+	
+	@Benchmark
+	public RegisterFile run() {
+		Emulator.main(image); // Copied into a new machine, so programs can write to memory
+		return Emulator.machine.regfile;
+	}
+}
@@ -0,0 +1,35 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import net.toydotgame.TRC3emu.Workloads;
+
+/**
+ * Fetching bytes from machine memory, walking through all 2,048 addresses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MemoryBenchmark {
+	private Machine machine;
+	private int address = 0;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		Workloads.quiet();
+		machine = new Machine(Workloads.memory(Workloads.assemble(Workloads.source("calc"))));
+	}
+	
+	@Benchmark
+	public int fetch() {
+		address = address+1&0x7FF;
+		return machine.fetchByte(address);
+	}
+}
@@ -0,0 +1,41 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import net.toydotgame.TRC3emu.Workloads;
+
+/**
+ * {@link RegisterFile} reads and writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RegisterFileBenchmark {
+	private RegisterFile regfile;
+	private int register = 0, value = 0;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		Workloads.quiet();
+		regfile = new RegisterFile();
+	}
+	
+	@Benchmark
+	public void write() {
+		register = register+1&0x7;
+		regfile.write(register, value++);
+	}
+	
+	@Benchmark
+	public int read() {
+		register = register+1&0x7;
+		return regfile.read(register);
+	}
+}
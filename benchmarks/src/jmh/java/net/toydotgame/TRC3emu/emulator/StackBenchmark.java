@@ -0,0 +1,36 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import net.toydotgame.TRC3emu.Workloads;
+
+/**
+ * A {@link Stack} push followed by a pop, as by {@code JSR} and {@code RTS}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StackBenchmark {
+	private Stack stack;
+	private int address = 0;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		Workloads.quiet();
+		stack = new Stack(new Machine(new int[2048]));
+		for(int i = 0; i < Stack.SIZE/2; i++) stack.push(i); // Half full, like a nested call
+	}
+	
+	@Benchmark
+	public int pushPop() {
+		stack.push(address++);
+		return stack.pop();
+	}
+}
@@ -1,5 +1,12 @@
 package net.toydotgame.TRC3emu;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -13,18 +20,58 @@ import org.apache.commons.cli.OptionGroup;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import net.toydotgame.TRC3emu.assembler.Assembler;
+import net.toydotgame.TRC3emu.assembler.Program;
+import net.toydotgame.TRC3emu.assembler.Watcher;
+import net.toydotgame.TRC3emu.daemon.Daemon;
 import net.toydotgame.TRC3emu.emulator.Emulator;
+import net.toydotgame.TRC3emu.emulator.Metrics;
+import net.toydotgame.TRC3emu.emulator.Profiler;
+import net.toydotgame.TRC3emu.emulator.Sampler;
+import net.toydotgame.TRC3emu.events.ImageIOEvent;
+import net.toydotgame.TRC3emu.events.Recorder;
+import net.toydotgame.TRC3emu.server.Server;
+import net.toydotgame.TRC3emu.workload.Batch;
+import net.toydotgame.TRC3emu.workload.Explorer;
+import net.toydotgame.TRC3emu.workload.Multicore;
+import net.toydotgame.TRC3emu.workload.Network;
+import net.toydotgame.TRC3emu.workload.Generator;
 import net.toydotgame.utils.FileHandler;
 import net.toydotgame.utils.Log;
+import net.toydotgame.utils.Utils;
 
 public class Main {
 	// Cmdline args yield these settings
 	private static final int ASSEMBLE = 0;
 	private static final int EMULATE = 1;
 	private static final int HELP = 2;
+	private static final int RUN = 3;
+	private static final int GENERATE = 4;
+	private static final int BATCH = 5;
+	private static final int DAEMON = 6;
+	private static final int EXPLORE = 7;
+	private static final int NETWORK = 8;
+	private static final int MULTICORE = 9;
 	public static int mode = -1;
 	private static String inputPath;
 	private static String outputPath;
+	private static boolean watch = false;
+	private static boolean cache = false;
+	private static int[] mix;
+	private static long seed = 0;
+	/**
+	 * Where to serve the program from, if {@code -l} was given.
+	 */
+	private static String listenAddress;
+	/**
+	 * Where {@link #run()} caches assembled programs.
+	 */
+	private static final File CACHE_DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "TRC3emu");
+	/**
+	 * Directory relative paths on the command line are taken from, or {@code
+	 * null} for the JVM's own. Set by {@link Daemon} for each job, as the JVM
+	 * can't change its working directory.
+	 */
+	public static String workingDirectory = null;
 	
 	public static void main(String[] args) {
 		// Setup options and check them immediately, storing values into variables:
@@ -41,6 +88,27 @@ public class Main {
 			case HELP:
 				help(options);
 				break;
+			case RUN:
+				run();
+				break;
+			case GENERATE:
+				generate();
+				break;
+			case BATCH:
+				batch();
+				break;
+			case DAEMON:
+				Daemon.main(inputPath); // Never returns
+				break;
+			case EXPLORE:
+				explore();
+				break;
+			case NETWORK:
+				network();
+				break;
+			case MULTICORE:
+				multicore();
+				break;
 			default:
 				Log.exit("Unknown mode \""+mode+"\"!");
 		}
@@ -60,12 +128,75 @@ public class Main {
 			.desc("Emulate a previously created binary.")
 			.hasArg().argName("binary")
 			.build();
+		Option run = Option.builder("r")
+			.longOpt("run")
+			.desc("Assemble a TRC3 assembly source file and emulate it straight away, without "
+				+"writing a binary."
+			)
+			.hasArg().argName("source")
+			.build();
+		Option generate = Option.builder("g")
+			.longOpt("generate")
+			.desc("Generate a benchmark workload source file, from a mix of sections of the form "
+				+"kind=count,kind=count. Kinds are alu, memory, calls, branches, and gpio."
+			)
+			.hasArg().argName("mix")
+			.build();
+		Option batch = Option.builder("b")
+			.longOpt("batch")
+			.desc("Run every job in a job list at once, across all cores, and write one line of JSON "
+				+"per job with its final state and output. Each line of the list is a binary or source "
+				+"file, optionally followed by a file of input bytes."
+			)
+			.hasArg().argName("jobs")
+			.build();
+		Option explore = Option.builder("x")
+			.longOpt("explore")
+			.desc("Run a binary or source file with every input byte at each GPI, up to --depth "
+				+"inputs deep, and write one line of JSON per distinct way it ends, with the inputs "
+				+"that reach it, its final state, and its output."
+			)
+			.hasArg().argName("program")
+			.build();
+		Option network = Option.builder("N")
+			.longOpt("network")
+			.desc("Run a network of machines with GPIO ports linked by cables, each machine on its "
+				+"own thread, and write one line of JSON per machine with its final state, and per "
+				+"link with its throughput and time blocked. Each line of the config is \"machine "
+				+"<name> <binary or source>\" or \"link <name>:<GPO port> <name>:<GPI port>\"."
+			)
+			.hasArg().argName("config")
+			.build();
+		Option multicore = Option.builder("m")
+			.longOpt("multicore")
+			.desc("(Experimental) Run a binary or source file on --cores cores sharing one memory, "
+				+"each on its own thread, and write one line of JSON per core with its final state and "
+				+"lock contention. GPI on port 6 reads the core's number; GPI on port 7 tests and sets "
+				+"a lock (reading 0 if taken), and GPO on port 7 frees it."
+			)
+			.hasArg().argName("program")
+			.build();
+		Option daemon = Option.builder("d")
+			.longOpt("daemon")
+			.desc("Stay running, listening on the given Unix domain socket, and run each command "
+				+"line sent by the client (net.toydotgame.TRC3emu.daemon.Client) in this JVM, one "
+				+"at a time."
+			)
+			.hasArg().argName("socket")
+			.build();
 		Option help = Option.builder("h")
 			.longOpt("help")
 			.desc("Print help message.")
 			.build();
 		mode.addOption(assemble);
 		mode.addOption(emulate);
+		mode.addOption(run);
+		mode.addOption(generate);
+		mode.addOption(batch);
+		mode.addOption(explore);
+		mode.addOption(network);
+		mode.addOption(multicore);
+		mode.addOption(daemon);
 		mode.addOption(help);
 		mode.setRequired(true);
 		
@@ -92,10 +223,197 @@ public class Main {
 			.hasArg().argName("destination")
 			.build();
 		
+		Option watch = new Option("w",
+			"watch",
+			false,
+			"(Optional) Keep running after assembling, and reassemble the source file every "
+			+"time it changes. This option is ignored when -e, --emulate is set."
+		);
+		
+		Option cache = new Option("c",
+			"cache",
+			false,
+			"(Optional) Keep assembled programs in a cache in the temporary directory, and skip "
+			+"assembling sources that haven't changed since. This option is only used when -r, "
+			+"--run is set."
+		);
+		
+		Option optimize = new Option("O",
+			"optimize",
+			false,
+			"(Optional) Run the peephole optimiser over the program before encoding it. Programs "
+			+"must refer to data by variable name, not hardcoded address. This option is ignored "
+			+"when -e, --emulate is set."
+		);
+		
+		Option analyze = new Option("A",
+			"analyze",
+			false,
+			"(Optional) Check the program's control flow before encoding it: call depth against "
+			+"the 16-deep stack, recursion, unreachable code, and registers read before being "
+			+"written. This option is ignored when -e, --emulate is set."
+		);
+		
+		Option strip = new Option("s",
+			"strip",
+			false,
+			"(Optional) Implies -A, --analyze. Removes unreachable code from the program."
+		);
+		
+		Option profile = Option.builder("p")
+			.longOpt("profile")
+			.desc("(Optional) Count every instruction run, and print the hottest instructions, loops, "
+				+"and branches when the emulator halts. Call stacks are written to the given file in "
+				+"folded stack format for flame graphs, if one is given. This option is ignored when "
+				+"-a, --assemble is set."
+			)
+			.hasArg().optionalArg(true).argName("folded")
+			.build();
+		
+		Option sample = Option.builder("S")
+			.longOpt("sample")
+			.desc("(Optional) Sample where the emulator is every given number of microseconds "
+				+"(default 1000) from another thread, and print where it spent the most time when it "
+				+"halts. This option is ignored when -a, --assemble is set."
+			)
+			.hasArg().optionalArg(true).argName("interval")
+			.build();
+		
+		Option metrics = Option.builder("M")
+			.longOpt("metrics")
+			.desc("(Optional) Publish live emulator metrics as a JMX MBean per machine, for JConsole, "
+				+"VisualVM, or similar to watch. Machines are named 0 when emulating, job<n> for -b, "
+				+"--batch, core<n> for -m, --multicore, by their names for -N, --network, and by their "
+				+"address for -l, --listen. This option is ignored when -a, --assemble or -x, --explore "
+				+"is set, and for lanes run with --lockstep."
+			)
+			.build();
+		
+		Option seed = Option.builder()
+			.longOpt("seed")
+			.desc("(Optional) Random seed for -g, --generate. Defaults to 0.")
+			.hasArg().argName("seed")
+			.build();
+		
+		Option detectIdle = Option.builder()
+			.longOpt("detect-idle")
+			.desc("(Optional) Stop the emulator, or -b, --batch jobs, when the program is stuck "
+				+"spinning in a loop, such as a jump to itself, rather than running it forever. -l, "
+				+"--listen sessions always do, and -b, --batch jobs always check for hangs every 4,096 "
+				+"instructions."
+			)
+			.build();
+		
+		Option nullDevice = Option.builder("n")
+			.longOpt("null-gpio")
+			.desc("(Optional) Connect every GPIO port to a null device that reads 0 and discards "
+				+"output. This option is ignored when -a, --assemble is set."
+			)
+			.build();
+		
+		Option listen = Option.builder("l")
+			.longOpt("listen")
+			.desc("(Optional) Serve the program from -e, --emulate or -r, --run to every connection "
+				+"to the given localhost TCP port, or Unix domain socket path, each on its own machine. "
+				+"GPIO port 0 reads and writes raw bytes on the connection; other ports are null "
+				+"devices. -t, --terminal is ignored."
+			)
+			.hasArg().argName("address")
+			.build();
+		
+		Option budget = Option.builder()
+			.longOpt("budget")
+			.desc("(Optional) Instructions each -b, --batch job, -N, --network machine, or -m, "
+				+"--multicore core may run, or -x, --explore may run between inputs. Defaults to "
+				+"10,000,000."
+			)
+			.hasArg().argName("instructions")
+			.build();
+		
+		Option timeout = Option.builder()
+			.longOpt("timeout")
+			.desc("(Optional) Milliseconds each -b, --batch job, or a -N, --network or -m, --multicore "
+				+"run, may run for, or 0 for no limit. Defaults to 10,000."
+			)
+			.hasArg().argName("ms")
+			.build();
+		
+		Option threads = Option.builder()
+			.longOpt("threads")
+			.desc("(Optional) Threads to run -b, --batch jobs, -x, --explore, or -l, --listen "
+				+"sessions, on. Defaults to one per core."
+			)
+			.hasArg().argName("count")
+			.build();
+		
+		Option lockstep = Option.builder()
+			.longOpt("lockstep")
+			.desc("(Optional) Run -b, --batch jobs with the same program together, in lockstep, which "
+				+"is faster for sweeps of one program over many inputs. Jobs that use up their budget "
+				+"are run again on their own, to check whether they've hung."
+			)
+			.build();
+		
+		Option deterministic = Option.builder()
+			.longOpt("deterministic")
+			.desc("(Optional) Run -N, --network machines in turn on one thread, one instruction each, "
+				+"so every run goes the same way."
+			)
+			.build();
+		
+		Option cores = Option.builder()
+			.longOpt("cores")
+			.desc("(Optional) Cores -m, --multicore runs, 1–256. Defaults to 2.")
+			.hasArg().argName("count")
+			.build();
+		
+		Option depth = Option.builder()
+			.longOpt("depth")
+			.desc("(Optional) Inputs -x, --explore gives along each way, at most. Defaults to 2.")
+			.hasArg().argName("inputs")
+			.build();
+		
+		Option inputs = Option.builder()
+			.longOpt("inputs")
+			.desc("(Optional) Bytes -x, --explore gives each GPI, as bytes and ranges, e.g. 48-57,43. "
+				+"Defaults to 0-255."
+			)
+			.hasArg().argName("bytes")
+			.build();
+		
+		Option jfr = Option.builder("J")
+			.longOpt("jfr")
+			.desc("(Optional) Record TRC3emu's Java Flight Recorder events (emulator, terminal, "
+				+"assembler, and file activity) to the given file, which is written on exit"
+			)
+			.hasArg().argName("recording")
+			.build();
+		
 		options.addOptionGroup(mode);
 		options.addOption(verbose);
 		options.addOption(terminal);
 		options.addOption(output);
+		options.addOption(watch);
+		options.addOption(cache);
+		options.addOption(optimize);
+		options.addOption(analyze);
+		options.addOption(strip);
+		options.addOption(profile);
+		options.addOption(sample);
+		options.addOption(metrics);
+		options.addOption(jfr);
+		options.addOption(seed);
+		options.addOption(nullDevice);
+		options.addOption(detectIdle);
+		options.addOption(listen);
+		options.addOption(budget);
+		options.addOption(timeout);
+		options.addOption(threads);
+		options.addOption(lockstep);
+		options.addOption(deterministic);
+		options.addOption(cores);
+		options.addOption(depth);
+		options.addOption(inputs);
 		return options;
 	}
 	
@@ -104,32 +422,163 @@ public class Main {
 			CommandLineParser parser = new DefaultParser();
 			CommandLine cmdline = parser.parse(options, args);
 			
+			if(Log.trapExits && (cmdline.hasOption("d") || cmdline.hasOption("w") || cmdline.hasOption("J")
+				|| cmdline.hasOption("l")))
+				throw new ParseException("-d, --daemon, -w, --watch, -J, --jfr, and -l, --listen can't be run "
+					+"by the daemon");
+			
 			if(cmdline.hasOption("a")) {
 				mode = ASSEMBLE;
-				inputPath = cmdline.getOptionValue("a");
+				inputPath = path(cmdline.getOptionValue("a"));
 				
 				if(cmdline.hasOption("o"))
-					outputPath = cmdline.getOptionValue("o")
-						.split("\\.", 2)[0]+".bin";
-				else outputPath = inputPath.split("\\.", 2)[0]+".bin";
+					outputPath = path(cmdline.getOptionValue("o")
+						.split("\\.", 2)[0]+".bin");
+				else outputPath = path(cmdline.getOptionValue("a").split("\\.", 2)[0]+".bin");
+				
+				watch = cmdline.hasOption("w");
 			} else if(cmdline.hasOption("e")) {
 				mode = EMULATE;
-				inputPath = cmdline.getOptionValue("e");
+				inputPath = path(cmdline.getOptionValue("e"));
 				
 				Emulator.terminalMode = cmdline.hasOption("t");
+			} else if(cmdline.hasOption("r")) {
+				mode = RUN;
+				inputPath = path(cmdline.getOptionValue("r"));
+				
+				Emulator.terminalMode = cmdline.hasOption("t");
+				cache = cmdline.hasOption("c");
+			} else if(cmdline.hasOption("g")) {
+				mode = GENERATE;
+				try {
+					mix = Generator.parseMix(cmdline.getOptionValue("g"));
+					seed = Long.parseLong(cmdline.getOptionValue("seed", "0"));
+				} catch(NumberFormatException e) {
+					throw new ParseException("Seed must be a whole number");
+				} catch(IllegalArgumentException e) {
+					throw new ParseException(e.getMessage());
+				}
+				outputPath = path(cmdline.getOptionValue("o", "workload.s"));
+			} else if(cmdline.hasOption("b")) {
+				mode = BATCH;
+				inputPath = path(cmdline.getOptionValue("b"));
+				outputPath = path(cmdline.getOptionValue("o")); // Standard output if not given
+				try {
+					Batch.budget = Long.parseLong(cmdline.getOptionValue("budget", ""+Batch.DEFAULT_BUDGET));
+					Batch.timeout = Long.parseLong(cmdline.getOptionValue("timeout", ""+Batch.DEFAULT_TIMEOUT));
+					Batch.threads = Integer.parseInt(cmdline.getOptionValue("threads", ""+Batch.DEFAULT_THREADS));
+					if(Batch.budget <= 0 || Batch.timeout < 0 || Batch.threads <= 0) throw new NumberFormatException();
+				} catch(NumberFormatException e) {
+					throw new ParseException("Budget, timeout, and threads must be whole numbers above 0");
+				}
+				Batch.lockstep = cmdline.hasOption("lockstep");
+			} else if(cmdline.hasOption("N")) {
+				mode = NETWORK;
+				inputPath = path(cmdline.getOptionValue("N"));
+				outputPath = path(cmdline.getOptionValue("o")); // Standard output if not given
+				try {
+					Network.budget = Long.parseLong(cmdline.getOptionValue("budget", ""+Batch.DEFAULT_BUDGET));
+					Network.timeout = Long.parseLong(cmdline.getOptionValue("timeout", ""+Batch.DEFAULT_TIMEOUT));
+					if(Network.budget <= 0 || Network.timeout < 0) throw new NumberFormatException();
+				} catch(NumberFormatException e) {
+					throw new ParseException("Budget and timeout must be whole numbers above 0");
+				}
+				Network.deterministic = cmdline.hasOption("deterministic");
+			} else if(cmdline.hasOption("m")) {
+				mode = MULTICORE;
+				inputPath = path(cmdline.getOptionValue("m"));
+				outputPath = path(cmdline.getOptionValue("o")); // Standard output if not given
+				try {
+					Multicore.budget = Long.parseLong(cmdline.getOptionValue("budget", ""+Batch.DEFAULT_BUDGET));
+					Multicore.timeout = Long.parseLong(cmdline.getOptionValue("timeout", ""+Batch.DEFAULT_TIMEOUT));
+					Multicore.cores = Integer.parseInt(cmdline.getOptionValue("cores", ""+Multicore.DEFAULT_CORES));
+					if(Multicore.budget <= 0 || Multicore.timeout < 0 || Multicore.cores <= 0 || Multicore.cores > 256)
+						throw new NumberFormatException();
+				} catch(NumberFormatException e) {
+					throw new ParseException("Budget and timeout must be whole numbers above 0, and cores 1–256");
+				}
+			} else if(cmdline.hasOption("x")) {
+				mode = EXPLORE;
+				inputPath = path(cmdline.getOptionValue("x"));
+				outputPath = path(cmdline.getOptionValue("o")); // Standard output if not given
+				try {
+					Explorer.budget = Long.parseLong(cmdline.getOptionValue("budget", ""+Batch.DEFAULT_BUDGET));
+					Explorer.depth = Integer.parseInt(cmdline.getOptionValue("depth", ""+Explorer.DEFAULT_DEPTH));
+					Explorer.threads = Integer.parseInt(cmdline.getOptionValue("threads", ""+Batch.DEFAULT_THREADS));
+					if(Explorer.budget <= 0 || Explorer.depth < 0 || Explorer.threads <= 0) throw new NumberFormatException();
+				} catch(NumberFormatException e) {
+					throw new ParseException("Budget and threads must be whole numbers above 0, and depth 0 or above");
+				}
+				try {
+					Explorer.inputs = Explorer.parseInputs(cmdline.getOptionValue("inputs", "0-255"));
+				} catch(IllegalArgumentException e) {
+					throw new ParseException(e.getMessage());
+				}
+			} else if(cmdline.hasOption("d")) {
+				mode = DAEMON;
+				inputPath = cmdline.getOptionValue("d");
 			} else if(cmdline.hasOption("h")) {
 				mode = HELP;
 			}
 			
-			if(cmdline.hasOption("v")) Log.setLogLevel(Log.VERBOSE);
+			Emulator.nullDevice = cmdline.hasOption("n");
+			Emulator.detectIdle = cmdline.hasOption("detect-idle");
+			Batch.detectIdle = cmdline.hasOption("detect-idle");
+			
+			listenAddress = cmdline.getOptionValue("l");
+			if(listenAddress != null) {
+				if(!listenAddress.matches("\\d+")) listenAddress = path(listenAddress);
+				try {
+					Server.threads = Integer.parseInt(cmdline.getOptionValue("threads", ""+Server.DEFAULT_THREADS));
+					if(Server.threads <= 0) throw new NumberFormatException();
+				} catch(NumberFormatException e) {
+					throw new ParseException("Threads must be a whole number above 0");
+				}
+			}
+			
+			// Everything below is set every time, as the daemon parses many command lines:
+			Profiler.enabled = cmdline.hasOption("p");
+			Profiler.foldedPath = path(cmdline.getOptionValue("p"));
+			
+			Sampler.interval = 0;
+			if(cmdline.hasOption("S")) {
+				try {
+					Sampler.interval = Long.parseLong(cmdline.getOptionValue("S", "1000"));
+					if(Sampler.interval <= 0) throw new NumberFormatException();
+				} catch(NumberFormatException e) {
+					throw new ParseException("Sampling interval must be a whole number of microseconds above 0");
+				}
+			}
+			
+			Metrics.enabled = cmdline.hasOption("M");
+			if(cmdline.hasOption("J")) Recorder.start(cmdline.getOptionValue("J"));
+			
+			Log.setLogLevel(cmdline.hasOption("v") ? Log.VERBOSE : Log.NORMAL);
+			Assembler.setOptimize(cmdline.hasOption("O"));
+			Assembler.setAnalyze(cmdline.hasOption("A") || cmdline.hasOption("s"), cmdline.hasOption("s"));
 		} catch(ParseException e) {
 			System.err.println(e.getMessage());
 			help(options);			
-			System.exit(1);
+			Log.quit(1);
 		}
 	}
 	
+	/**
+	 * @param path Path from the command line, or {@code null}
+	 * @return The path, taken from {@link #workingDirectory} if it's relative
+	 */
+	private static String path(String path) {
+		if(path == null || workingDirectory == null || new File(path).isAbsolute()) return path;
+		
+		return new File(workingDirectory, path).getPath();
+	}
+	
 	private static void assemble() {
+		if(watch) {
+			Watcher.main(inputPath, outputPath); // Never returns
+			return;
+		}
+		
 		Log.log("Assembling...");
 		
 		// Read file into list:
@@ -143,42 +592,285 @@ public class Main {
 		if(binary.size() == 0) Log.exit("Output binary is 0 bytes!");
 		
 		// If there _is_ data, write out:
+		ImageIOEvent event = ImageIOEvent.start(outputPath, true);
 		FileHandler output = new FileHandler(outputPath, FileHandler.WRITE);
 		output.writeList(binary);
+		event.end(binary.size());
 		
 		Log.log("Done!");
 	}
 	
+	private static void generate() {
+		Log.log("Generating workload...");
+		new FileHandler(outputPath, FileHandler.WRITE).writeList(Generator.generate(mix, seed));
+		Log.log("Done!");
+	}
+	
+	private static void batch() {
+		// This follows one machine at a time, so can't be shared by many:
+		Profiler.enabled = false;
+		if(Metrics.enabled && Batch.lockstep) Log.error("-M, --metrics isn't supported for lanes run in lockstep");
+		
+		if(outputPath == null) {
+			Batch.main(inputPath, System.out);
+			return;
+		}
+		
+		try(PrintStream out = new PrintStream(outputPath, StandardCharsets.UTF_8)) {
+			Batch.main(inputPath, out);
+		} catch(IOException e) {
+			Log.exit("Error opening \""+outputPath+"\" for writing!");
+		}
+	}
+	
+	private static void explore() {
+		// This follows one machine at a time, so can't be shared by many:
+		Profiler.enabled = false;
+		if(Metrics.enabled) { // Its machines each run parts of many paths, so their counts mean nothing
+			Log.error("-M, --metrics isn't supported with -x, --explore, ignoring it");
+			Metrics.enabled = false;
+		}
+		
+		if(outputPath == null) {
+			Explorer.main(inputPath, System.out);
+			return;
+		}
+		
+		try(PrintStream out = new PrintStream(outputPath, StandardCharsets.UTF_8)) {
+			Explorer.main(inputPath, out);
+		} catch(IOException e) {
+			Log.exit("Error opening \""+outputPath+"\" for writing!");
+		}
+	}
+	
+	private static void network() {
+		// This follows one machine at a time, so can't be shared by many:
+		Profiler.enabled = false;
+		
+		if(outputPath == null) {
+			Network.main(inputPath, System.out);
+			return;
+		}
+		
+		try(PrintStream out = new PrintStream(outputPath, StandardCharsets.UTF_8)) {
+			Network.main(inputPath, out);
+		} catch(IOException e) {
+			Log.exit("Error opening \""+outputPath+"\" for writing!");
+		}
+	}
+	
+	private static void multicore() {
+		// This follows one machine at a time, so can't be shared by many:
+		Profiler.enabled = false;
+		
+		if(outputPath == null) {
+			Multicore.main(inputPath, System.out);
+			return;
+		}
+		
+		try(PrintStream out = new PrintStream(outputPath, StandardCharsets.UTF_8)) {
+			Multicore.main(inputPath, out);
+		} catch(IOException e) {
+			Log.exit("Error opening \""+outputPath+"\" for writing!");
+		}
+	}
+	
 	private static void emulate() {
 		if(Emulator.terminalMode) Log.log("Running emulator in terminal mode...");
 		else Log.log("Running emulator...");
 		
+		String[] source = new String[1024]; // Source of each instruction, from verbose binaries
+		List<Integer> memory = load(inputPath, source);
+		Profiler.setSource(source, null);
+		
+		startEmulator(memory);
+	}
+	
+	/**
+	 * Reads a text binary, normal or verbose, into a memory map.
+	 * @param path Binary file to read
+	 * @param source Array to fill with the source of each instruction, by
+	 * program counter value, if the binary is verbose
+	 * @return Memory map holding the binary
+	 */
+	public static List<Integer> load(String path, String[] source) {
 		// Read file and create rudimentary memory map:
-		List<String> binary = new FileHandler(inputPath).readIntoList();
+		ImageIOEvent event = ImageIOEvent.start(path, false);
+		List<String> binary = new FileHandler(path).readIntoList();
+		event.end(binary.size());
+		
+		List<Integer> memory = null;
+		try {
+			memory = parse(binary, source);
+		} catch(IllegalArgumentException e) {
+			Log.exit(e.getMessage(), 1);
+		}
+		Log.debug(binary.size()+" bytes read into memory.");
+		
+		return memory;
+	}
+	
+	/**
+	 * Reads the lines of a text binary, normal or verbose, into a memory map.
+	 * @param binary Lines of the binary
+	 * @param source Array to fill with the source of each instruction, by
+	 * program counter value, if the binary is verbose
+	 * @return Memory map holding the binary
+	 * @throws IllegalArgumentException If the binary is too big or mangled
+	 */
+	public static List<Integer> parse(List<String> binary, String[] source) {
 		if(binary.size() > 2048)
-			Log.exit("Input binary won't fit into memory!", 1);
-		// Initialise empty fixed-size memory map:
-		List<Integer> memory = Arrays.asList(new Integer[2048]);
-		Collections.fill(memory, 0);
+			throw new IllegalArgumentException("Input binary won't fit into memory!");
+		List<Integer> memory = emptyMemory();
 		
 		// Read into memory:
-		int bytesRead = 0;
 		for(int i = 0; i < binary.size(); i++) {
-			String[] binaryLine = binary.get(i).split(" ", 3);
+			String[] binaryLine = binary.get(i).split("\\s+", 3); // Source column is tab-separated
 			String word;
 			if(binaryLine.length == 1) word = binaryLine[0]; // Normal binary
 			else word = binaryLine[1];                       // Verbose binary
+			if(binaryLine.length == 3 && i%2 == 0) source[i>>1] = binaryLine[2];
 			
 			try {
 				int value = Integer.parseInt(word, 2);
 				if(value < 0 || value > 255) throw new NumberFormatException();
 				memory.set(i, value);
 			} catch(NumberFormatException e) {
-				Log.exit("Mangled binary input!", 1);
+				throw new IllegalArgumentException("Mangled binary input!");
+			}
+		}
+		
+		return memory;
+	}
+	
+	/**
+	 * Assembles the source file in memory and passes the memory image straight
+	 * to the emulator, skipping writing and re-reading a text binary. With
+	 * {@link #cache} set, images are kept in the temporary directory under the
+	 * SHA-256 hash of their source and the {@linkplain Assembler#settings()
+	 * assembler's settings}, and the assembler isn't run at all if a source
+	 * has been seen before with the same settings. Sources are always
+	 * assembled while {@linkplain Assembler#isAnalyzing() analysing}, so the
+	 * analysis is always reported.
+	 */
+	private static void run() {
+		List<String> source = new FileHandler(inputPath).readIntoList();
+		
+		File cacheFile = null;
+		byte[] image = null;
+		if(cache) {
+			cacheFile = new File(CACHE_DIRECTORY, hash(source)+".bin");
+			if(cacheFile.isFile() && !Assembler.isAnalyzing()) {
+				try {
+					ImageIOEvent event = ImageIOEvent.start(cacheFile.getPath(), false);
+					image = Files.readAllBytes(cacheFile.toPath());
+					event.end(image.length);
+					Log.debug("Loaded assembled program from cache: "+cacheFile);
+				} catch(IOException e) {
+					Log.error("Couldn't read cached program \""+cacheFile.getName()+"\", assembling instead");
+				}
+			}
+		}
+		
+		if(image == null) {
+			Log.log("Assembling...");
+			image = Assembler.assemble(source);
+			if(image == null)
+				Log.exit(
+					String.format("%,d", Assembler.getSyntaxErrors())
+					+" errors occured. Not running program"
+				);
+			if(Profiler.enabled) setProfilerSource();
+			
+			if(cacheFile != null) {
+				try {
+					cacheFile.getParentFile().mkdirs();
+					ImageIOEvent event = ImageIOEvent.start(cacheFile.getPath(), true);
+					Files.write(cacheFile.toPath(), image);
+					event.end(image.length);
+				} catch(IOException e) {
+					Log.error("Couldn't write \""+cacheFile.getName()+"\" to the cache!");
+				}
 			}
-			bytesRead++;
 		}
-		Log.debug(bytesRead+" bytes read into memory.");
+		
+		if(image.length == 0) Log.exit("Output binary is 0 bytes!");
+		if(image.length > 2048) Log.exit("Assembled program won't fit into memory!", 1);
+		
+		if(Emulator.terminalMode) Log.log("Running emulator in terminal mode...");
+		else Log.log("Running emulator...");
+		
+		List<Integer> memory = emptyMemory();
+		for(int i = 0; i < image.length; i++) memory.set(i, image[i]&0xFF);
+		Log.debug(image.length+" bytes assembled into memory.");
+		
+		startEmulator(memory);
+	}
+	
+	/**
+	 * Hands the source and labels of the program just assembled to the {@link
+	 * Profiler}. Cached programs weren't assembled, so have none: the {@link
+	 * Assembler}'s program is whatever it last assembled, which under the
+	 * daemon may be another job's.
+	 */
+	private static void setProfilerSource() {
+		Program program = Assembler.getProgram();
+		if(program == null) return;
+		
+		String[] source = new String[1024];
+		String[] labels = new String[1024];
+		for(int i = 0; i < program.size && i < 1024; i++) source[i] = program.text(i);
+		for(int i = program.labelCount-1; i >= 0; i--) // First label wins
+			if(program.labelTargets[i] < 1024) labels[program.labelTargets[i]] = program.labelNames[i];
+		Profiler.setSource(source, labels);
+	}
+	
+	/**
+	 * @return Fixed-size memory map of 2,048 zeroes
+	 */
+	private static List<Integer> emptyMemory() {
+		List<Integer> memory = Arrays.asList(new Integer[2048]);
+		Collections.fill(memory, 0);
+		return memory;
+	}
+	
+	/**
+	 * SHA-256 hashes the lines of a source file, and the assembler's settings.
+	 * @param source Lines of the source file
+	 * @return Hash as a hexadecimal string
+	 */
+	private static String hash(List<String> source) {
+		MessageDigest digest = null; // Make compiler happy
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			Log.fatalError("SHA-256 is not supported by this JVM!");
+		}
+		
+		for(String line : source) {
+			digest.update(line.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte)'\n');
+		}
+		digest.update((byte)0); // Can't be in a line, so settings can't look like source
+		digest.update(Assembler.settings().getBytes(StandardCharsets.UTF_8));
+		
+		StringBuilder hex = new StringBuilder();
+		for(byte b : digest.digest()) hex.append(Utils.paddedHex(b&0xFF, 2));
+		return hex.toString();
+	}
+	
+	/**
+	 * Runs the emulator over a loaded memory map until it halts, then waits for
+	 * the bell and tidies up the terminal.
+	 * @param memory Memory map of 2,048 bytes
+	 */
+	private static void startEmulator(List<Integer> memory) {
+		if(listenAddress != null) {
+			// This follows one machine at a time, so can't be shared by many:
+			Profiler.enabled = false;
+			Server.main(listenAddress, memory); // Never returns
+			return;
+		}
 		
 		// Pass memory map into emulator: This is the end of what we need to do
 		Emulator.main(memory);
@@ -207,6 +899,6 @@ public class Main {
 	private static void help(Options options) {
 		HelpFormatter help = new HelpFormatter();
 		
-		help.printHelp("TRC3emu.jar <[-a | -e <file>] | -h> [-v] [-o <output>]", options);
+		help.printHelp("TRC3emu.jar <[-a | -e | -r <file>] | -g <mix> | -b <jobs> | -x <program> | -N <config> | -m <program> | -d <socket> | -h> [-v] [-t] [-n] [--detect-idle] [-l <address>] [-o <output>] [-w] [-c] [-O] [-A] [-s] [-p [<folded>]] [-S [<interval>]] [-M] [-J <recording>] [--seed <seed>] [--budget <instructions>] [--timeout <ms>] [--threads <count>] [--lockstep] [--deterministic] [--cores <count>] [--depth <inputs>] [--inputs <bytes>]", options);
 	}
 }
@@ -0,0 +1,397 @@
+package net.toydotgame.TRC3emu.assembler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.toydotgame.utils.Log;
+import static net.toydotgame.TRC3emu.assembler.Program.IMM10;
+
+/**
+ * Static analysis of a finished {@link Program}, run right before it goes to
+ * the {@link Encoder}. Builds the control-flow graph from {@code JMP}, the
+ * conditional branches, {@code JSR}, {@code RTS}, and {@code HLT}, then the
+ * call graph of subroutines (the targets of {@code JSR}s) on top of it, and
+ * reports:
+ * <ul>
+ * 	<li><b>Call depth:</b> The deepest chain of nested {@code JSR}s. TRC3's
+ * {@link net.toydotgame.TRC3emu.emulator.Stack Stack} only holds 16 return
+ * addresses, so a deeper chain is a syntax error</li>
+ * 	<li><b>Recursion:</b> Subroutines that can call themselves, whose depth
+ * can't be bounded statically</li>
+ * 	<li><b>Unreachable code:</b> Instructions no path from the start of the
+ * program reaches. These can optionally be stripped from the program</li>
+ * 	<li><b>Uninitialised registers:</b> Reads of a register that some path
+ * reaches without having written it first (it will read as 0)</li>
+ * 	<li>{@code RTS} outside of any subroutine, and execution running off the
+ * end of the program into the data space</li>
+ * </ul>
+ * Everything but the call depth is a warning, and doesn't stop the program
+ * assembling.
+ */
+public class Analyzer {
+	/**
+	 * Number of return addresses the hardware stack holds.
+	 */
+	public static final int STACK_DEPTH = 16;
+	
+	// Opcodes this works with:
+	private static final int HLT = 1;
+	private static final int ADI = 3;
+	private static final int LDI = 12;
+	private static final int JMP = 13;
+	private static final int JSR = 18;
+	private static final int RTS = 19;
+	private static final int REA = 20;
+	private static final int STO = 21;
+	private static final int GPI = 22;
+	private static final int GPO = 23;
+	private static final int PAS = 25;
+	private static final int PAG = 26;
+	
+	private static Program program;
+	/**
+	 * Index of each subroutine's first instruction. The program's entry point
+	 * (instruction 0) is treated as subroutine 0.
+	 */
+	private static int[] entries;
+	private static int entryCount;
+	/**
+	 * Instructions reachable from each subroutine's entry without following
+	 * calls, by subroutine index.
+	 */
+	private static boolean[][] bodies;
+	/**
+	 * Subroutine index at each instruction that is a subroutine entry, -1
+	 * elsewhere.
+	 */
+	private static int[] subroutineAt;
+	private static int[] depths;
+	private static int[] deepestCallee;
+	
+	/**
+	 * Analyses a program, printing what it finds. The call depth being
+	 * exceeded is raised with {@link Assembler#syntaxError(String)}.
+	 * @param program Validated, completely numerical program
+	 * @param aliases {@link SymbolTable} the program was assembled against
+	 * @param strip {@code true} to cut unreachable instructions out of the
+	 * program
+	 */
+	public static void main(Program program, SymbolTable aliases, boolean strip) {
+		Analyzer.program = program;
+		if(program.size == 0) return;
+		
+		boolean[] reachable = findReachable();
+		findSubroutines(reachable);
+		checkCallDepth();
+		checkRegisters(reachable);
+		
+		// Report unreachable code, one warning per run of instructions:
+		int unreachable = 0;
+		for(int i = 0; i < program.size; i++) {
+			if(reachable[i]) continue;
+			
+			int start = i;
+			while(i+1 < program.size && !reachable[i+1]) i++;
+			Assembler.warning(
+				"Unreachable code ("+(i-start+1)+" instruction"+(i == start ? "" : "s")+")"
+				+(strip ? ", stripped" : ""),
+				program.lineIndex[start]
+			);
+			unreachable += i-start+1;
+		}
+		if(strip && unreachable > 0 && Assembler.getSyntaxErrors() == 0) {
+			for(int i = 0; i < program.size; i++)
+				if(!reachable[i]) program.notes[i] = Program.join(program.notes[i], "stripped, unreachable");
+			program.compact(invert(reachable), aliases);
+			Log.log("Stripped "+unreachable+" unreachable instructions ("+(unreachable<<1)+" bytes)");
+		}
+		
+		Analyzer.program = null; // Don't hold onto the program
+		bodies = null;
+	}
+	
+	/**
+	 * Walks the control-flow graph from the start of the program, following
+	 * both calls and the instruction after each call.
+	 * @return Reachable instructions, by index
+	 */
+	private static boolean[] findReachable() {
+		boolean[] reachable = new boolean[program.size];
+		int[] worklist = new int[program.size];
+		int pending = 0;
+		reachable[0] = true;
+		worklist[pending++] = 0;
+		
+		while(pending > 0) {
+			int i = worklist[--pending];
+			for(int next : successors(i, true)) {
+				if(next >= program.size) {
+					Assembler.warning("Execution can continue past the end of the program into data", program.lineIndex[i]);
+					continue;
+				}
+				if(reachable[next]) continue;
+				
+				reachable[next] = true;
+				worklist[pending++] = next;
+			}
+		}
+		
+		return reachable;
+	}
+	
+	/**
+	 * Finds every subroutine and the instructions making up its body, and
+	 * warns about {@code RTS} reachable outside any subroutine.
+	 * @param reachable Reachable instructions, from {@link #findReachable()}
+	 */
+	private static void findSubroutines(boolean[] reachable) {
+		subroutineAt = new int[program.size+1];
+		Arrays.fill(subroutineAt, -1);
+		entries = new int[program.size+1];
+		entryCount = 0;
+		subroutineAt[0] = entryCount;
+		entries[entryCount++] = 0;
+		for(int i = 0; i < program.size; i++) {
+			if(!reachable[i] || program.opcode[i] != JSR) continue;
+			
+			int target = program.operand(i, 0);
+			if(target < program.size && subroutineAt[target] < 0) {
+				subroutineAt[target] = entryCount;
+				entries[entryCount++] = target;
+			}
+		}
+		
+		bodies = new boolean[entryCount][];
+		int[] worklist = new int[program.size];
+		for(int s = 0; s < entryCount; s++) {
+			boolean[] body = new boolean[program.size];
+			int pending = 0;
+			body[entries[s]] = true;
+			worklist[pending++] = entries[s];
+			
+			while(pending > 0) {
+				int i = worklist[--pending];
+				if(s == 0 && program.opcode[i] == RTS)
+					Assembler.warning("RTS outside of a subroutine will underflow the stack", program.lineIndex[i]);
+				
+				for(int next : successors(i, false)) {
+					if(next >= program.size || body[next]) continue;
+					body[next] = true;
+					worklist[pending++] = next;
+				}
+			}
+			bodies[s] = body;
+		}
+	}
+	
+	/**
+	 * Works out the deepest chain of calls from the start of the program,
+	 * reports it, and raises a syntax error if it overflows the stack.
+	 */
+	private static void checkCallDepth() {
+		depths = new int[entryCount];
+		deepestCallee = new int[entryCount];
+		byte[] state = new byte[entryCount]; // 0 = unvisited, 1 = on the call chain, 2 = done
+		List<Integer> chain = new ArrayList<Integer>();
+		depth(0, state, chain);
+		
+		// Rebuild the deepest chain from the start of the program:
+		StringBuilder path = new StringBuilder(name(0));
+		for(int s = deepestCallee[0]; s >= 0; s = deepestCallee[s]) path.append(" → ").append(name(s));
+		
+		Log.log(
+			"Analysis: "+(entryCount-1)+" subroutines, call depth "+depths[0]+"/"+STACK_DEPTH
+			+(depths[0] > 0 ? " ("+path+")" : "")
+		);
+		for(int s = 1; s < entryCount; s++) {
+			int size = 0;
+			for(boolean b : bodies[s]) if(b) size++;
+			Log.debug("Subroutine "+name(s)+": "+size+" instructions, nests "+depths[s]+" calls deep");
+		}
+		
+		if(depths[0] > STACK_DEPTH)
+			Assembler.syntaxError(
+				"Calls nest "+depths[0]+" deep ("+path+"), "
+				+"but the stack only holds "+STACK_DEPTH+" return addresses!"
+			);
+	}
+	
+	/**
+	 * Depth-first search of the call graph.
+	 * @param s Subroutine index
+	 * @param state Visit state of each subroutine
+	 * @param chain Subroutines on the current call chain, to report recursion
+	 * @return Deepest nesting of calls made from subroutine {@code s}
+	 */
+	private static int depth(int s, byte[] state, List<Integer> chain) {
+		if(state[s] == 2) return depths[s];
+		
+		state[s] = 1;
+		chain.add(s);
+		depths[s] = 0;
+		deepestCallee[s] = -1;
+		boolean[] body = bodies[s];
+		for(int i = 0; i < program.size; i++) {
+			if(!body[i] || program.opcode[i] != JSR) continue;
+			
+			int target = program.operand(i, 0);
+			if(target >= program.size) continue;
+			int callee = subroutineAt[target];
+			
+			if(state[callee] == 1) { // Back edge
+				StringBuilder cycle = new StringBuilder();
+				for(int c : chain.subList(chain.indexOf(callee), chain.size())) cycle.append(name(c)).append(" → ");
+				Assembler.warning(
+					"Recursive call ("+cycle+name(callee)+"), stack depth can't be checked",
+					program.lineIndex[i]
+				);
+				continue;
+			}
+			
+			int depth = 1+depth(callee, state, chain);
+			if(depth > depths[s]) {
+				depths[s] = depth;
+				deepestCallee[s] = callee;
+			}
+		}
+		
+		chain.remove(chain.size()-1);
+		state[s] = 2;
+		return depths[s];
+	}
+	
+	/**
+	 * Forward "definitely written" dataflow over registers: every reachable
+	 * instruction gets the set of registers written on all paths to it, and
+	 * reads outside that set are warned about.
+	 * @param reachable Reachable instructions, from {@link #findReachable()}
+	 */
+	private static void checkRegisters(boolean[] reachable) {
+		// Return sites of each subroutine, for RTS edges:
+		List<List<Integer>> returnSites = new ArrayList<List<Integer>>();
+		for(int s = 0; s < entryCount; s++) returnSites.add(new ArrayList<Integer>());
+		for(int i = 0; i < program.size; i++) {
+			if(!reachable[i] || program.opcode[i] != JSR) continue;
+			int target = program.operand(i, 0);
+			if(target < program.size) returnSites.get(subroutineAt[target]).add(i+1);
+		}
+		
+		int[] written = new int[program.size]; // Bitmask of registers
+		Arrays.fill(written, -1); // Not reached yet
+		boolean[] queued = new boolean[program.size];
+		int[] worklist = new int[program.size];
+		int pending = 0;
+		written[0] = 1; // r0 can always be read
+		queued[0] = true;
+		worklist[pending++] = 0;
+		
+		while(pending > 0) {
+			int i = worklist[--pending];
+			queued[i] = false;
+			int destination = destination(i);
+			int out = written[i] | (destination < 0 ? 0 : 1<<destination);
+			
+			List<Integer> next = new ArrayList<Integer>();
+			if(program.opcode[i] == RTS) {
+				for(int s = 1; s < entryCount; s++)
+					if(bodies[s][i]) next.addAll(returnSites.get(s));
+			} else if(program.opcode[i] == JSR) next.add(program.operand(i, 0));
+			else for(int n : successors(i, false)) next.add(n);
+			
+			for(int n : next) {
+				if(n >= program.size) continue;
+				int in = written[n]&out;
+				if(in == written[n]) continue;
+				
+				written[n] = in;
+				if(!queued[n]) {
+					queued[n] = true;
+					worklist[pending++] = n;
+				}
+			}
+		}
+		
+		for(int i = 0; i < program.size; i++) {
+			if(!reachable[i] || written[i] == -1) continue;
+			
+			int unwritten = reads(i)&~written[i];
+			for(int r = 1; r < 8; r++)
+				if((unwritten>>r&1) == 1)
+					Assembler.warning("r"+r+" may be read before it is written (it will read as 0)", program.lineIndex[i]);
+		}
+	}
+	
+	/**
+	 * @param i Instruction index
+	 * @param calls {@code true} to include the target of a {@code JSR}
+	 * @return Instructions that may run after instruction {@code i}, not
+	 * counting returns from {@code RTS}
+	 */
+	private static int[] successors(int i, boolean calls) {
+		int opcode = program.opcode[i];
+		if(opcode == HLT || opcode == RTS) return new int[0];
+		if(opcode == JMP) return new int[]{program.operand(i, 0)};
+		if(opcode == JSR && calls) return new int[]{program.operand(i, 0), i+1};
+		if(program.instructionType[i] == IMM10 && opcode != JSR)
+			return new int[]{program.operand(i, 0), i+1}; // Branches
+		return new int[]{i+1};
+	}
+	
+	/**
+	 * @param i Instruction index
+	 * @return The register this instruction writes to, or {@code -1} if it
+	 * doesn't write to one
+	 */
+	private static int destination(int i) {
+		switch(program.opcode[i]) {
+			case ADI:
+			case LDI:
+			case GPI:
+				return program.operand(i, 1);
+			case PAG:
+				return program.operand(i, 0);
+			default:
+				if(program.instructionType[i] == Program.ALU && program.opcode[i] != STO)
+					return program.operand(i, 2); // ALU instructions and REA
+				return -1;
+		}
+	}
+	
+	/**
+	 * @param i Instruction index
+	 * @return Bitmask of the registers this instruction reads
+	 */
+	private static int reads(int i) {
+		switch(program.opcode[i]) {
+			case ADI:
+				return 1<<program.operand(i, 1);
+			case REA:
+			case GPO:
+				return 1<<program.operand(i, 0);
+			case STO:
+				return 1<<program.operand(i, 0) | 1<<program.operand(i, 2);
+			case PAS:
+				return 1<<program.operand(i, 1);
+			default:
+				if(program.instructionType[i] == Program.ALU)
+					return 1<<program.operand(i, 0) | 1<<program.operand(i, 1);
+				return 0;
+		}
+	}
+	
+	/**
+	 * @param s Subroutine index
+	 * @return Label of the subroutine, or its line # if it has none
+	 */
+	private static String name(int s) {
+		String label = program.label(entries[s]);
+		if(label != null) return label;
+		return s == 0 ? "start" : "line "+program.lineIndex[entries[s]];
+	}
+	
+	private static boolean[] invert(boolean[] array) {
+		boolean[] inverse = new boolean[array.length];
+		for(int i = 0; i < array.length; i++) inverse[i] = !array[i];
+		return inverse;
+	}
+}
@@ -1,10 +1,9 @@
 package net.toydotgame.TRC3emu.assembler;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import net.toydotgame.TRC3emu.events.AssemblerPhaseEvent;
 import net.toydotgame.utils.Log;
 import net.toydotgame.utils.Utils;
 
@@ -15,54 +14,116 @@ public class Assembler {
 	private static int syntaxErrors = 0;
 	
 	/**
-	 * Denotes the list of alias names and their numeric values for later
-	 * substitution. Variables are also added to this list in order to reserve
-	 * their names, but their value is initialised to {@code null} to begin with.
-	 * Later, {@code null} is replaced with their position in <i>data memory</i>,
+	 * Denotes the table of alias names and their numeric values for later
+	 * substitution. Variables are also added to this table in order to reserve
+	 * their names, but their value is initialised to {@code -1} to begin with.
+	 * Later, {@code -1} is replaced with their position in <i>data memory</i>,
 	 * which is equivalent to their index in the list of variables, plus a memory
 	 * offset equal to the total length of the <i>program data</i> space. (i.e.
 	 * all variables are stored in memory after program data)<br>
 	 * <br>
-	 * In this Map, the values of subroutines and definitions are the memory
+	 * In this table, the values of subroutines and definitions are the memory
 	 * address of a subroutine's first instruction and a numeric constant kept
 	 * only during assembly, respectively.<br>
-	 * Variables' value in this Map are held as their address in memory (as
-	 * described above). Their actual value is held in the {@link
-	 * Assembler#variables} Map.<br>
+	 * Variables' value in this table are held as their address in memory (as
+	 * described above). Their actual value is held in {@link
+	 * Program#variableValues}.<br>
 	 * <br>
 	 * The aliases {@code r0} through {@code r7} are reserved as register aliases.
-	 * @see Assembler#variables
+	 * @see Program#variables
+	 * @see SymbolTable
 	 */
-	private static Map<String, Integer> aliases = initAliases();
-	private static Map<String, Integer> initAliases() { // Assembler aliases, always lowercase
-		Map<String, Integer> map = new HashMap<String, Integer>();
-		for(int i = 0; i < 8; i++) {
-			map.put("r"+i, i); // Register aliases
-			map.put("p"+i, i); // GPIO ports
-		}
-		
-		// Printable ASCII:
-		map.put("\"sp\"", 32); // Space
-		for(int i = 33; i <= 126; i++) map.put("\""+(char)i+"\"", i);
+	private static SymbolTable aliases;
+	/**
+	 * IR of the program currently being assembled. Its {@link Program#source}
+	 * side table is used for syntax error pretty-printing.
+	 */
+	private static Program program;
+	
+	/**
+	 * Incremental mode cache of lexed and validated lines from the previous
+	 * run, keyed by the content of the line. {@code null} when not in
+	 * incremental mode.
+	 * @see #setIncremental(boolean)
+	 */
+	private static Map<String, CachedLine> lineCache;
+	
+	/**
+	 * The tokens of a line after {@link Validator#main(Lexer, int)} has run on
+	 * it, and the type it returned.
+	 */
+	private static class CachedLine {
+		final int type;
+		final int[] tokens; // From Lexer#save()
 		
-		return map;
+		CachedLine(int type, int[] tokens) {
+			this.type = type;
+			this.tokens = tokens;
+		}
 	}
 	
 	/**
-	 * This Map holds the value of a specific variable, with the key being the
-	 * alias name, and the value being the actual literal unsigned 8-bit byte
-	 * to be kept. For each key {@code k} ∈ {@code variables}, {@code
-	 * aliases.containsKey(k)} is {@code true}. Therefore, given some
-	 * alias/variable name {@code s}, {@code aliases.get(s)} yields its location
-	 * in the final memory mapping, and {@code variables.get(s)} yields the byte
-	 * to be put at that address.<br>
-	 * <br>
-	 * In practice, the program data and the variable data is stored as two {@code
-	 * List}s, with the latter being concatenated after the former to form the
-	 * final binary that represents the final memory map.
-	 * @see Assembler#aliases
+	 * Run the {@link Optimizer} over programs before encoding them.
+	 */
+	private static boolean optimize = false;
+	
+	/**
+	 * Turns the peephole {@link Optimizer} on or off. Off by default.
+	 * @param enabled {@code true} to optimise programs before encoding
+	 */
+	public static void setOptimize(boolean enabled) {
+		optimize = enabled;
+	}
+	
+	/**
+	 * @return The settings that change what {@link #assemble(List)} outputs,
+	 * as a short string, e.g. {@code "O"}, for keying cached images by
+	 */
+	public static String settings() {
+		return (optimize ? "O" : "")+(analyze ? "A" : "")+(strip ? "s" : "");
+	}
+	
+	/**
+	 * Run the {@link Analyzer} over programs before encoding them, and whether
+	 * to have it strip unreachable code.
+	 */
+	private static boolean analyze = false, strip = false;
+	
+	/**
+	 * Turns the control-flow {@link Analyzer} on or off. Off by default.
+	 * @param enabled {@code true} to analyse programs before encoding
+	 * @param stripUnreachable {@code true} to also cut unreachable code out of
+	 * programs
+	 */
+	public static void setAnalyze(boolean enabled, boolean stripUnreachable) {
+		analyze = enabled;
+		strip = stripUnreachable;
+	}
+	
+	/**
+	 * @return Whether the {@link Analyzer} is on, so programs must be
+	 * assembled for its report, rather than loaded from a cache
 	 */
-	private static Map<String, Integer> variables = new LinkedHashMap<String, Integer>();
+	public static boolean isAnalyzing() {
+		return analyze;
+	}
+	
+	/**
+	 * Turns incremental mode on or off. In incremental mode, the {@link
+	 * SymbolTable} is kept between runs and every line that lexed and
+	 * validated without errors is cached by its content. On the next run,
+	 * lines found in the cache skip the {@link Lexer} and {@link Validator}
+	 * entirely; only new or edited lines are parsed again. Alias definition,
+	 * substitution, and encoding are integer passes over the {@link Program}
+	 * and always run, so lines whose aliases changed value are always
+	 * re-encoded correctly.
+	 * @param enabled {@code true} to cache between calls to {@link
+	 * #assemble(List)}
+	 */
+	public static void setIncremental(boolean enabled) {
+		lineCache = enabled ? new HashMap<String, CachedLine>() : null;
+		aliases = null;
+	}
 	
 	/**
 	 * Assembles a source file and returns its binary representation
@@ -70,75 +131,131 @@ public class Assembler {
 	 * @return Output file lines
 	 */
 	public static List<String> main(List<String> source) {
+		byte[] image = assemble(source);
+		if(image == null)
+			Log.exit(
+				String.format("%,d", syntaxErrors)
+				+" errors occured. No output will be written"
+			);
+		
+		return render(image);
+	}
+	
+	/**
+	 * Assembles a source file into a memory image, without writing or exiting.
+	 * @param source Input file lines
+	 * @return Final memory map of the assembled program, or {@code null} if
+	 * there were syntax errors
+	 * @see #getSyntaxErrors()
+	 */
+	public static byte[] assemble(List<String> source) {
+		// Reset state from any previous run:
+		syntaxErrors = 0;
+		if(lineCache == null || aliases == null) aliases = new SymbolTable();
+		else aliases.reset(); // Keep symbol ids for cached lines
+		program = new Program(source);
+		Lexer lexer = new Lexer(aliases);
+		Map<String, CachedLine> cache = null;
+		if(lineCache != null) cache = new HashMap<String, CachedLine>(); // Only keep lines still in use
+		int cacheHits = 0;
+		AssemblerPhaseEvent phase = AssemblerPhaseEvent.start("parse");
+		
 		// Generate program listing:
-		List<Instruction> program = new ArrayList<Instruction>();
 		for(int i = 0; i < source.size(); i++) {
-			String line = source.get(i);
 			/*
-			 * Generate a new instruction from the String value of the current
-			 * line. The Instruction constructor takes in this line plus
-			 * a line index (which we can use the fact that `source` is a list
-			 * from the original input file to yield our line numbers if we just
-			 * index starting at 1 (so i.e. i+1=line index)). The line index is
-			 * used for syntax error message pretty-printing.
-			 * 
-			 * Additionally, the constructor will designate the `type` field, to
-			 * denote if it is invalid (i.e. a comment or empty line, or a
+			 * Lex the current line, then have the Validator designate its type,
+			 * to denote if it is invalid (i.e. a comment or empty line, or a
 			 * syntactically invalid statement that should be skipped in further
-			 * operations), a variable, subroutine, or a definition.
+			 * operations), an instruction, a variable, subroutine, or a
+			 * definition. The line index (i+1, as `source` is a list of the
+			 * lines of the original input file) is used for syntax error message
+			 * pretty-printing.
+			 * 
+			 * In incremental mode, a line seen last run is restored into the
+			 * lexer as it was after validation instead.
 			 * 
-			 * In this for() loop, we are only adding valid lines of type
-			 * INSTRUCTION, as this loop is just yielding the program data section
-			 * of memory.
+			 * Only valid lines of type INSTRUCTION are added to the program, as
+			 * this loop is just yielding the program data section of memory.
+			 * Aliases are defined as soon as they are found.
 			 */
-			Instruction instruction = new Instruction(line, i+1);
-			
-			// 1. Replace opcode mnemonics with opcode strings:
-			instruction.substituteOpcode();
-			// 2. If this statement is a variable/subroutine/definition, then
-			//    parse it and add it as an alias/variable
-			defineAlias(instruction);
+			String line = source.get(i);
+			int type;
+			CachedLine cached = lineCache == null ? null : lineCache.get(line);
+			if(cached != null) {
+				lexer.restore(line, cached.tokens);
+				type = cached.type;
+				cacheHits++;
+			} else {
+				lexer.lex(line);
+				int errors = syntaxErrors;
+				type = Validator.main(lexer, i+1);
+				// Errors have to be raised again next time, so don't cache them:
+				if(cache != null && syntaxErrors == errors)
+					cached = new CachedLine(type, lexer.save());
+			}
+			if(cache != null && cached != null) cache.put(line, cached);
 			
-			if(instruction.type != Instruction.INSTRUCTION) continue;
-			// Otherwise, valid instruction:
-			program.add(instruction);
+			if(type == Program.INSTRUCTION) program.add(lexer, i+1);
+			// If this statement is a variable/subroutine/definition, then parse
+			// it and add it as an alias/variable
+			else defineAlias(type, lexer, i+1);
+		}
+		if(cache != null) {
+			lineCache = cache;
+			Log.debug("Reused "+cacheHits+" of "+source.size()+" lines from the incremental cache");
 		}
 		
+		phase.end(program.size);
+		phase = AssemblerPhaseEvent.start("resolve");
+		
 		// Generate variable listing:
-		int variableCounter = program.size()<<1; // Start with this address and increment
-		for(String alias : variables.keySet()) {
-			// Replace null address with final data location following program data space:
-			aliases.put(alias, variableCounter++);
+		int variableCounter = program.size<<1; // Start with this address and increment
+		for(int i = 0; i < program.variableCount; i++) {
+			// Replace -1 address with final data location following program data space:
+			aliases.define(program.variables[i], SymbolTable.VARIABLE, variableCounter++);
 		}
 		
 		// Take previous list of instructions and finish parsing it:
-		for(int i = 0; i < program.size(); i++) {
-			Instruction instruction = program.get(i);
-			if(instruction.type != Instruction.INSTRUCTION) continue;
-			
+		for(int i = 0; i < program.size; i++) {
 			// 1. Attempt substituting in alias names if found:
-			substituteAliases(instruction);
+			substituteAliases(program, i);
 			// 2. Make operand length 2 for the instructions that assume it:
-			fixOperands(instruction);
+			fixOperands(program, i);
 			// 3. Validate operands:
-			validateOverflows(instruction);
-			
-			if(instruction.type != Instruction.INSTRUCTION) {
-				program.remove(i);
-				i--; // Account for removal
-			}
+			validateOverflows(program, i);
 		}
 		
-		// Concatenate two data spaces into one stream:
-		List<String> binary = Encoder.main(
-			program, new ArrayList<Integer>(variables.values())
-		);
+		phase.end(program.size);
+		if(syntaxErrors > 0) return null;
 		
-		if(syntaxErrors > 0)
-			Log.exit(
-				String.format("%,d", syntaxErrors)
-				+" errors occured. No output will be written"
-			);
+		if(optimize) {
+			phase = AssemblerPhaseEvent.start("optimise");
+			Optimizer.main(program, aliases);
+			phase.end(program.size);
+		}
+		if(analyze) {
+			phase = AssemblerPhaseEvent.start("analyse");
+			Analyzer.main(program, aliases, strip);
+			phase.end(program.size);
+			if(syntaxErrors > 0) return null;
+		}
+		
+		// Concatenate two data spaces into one stream:
+		phase = AssemblerPhaseEvent.start("encode");
+		byte[] image = Encoder.main(program);
+		phase.end(program.size);
+		return image;
+	}
+	
+	/**
+	 * Renders the memory image from the last call to {@link #assemble(List)}
+	 * as output file lines. In verbose mode, each line is prefixed with its
+	 * address and followed by the source it came from.
+	 * @param image Memory image from {@link #assemble(List)}
+	 * @return Output file lines
+	 */
+	public static List<String> render(byte[] image) {
+		List<String> binary = Encoder.render(image);
 		
 		if(Log.logLevel < Log.VERBOSE) return binary;
 		
@@ -149,19 +266,17 @@ public class Assembler {
 			String srcLine = "";
 			// i>>1 yields floor(i/2), which we can take as the instruction # in
 			// the binary
-			if(i>>1 < program.size()) { // Log program space
-				if(i%2==0) srcLine = "\t"+program.get(i>>1).originalText; // Only print on even lines
+			if(i>>1 < program.size) { // Log program space
+				if(i%2==0) { // Only print on even lines
+					srcLine = "\t"+program.text(i>>1);
+					if(program.notes[i>>1] != null) srcLine += "\t; "+program.notes[i>>1];
+				}
 			} else { // Else, log variable space
-				// Hack for lazy (i>>1)→varIndex conversion that remembers to
-				// remove program size beforehand:
-				int variableIndex = i-(program.size()<<1);
+				// Remove program size to get the variable's index:
+				int variableIndex = i-(program.size<<1);
 				
-				// Enumerate list of variable keys, create a List<String> from
-				// that, then get the key at numerical index `variableIndex`: 
-				String variableKey = new ArrayList<String>(variables.keySet())
-					.get(variableIndex);
-				
-				srcLine = "\t."+variableKey+" "+String.valueOf(variables.get(variableKey));
+				srcLine = "\t."+aliases.name(program.variables[variableIndex])
+					+" "+program.variableValues[variableIndex];
 			}
 			
 			line = Utils.paddedHex(i, 4)+": "+line+srcLine; // 1 line in `binary` is 1 byte, so just use the index
@@ -177,124 +292,188 @@ public class Assembler {
 		return binary;
 	}
 	
+	/**
+	 * @return The {@link Program} IR from the last call to {@link
+	 * #assemble(List)}, or {@code null} if nothing has been assembled
+	 */
+	public static Program getProgram() {
+		return program;
+	}
+	
+	/**
+	 * @return Number of syntax errors raised by the last call to {@link
+	 * #assemble(List)}
+	 */
+	public static int getSyntaxErrors() {
+		return syntaxErrors;
+	}
+	
 	/**
 	 * Raise a syntax error and print a message to go along with it
 	 * @param message Message describing the error
-	 * @param instruction {@link Instruction} associated with the error
+	 * @param lineIndex Line # associated with the error
 	 */
-	public static void syntaxError(String message, Instruction instruction) {
+	public static void syntaxError(String message, int lineIndex) {
 		syntaxErrors++;
-		
-		String line = instruction.originalText;
-		int index = instruction.lineIndex;
+		printError(message, lineIndex);
+	}
+	/**
+	 * Raise a syntax error and print a message without a line index
+	 * @param message Message describing the error
+	 * @see Assembler#syntaxError(String, int)
+	 */
+	public static void syntaxError(String message) {
+		syntaxErrors++;
+		Log.error(message);
+	}
+	
+	/**
+	 * Print a message about a line that doesn't stop the program from
+	 * assembling, in the same format as {@link #syntaxError(String, int)}
+	 * @param message Message describing the problem
+	 * @param lineIndex Line # associated with the problem
+	 */
+	public static void warning(String message, int lineIndex) {
+		printError("Warning: "+message, lineIndex);
+	}
+	
+	private static void printError(String message, int lineIndex) {
+		String line = program.source[lineIndex-1];
 		
 		// Log error for empty line:
 		if(line.length() == 0) {
-			Log.error(index+": "+message);
+			Log.error(lineIndex+": "+message);
 			return;
 		}
 		
 		// Log otherwise:
 		Log.error(line);
 		Log.error(Utils.nChars(line.length(), '^'));
-		Log.error("  "+index+": "+message);
-	}
-	/**
-	 * Raise a syntax error and print a message without a line index
-	 * @param message Message describing the error
-	 * @see Assembler#syntaxError(String, Instruction)
-	 */
-	public static void syntaxError(String message) {
-		syntaxErrors++;
-		Log.error(message);
+		Log.error("  "+lineIndex+": "+message);
 	}
 
 	/**
-	 * Defines variables, subroutines, and definitions. If the input instruction
+	 * Defines variables, subroutines, and definitions. If the input line
 	 * is not one of these, this method silently does nothing.<br>
 	 * <br>
 	 * Checks that the alias has not already been defined, and if not, it
-	 * defines it in the list of {@link #aliases}.
-	 * @param instruction {@link Instruction} instance
+	 * defines it in the table of {@link #aliases}.
+	 * @param type {@link Program} source line type of the line
+	 * @param lexer {@link Lexer} holding the line, its first token resolved by
+	 * {@link Validator#main(Lexer, int)}
+	 * @param lineIndex Line # of the line
 	 */
-	private static void defineAlias(Instruction instruction) {
-		String alias = instruction.alias; // Set from Validator#validateAlias(Instruction)
+	private static void defineAlias(int type, Lexer lexer, int lineIndex) {
 		// If an alias, check that the alias is not already defined, else return
-		switch(instruction.type) {
+		switch(type) {
 			default:
 				return;
-			case Instruction.VARIABLE:
-			case Instruction.SUBROUTINE:
-			case Instruction.DEFINITION:
-				if(aliases.containsKey(alias)) {
-					syntaxError("Alias \""+alias+"\" already defined!", instruction);
+			case Program.VARIABLE:
+			case Program.SUBROUTINE:
+			case Program.DEFINITION:
+				if(aliases.isDefined(lexer.value(0))) {
+					syntaxError("Alias \""+aliases.name(lexer.value(0))+"\" already defined!", lineIndex);
 					return;
 				}
 		}
+		int alias = lexer.value(0);
 		
-		// Define new alias if above passed: See javadocs for the instruction
-		// type constants to see the function of each
-		switch(instruction.type) {
-			case Instruction.VARIABLE:
+		// Define new alias if above passed: See javadocs for the line type
+		// constants to see the function of each
+		int value;
+		switch(type) {
+			case Program.VARIABLE:
 				// Substitute hardcoded or previously-created aliases in:
-				substituteAliases(instruction);
-				
-				try {
-					int value = Integer.parseInt(instruction.tokens.get(1));
-					if(value < 0 || value > 255) throw new NumberFormatException();
-					
-					aliases.put(alias, null);
-					variables.put(alias, value);
-				} catch(NumberFormatException e) {
+				value = substituteAlias(lexer, lineIndex);
+				if(value < 0 || value > 255) {
 					syntaxError(
-						"Invalid numeric literal \""+instruction.tokens.get(1)+"\" when defining variable \""+alias+"\"! "
-						+"Must be a number in the range of 0-255.", instruction
+						"Invalid numeric literal \""+valueText(lexer, value)+"\" when defining variable \""+aliases.name(alias)+"\"! "
+						+"Must be a number in the range of 0-255.", lineIndex
 					);
+					break;
 				}
 				
+				aliases.define(alias, SymbolTable.VARIABLE, -1);
+				program.addVariable(alias, value);
+				
 				break;
-			case Instruction.SUBROUTINE:
+			case Program.SUBROUTINE:
 				/* Value of subroutine is a program counter value, i.e. 0–1023,
-				 * one per instruction. memoryIndex counts the byte location,
-				 * however (i.e. 0–2047, two per instruction), meaning we must
-				 * right shift it:
+				 * one per instruction. The next instruction added to the program
+				 * is the first of this subroutine, so its index is the number of
+				 * instructions so far:
 				 */
-				aliases.put(alias, instruction.memoryIndex>>1);
+				aliases.define(alias, SymbolTable.CONSTANT, program.size);
+				program.addLabel(aliases.name(alias), program.size);
 				
 				break;
-			case Instruction.DEFINITION:
-				substituteAliases(instruction);
-				
-				try {
-					int value = Integer.parseInt(instruction.tokens.get(1));
-					if(value < 0) throw new NumberFormatException();
-					aliases.put(alias, value);
-				} catch(NumberFormatException e) {
+			case Program.DEFINITION:
+				value = substituteAlias(lexer, lineIndex);
+				if(value < 0) {
 					syntaxError(
-						"Invalid numeric literal \""+instruction.tokens.get(1)+"\" when defining assembler definition "
-						+"\""+alias+"\"! Must be a number above 0.", instruction
+						"Invalid numeric literal \""+valueText(lexer, value)+"\" when defining assembler definition "
+						+"\""+aliases.name(alias)+"\"! Must be a number above 0.", lineIndex
 					);
+					break;
 				}
+				
+				aliases.define(alias, SymbolTable.CONSTANT, value);
+		}
+	}
+	
+	/**
+	 * Resolves the value of a variable or definition, substituting in its
+	 * respective alias value if it is an alias.
+	 * @param lexer {@link Lexer} holding the variable or definition
+	 * @param lineIndex Line # of the line
+	 * @return Value of the alias, or {@code -1} if it isn't a valid number
+	 */
+	private static int substituteAlias(Lexer lexer, int lineIndex) {
+		switch(lexer.kind(1)) {
+			case Lexer.NUMBER:
+				return lexer.value(1);
+			case Lexer.SYMBOL:
+				int alias = lexer.value(1);
+				if(!aliases.isDefined(alias))
+					syntaxError("Undefined alias \""+aliases.name(alias)+"\"!", lineIndex);
+				
+				return aliases.value(alias); // -1 for variables not yet given an address
+			default:
+				return -1;
 		}
 	}
 	
+	/**
+	 * Gets the text of a variable's or definition's value for error messages.
+	 * @param lexer {@link Lexer} holding the variable or definition
+	 * @param value Value from {@link #substituteAlias(Lexer, int)}
+	 * @return {@code value}, or the text of the value's token if it couldn't be
+	 * resolved
+	 */
+	private static String valueText(Lexer lexer, int value) {
+		if(value < 0) return lexer.text(1);
+		return String.valueOf(value);
+	}
+	
 	/**
 	 * Tries to find any uses of an alias in an instruction's operands, and
 	 * substitutes in its respective value if so.
-	 * @param instruction Instance of {@link Instruction}, where {@link
-	 * Instruction#type}={@link Instruction#INSTRUCTION}
+	 * @param program {@link Program} holding the instruction
+	 * @param i Index of the instruction in {@code program}
 	 */
-	private static void substituteAliases(Instruction instruction) {
-		for(int i = 1; i < instruction.tokens.size(); i++) {
-			String operand = instruction.tokens.get(i);
-			if(Utils.isDigital(operand))
+	private static void substituteAliases(Program program, int i) {
+		for(int j = 0; j < program.operandCount[i]; j++) {
+			int slot = i*Program.OPERAND_SLOTS+j;
+			if(program.operandKinds[slot] != Lexer.SYMBOL)
 				continue; // Don't substitute what's already a number
 			
-			if(aliases.containsKey(operand))
-				instruction.tokens.set(i, String.valueOf(aliases.get(operand)));
-			else {
-				syntaxError("Undefined alias \""+operand+"\"!", instruction);
-				instruction.type = Instruction.INVALID;
+			int alias = program.operands[slot];
+			if(aliases.isDefined(alias)) { // Variables all have an address by now
+				program.operands[slot] = aliases.value(alias);
+				program.operandKinds[slot] = Lexer.NUMBER;
+			} else {
+				syntaxError("Undefined alias \""+aliases.name(alias)+"\"!", program.lineIndex[i]);
+				program.valid[i] = false;
 			}
 		}
 	}
@@ -314,8 +493,8 @@ public class Assembler {
 	 * arguments need no work</li>
 	 * </ul>
 	 * For these cases, this method will modify the {@link
-	 * Instruction#tokens} value for the provided object for later
-	 * validation (in {@link #validateOverflows(Instruction)}) and
+	 * Program#operands} of the provided instruction for later
+	 * validation (in {@link #validateOverflows(Program, int)}) and
 	 * finally encoding into binary.<br>
 	 * <br>
 	 * Silently does nothing if opcode is not one accounted for in this. It is
@@ -324,71 +503,63 @@ public class Assembler {
 	 * expected amount, or the shorthand amount allowed by the assembler).<br>
 	 * <br>
 	 * Following execution of this method, it is safe to assume for development
-	 * purposes that the number of tokens in the provided object will match the
-	 * Map {@code desiredTokenCounts} found in
-	 * {@link Validator#validateInstruction(Instruction)}.
-	 * @param instruction Instance of {@link Instruction}, where {@link
-	 * Instruction#type}={@link Instruction#INSTRUCTION}
+	 * purposes that the number of operands of the provided instruction will match the
+	 * table {@code desiredTokenCounts} found in {@link Validator} (minus one for
+	 * the opcode).
+	 * @param program {@link Program} holding the instruction
+	 * @param i Index of the instruction in {@code program}
 	 */
-	private static void fixOperands(Instruction instruction) {
-		if(instruction.type == Instruction.INVALID) return;
+	private static void fixOperands(Program program, int i) {
+		if(!program.valid[i]) return;
 		
-		switch(instruction.opcode) {
+		switch(program.opcode[i]) {
 			case 11: // RSH
-				if(instruction.tokens.size() == 4) break;
-				// Otherwise, we know it's just 2 operands (3 tokens):
-				instruction.tokens.add(2, "0"); // REGFILEread B = 0
+				if(program.operandCount[i] == 3) break;
+				// Otherwise, we know it's just 2 operands:
+				program.insertOperand(i, 1, 0); // REGFILEread B = 0
 				break;
 			case 25: // PAS
-				if(instruction.tokens.size() == 3) break;
-				instruction.tokens.add(1, "0"); // Imm = 0
+				if(program.operandCount[i] == 2) break;
+				program.insertOperand(i, 0, 0); // Imm = 0
 		}
 	}
 	
 	/**
-	 * Hands off to {@link Validator#validateOverflows(Instruction)}.
-	 * Assumes {@link Instruction#INSTRUCTION} as input. The return value
-	 * of the {@link Validator} validation, if {@code false}, is used to set the
-	 * {@link Instruction#type} of this instance to {@link
-	 * Instruction#INVALID}. Otherwise, nothing is done.<br>
+	 * Hands off to {@link Validator#validateOverflows(Program, int)}.
+	 * The return value of the {@link Validator} validation, if {@code false},
+	 * is used to mark the instruction as invalid in {@link Program#valid}.
+	 * Otherwise, nothing is done.<br>
 	 * <br>
 	 * An instruction's validity is determined by two things:
 	 * <ol>
 	 * 	<li>There are the correct number of arguments for this instruction. This
-	 * is handled by {@link Validator#validateInstruction(Instruction)}
-	 * and {@link Validator#validateAlias(Instruction, boolean)}</li>
+	 * is handled by {@link Validator#validateInstruction(Lexer, int)}
+	 * and {@link Validator#validateAlias(Lexer, int, boolean)}</li>
 	 * 	<li>Each argument (operand) fits within the number of bits allocated in
 	 * the instruction word format. This is handled here</li>
 	 * </ol>
-	 * @param instruction Instance of {@link Instruction}, where {@link
-	 * Instruction#type}={@link Instruction#INSTRUCTION}
-	 * @see Validator#validateOverflows(Instruction)
-	 * @see Validator#validateAlias(Instruction, boolean)
-	 * @see Validator#validateInstruction(Instruction)
+	 * @param program {@link Program} holding the instruction
+	 * @param i Index of the instruction in {@code program}
+	 * @see Validator#validateOverflows(Program, int)
+	 * @see Validator#validateAlias(Lexer, int, boolean)
+	 * @see Validator#validateInstruction(Lexer, int)
 	 */
-	private static void validateOverflows(Instruction instruction) {
-		if(instruction.type == Instruction.INVALID) return;
+	private static void validateOverflows(Program program, int i) {
+		if(!program.valid[i]) return;
 		
-		List<String> operands =
-			instruction.tokens.subList(1, instruction.tokens.size());
-		List<Integer> operandInts = new ArrayList<Integer>();
-		for(String operand : operands) {
-			try {
-				int value = Integer.parseInt(operand);
-				if(value < 0) throw new NumberFormatException();
-				operandInts.add(value);
-			} catch(NumberFormatException e) {
+		for(int j = 0; j < program.operandCount[i]; j++) {
+			int slot = i*Program.OPERAND_SLOTS+j;
+			if(program.operandKinds[slot] != Lexer.NUMBER) {
 				syntaxError(
-					"Invalid operand \""+operand+"\"! Should be a number ≥0.",
-					instruction
+					"Invalid operand \""+aliases.name(program.operands[slot])+"\"! Should be a number ≥0.",
+					program.lineIndex[i]
 				);
-				instruction.type = Instruction.INVALID;
+				program.valid[i] = false;
 				return;
 			}
 		}
-		instruction.operandInts = operandInts;
 		
-		if(!Validator.validateOverflows(instruction))
-			instruction.type = Instruction.INVALID;
+		if(!Validator.validateOverflows(program, i))
+			program.valid[i] = false;
 	}
 }
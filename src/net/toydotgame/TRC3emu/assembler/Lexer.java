@@ -0,0 +1,279 @@
+package net.toydotgame.TRC3emu.assembler;
+
+import java.util.Arrays;
+import java.util.Map;
+import net.toydotgame.utils.Package;
+import net.toydotgame.utils.Utils;
+
+/**
+ * Hand-written single-pass lexer for lines of TRC3 assembly. {@link
+ * #lex(String)} walks a line once, stops at the first comment character
+ * ({@code ;}), and records each whitespace-delimited token as a typed {@code
+ * (kind, value)} pair:
+ * <ul>
+ * 	<li>{@link #NUMBER}: A digits-only literal. The value is the parsed
+ * number</li>
+ * 	<li>{@link #SYMBOL}: Anything else. The value is the token's symbol id in
+ * this lexer's {@link SymbolTable}</li>
+ * 	<li>{@link #OVERFLOW}: A digits-only literal too big for an {@code int}.
+ * The value is a symbol id holding its text, for error messages</li>
+ * </ul>
+ * <br>
+ * The first token of a line is <i>not</i> resolved, as whether it is a
+ * mnemonic or the name of a new alias depends on the line type, which is up to
+ * {@link Validator#main(Lexer, int)}. Its value is {@code -1} until the
+ * validator resolves it to an opcode (see {@link #opcode()}) or alias symbol
+ * id.<br>
+ * <br>
+ * Token storage is reused for every line, so token values are only valid until
+ * the next call to {@link #lex(String)}.
+ */
+public class Lexer {
+	// Token kinds:
+	public static final int NUMBER = 0;
+	public static final int SYMBOL = 1;
+	public static final int OVERFLOW = 2;
+	
+	// Instance fields:
+	/**
+	 * Table that operand tokens are interned into.
+	 */
+	@Package final SymbolTable symbols;
+	private String line;
+	private int count;
+	private int[] start = new int[4];
+	private int[] end = new int[4];
+	private int[] kind = new int[4];
+	private int[] value = new int[4];
+	
+	/**
+	 * Mnemonics from {@link Utils#opcodes} packed by {@link #pack(String, int)}
+	 * and sorted, for binary searching. {@link #MNEMONIC_OPCODES} holds the
+	 * opcode at the same index.
+	 */
+	private static final long[] MNEMONIC_KEYS;
+	private static final int[] MNEMONIC_OPCODES;
+	static {
+		// Sort keys and opcodes together with the opcode in the bottom 5 bits:
+		long[] entries = new long[Utils.opcodes.size()];
+		int i = 0;
+		for(Map.Entry<String, Integer> entry : Utils.opcodes.entrySet())
+			entries[i++] = pack(entry.getKey(), 0)<<5 | entry.getValue();
+		Arrays.sort(entries);
+		
+		MNEMONIC_KEYS = new long[entries.length];
+		MNEMONIC_OPCODES = new int[entries.length];
+		for(i = 0; i < entries.length; i++) {
+			MNEMONIC_KEYS[i] = entries[i]>>5;
+			MNEMONIC_OPCODES[i] = (int)(entries[i]&0x1F);
+		}
+	}
+	
+	/**
+	 * Creates a new {@link Lexer}
+	 * @param symbols {@link SymbolTable} to intern operand names into
+	 */
+	public Lexer(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+	
+	/**
+	 * Splits a line into tokens, replacing the tokens of the previous line.
+	 * Comments are dropped and any run of whitespace counts as one delimiter.
+	 * @param line Source line from assembly file
+	 * @return Number of tokens found ({@code 0} for blank or comment-only lines)
+	 */
+	public int lex(String line) {
+		this.line = line;
+		this.count = 0;
+		
+		int length = line.length();
+		int i = 0;
+		while(i < length) {
+			char c = line.charAt(i);
+			if(c == ';') break; // Rest of line is a comment
+			if(Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+			
+			// Start of token, read until the next delimiter:
+			int tokenStart = i;
+			boolean digital = true;
+			long number = 0;
+			for(; i < length; i++) {
+				c = line.charAt(i);
+				if(c == ';' || Character.isWhitespace(c)) break;
+				
+				if(c >= '0' && c <= '9') {
+					if(number <= Integer.MAX_VALUE) number = number*10+(c-'0'); // Stop once overflowed
+				} else digital = false;
+			}
+			
+			add(tokenStart, i, digital, number);
+		}
+		
+		return count;
+	}
+	
+	private void add(int tokenStart, int tokenEnd, boolean digital, long number) {
+		if(count == start.length) grow();
+		
+		start[count] = tokenStart;
+		end[count] = tokenEnd;
+		if(count == 0) { // First token is resolved by the caller
+			kind[count] = SYMBOL;
+			value[count] = -1;
+		} else if(!digital) {
+			kind[count] = SYMBOL;
+			value[count] = symbols.intern(line, tokenStart, tokenEnd);
+		} else if(number > Integer.MAX_VALUE) {
+			kind[count] = OVERFLOW;
+			value[count] = symbols.intern(line, tokenStart, tokenEnd);
+		} else {
+			kind[count] = NUMBER;
+			value[count] = (int)number;
+		}
+		count++;
+	}
+	
+	private void grow() {
+		int capacity = start.length<<1;
+		start = Arrays.copyOf(start, capacity);
+		end = Arrays.copyOf(end, capacity);
+		kind = Arrays.copyOf(kind, capacity);
+		value = Arrays.copyOf(value, capacity);
+	}
+	
+	/**
+	 * @return Number of tokens in the current line
+	 */
+	public int count() {
+		return count;
+	}
+	
+	/**
+	 * @param i Token index
+	 * @return {@link #NUMBER}, {@link #SYMBOL}, or {@link #OVERFLOW}
+	 */
+	public int kind(int i) {
+		return kind[i];
+	}
+	
+	/**
+	 * @param i Token index
+	 * @return Numeric value or symbol id of the token, depending on {@link
+	 * #kind(int)}
+	 */
+	public int value(int i) {
+		return value[i];
+	}
+	
+	/**
+	 * Copies the tokens of the current line out, so they can later be put back
+	 * with {@link #restore(String, int[])} instead of lexing the line again.
+	 * @return Packed copy of the current tokens
+	 */
+	public int[] save() {
+		int[] saved = new int[1+count*4];
+		saved[0] = count;
+		for(int i = 0; i < count; i++) {
+			saved[1+i*4] = start[i];
+			saved[2+i*4] = end[i];
+			saved[3+i*4] = kind[i];
+			saved[4+i*4] = value[i];
+		}
+		return saved;
+	}
+	
+	/**
+	 * Replaces the current tokens with ones from {@link #save()}, as if {@link
+	 * #lex(String)} had just been called on the same line (and the first token
+	 * resolved, if it was when saved). Symbol ids are only valid if the same
+	 * {@link SymbolTable} is still in use.
+	 * @param line Source line the tokens were saved from
+	 * @param saved Tokens from {@link #save()}
+	 */
+	public void restore(String line, int[] saved) {
+		this.line = line;
+		this.count = saved[0];
+		while(count > start.length) grow();
+		
+		for(int i = 0; i < count; i++) {
+			start[i] = saved[1+i*4];
+			end[i] = saved[2+i*4];
+			kind[i] = saved[3+i*4];
+			value[i] = saved[4+i*4];
+		}
+	}
+	
+	/**
+	 * Sets the value of a token, once its meaning is known.
+	 * @param i Token index
+	 * @param value Opcode or symbol id
+	 */
+	@Package void resolve(int i, int value) {
+		this.value[i] = value;
+	}
+	
+	/**
+	 * Allocates a copy of a token's text. Intended for alias definitions and
+	 * error messages only.
+	 * @param i Token index
+	 * @return Text of the token
+	 */
+	public String text(int i) {
+		return line.substring(start[i], end[i]);
+	}
+	
+	/**
+	 * @return Length of the line with comments removed and all whitespace runs
+	 * collapsed to single spaces
+	 */
+	public int length() {
+		if(count == 0) return 0;
+		
+		int length = count-1; // Spaces between tokens
+		for(int i = 0; i < count; i++) length += end[i]-start[i];
+		return length;
+	}
+	
+	/**
+	 * @return The first character of the first token, or {@code 0} for an empty
+	 * line
+	 */
+	public char first() {
+		if(count == 0) return 0;
+		return line.charAt(start[0]);
+	}
+	
+	/**
+	 * @return The last character of the last token, or {@code 0} for an empty
+	 * line
+	 */
+	public char last() {
+		if(count == 0) return 0;
+		return line.charAt(end[count-1]-1);
+	}
+	
+	/**
+	 * Looks up the first token as a case-insensitive opcode mnemonic.
+	 * @return Numeric opcode, or {@code -1} if the token is not a mnemonic
+	 */
+	public int opcode() {
+		if(count == 0 || end[0]-start[0] != 3) return -1; // All mnemonics are 3 chars
+		
+		int index = Arrays.binarySearch(MNEMONIC_KEYS, pack(line, start[0]));
+		if(index < 0) return -1;
+		return MNEMONIC_OPCODES[index];
+	}
+	
+	/**
+	 * Packs three characters, uppercased, into one {@code long} for comparing.
+	 */
+	private static long pack(String text, int offset) {
+		return (long)Character.toUpperCase(text.charAt(offset))<<32
+			| (long)Character.toUpperCase(text.charAt(offset+1))<<16
+			| Character.toUpperCase(text.charAt(offset+2));
+	}
+}
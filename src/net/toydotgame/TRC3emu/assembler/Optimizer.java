@@ -0,0 +1,295 @@
+package net.toydotgame.TRC3emu.assembler;
+
+import java.util.Arrays;
+import net.toydotgame.utils.Log;
+import static net.toydotgame.TRC3emu.assembler.Program.IMM10;
+import static net.toydotgame.TRC3emu.assembler.Program.OPERAND_SLOTS;
+
+/**
+ * Peephole optimiser, run over a fully substituted and validated {@link
+ * Program} right before it goes to the {@link Encoder}. TRC3 runs at roughly
+ * 1/12 Hz in Minecraft, so every instruction cut is seconds saved. Each round
+ * makes the following passes, and rounds repeat until nothing changes:
+ * <ol>
+ * 	<li><b>Branch-over-jump:</b> {@code Bcc L; JMP T; L:} becomes {@code
+ * B!cc T; L:}</li>
+ * 	<li><b>Jump threading:</b> A jump, branch, or {@code JSR} to a {@code JMP}
+ * is pointed at that {@code JMP}'s target instead. A {@code JSR} immediately
+ * followed by an {@code RTS} becomes a tail call ({@code JMP})</li>
+ * 	<li><b>Dead instructions:</b> {@code NOP}s, jumps and branches to the very
+ * next instruction, and {@code LDI}/{@code ADI}/{@code REA}/{@code PAG} into
+ * {@code r0} are removed. ALU instructions into {@code r0} are kept, as they
+ * still set the flags, and so is {@code GPI}, as it still consumes input</li>
+ * 	<li><b>Constant folding:</b> An {@code ADI} to the register just loaded by
+ * an {@code LDI} is folded into that {@code LDI}</li>
+ * 	<li><b>Redundant reloads:</b> Within a basic block, an {@code LDI} of the
+ * value a register already holds is removed, as is a {@code REA} of exactly
+ * what the previous {@code STO} stored</li>
+ * </ol>
+ * Removed instructions are cut out of the program and every jump target is
+ * moved to match. Variables move down along with the end of the program, so
+ * operands that were written as a variable's name are moved too. Data
+ * addresses written as plain numbers can't be told apart from any other
+ * number, so programs that hard-code addresses into the data space (or read
+ * their own instructions as data) should not be optimised.<br>
+ * <br>
+ * Every change is logged, and noted next to the instruction it affected in
+ * the verbose listing.
+ */
+public class Optimizer {
+	// Opcodes this works with:
+	private static final int NOP = 0;
+	private static final int HLT = 1;
+	private static final int ADI = 3;
+	private static final int LDI = 12;
+	private static final int JMP = 13;
+	private static final int BEQ = 14;
+	private static final int BNE = 15;
+	private static final int BGT = 16;
+	private static final int BLT = 17;
+	private static final int JSR = 18;
+	private static final int RTS = 19;
+	private static final int REA = 20;
+	private static final int STO = 21;
+	private static final int GPI = 22;
+	private static final int PAG = 26;
+	/**
+	 * Stop after this many rounds, even if there are still changes being made.
+	 */
+	private static final int MAX_ROUNDS = 16;
+	
+	private static Program program;
+	private static SymbolTable aliases;
+	/**
+	 * Instructions marked to be cut out at the end of the round.
+	 */
+	private static boolean[] removed;
+	/**
+	 * Instructions that are the target of a jump, branch, or {@code JSR}, found
+	 * at the start of each round. A removed target passes this on to the next
+	 * instruction that's kept, as that's where its jumps will land.
+	 */
+	private static boolean[] targets;
+	private static int changes;
+	
+	/**
+	 * Optimises a program in place.
+	 * @param program Validated, completely numerical program
+	 * @param aliases {@link SymbolTable} the program was assembled against
+	 * @return Number of changes made
+	 */
+	public static int main(Program program, SymbolTable aliases) {
+		Optimizer.program = program;
+		Optimizer.aliases = aliases;
+		int sizeBefore = program.size;
+		int totalChanges = 0;
+		
+		for(int round = 0; round < MAX_ROUNDS; round++) {
+			changes = 0;
+			removed = new boolean[program.size];
+			findTargets();
+			
+			shortenBranches(); // Before threading moves the branch's target
+			threadJumps();
+			removeDeadInstructions();
+			foldConstants();
+			removeReloads();
+			
+			program.compact(removed, aliases);
+			if(changes == 0) break;
+			totalChanges += changes;
+		}
+		
+		Log.debug(
+			"Optimiser made "+totalChanges+" changes, "
+			+sizeBefore+" → "+program.size+" instructions"
+		);
+		
+		Optimizer.program = null; // Don't hold onto the program
+		Optimizer.aliases = null;
+		return totalChanges;
+	}
+	
+	private static void findTargets() {
+		targets = new boolean[program.size+1];
+		for(int i = 0; i < program.size; i++) {
+			if(program.instructionType[i] != IMM10) continue;
+			
+			int target = program.operand(i, 0);
+			if(target <= program.size) targets[target] = true;
+		}
+	}
+	
+	private static void threadJumps() {
+		for(int i = 0; i < program.size; i++) {
+			if(removed[i] || program.instructionType[i] != IMM10) continue;
+			
+			int target = program.operand(i, 0);
+			int threaded = target;
+			for(int steps = 0; steps < program.size; steps++) { // Bail out of JMP cycles
+				if(threaded >= program.size || program.opcode[threaded] != JMP) break;
+				int next = program.operand(threaded, 0);
+				if(next == threaded) break;
+				threaded = next;
+			}
+			if(threaded != target) {
+				program.operands[i*OPERAND_SLOTS] = threaded;
+				program.operandSymbols[i*OPERAND_SLOTS] = -1;
+				change(i, "threaded through the JMP on line "+program.lineIndex[target]);
+			}
+			
+			if(program.opcode[i] == JSR && i+1 < program.size && program.opcode[i+1] == RTS) {
+				setOpcode(i, JMP);
+				change(i, "JSR followed by RTS turned into a tail call");
+			}
+		}
+	}
+	
+	private static void removeDeadInstructions() {
+		for(int i = 0; i < program.size; i++) {
+			if(removed[i]) continue;
+			
+			switch(program.opcode[i]) {
+				case NOP:
+					remove(i, "removed NOP");
+					break;
+				case JMP:
+				case BEQ:
+				case BNE:
+				case BGT:
+				case BLT:
+					if(program.operand(i, 0) == i+1) remove(i, "removed jump to the next instruction");
+					break;
+				case LDI:
+				case ADI:
+				case REA:
+				case PAG:
+					if(destination(i) == 0) remove(i, "removed write to r0");
+			}
+		}
+	}
+	
+	private static void foldConstants() {
+		for(int i = 0; i < program.size; i++) {
+			if(removed[i] || program.opcode[i] != LDI || isRelocated(i, 0)) continue;
+			
+			int register = destination(i);
+			for(int j = next(i); j < program.size; j = next(j)) {
+				if(targets[j] || program.opcode[j] != ADI || destination(j) != register
+				|| isRelocated(j, 0))
+					break;
+				
+				int value = program.operand(i, 0)+program.operand(j, 0)&0xFF;
+				program.operands[i*OPERAND_SLOTS] = value;
+				program.operandSymbols[i*OPERAND_SLOTS] = -1;
+				remove(j, "folded into the LDI on line "+program.lineIndex[i]);
+				change(i, "folded the ADI on line "+program.lineIndex[j]+", now loads "+value);
+			}
+		}
+	}
+	
+	private static void removeReloads() {
+		int[] known = new int[8]; // Known register values, -1 if unknown
+		Arrays.fill(known, -1);
+		int store = -1; // Index of the previous instruction if it was a STO
+		
+		for(int i = 0; i < program.size; i++) {
+			if(removed[i]) continue;
+			if(targets[i]) { // Could be reached from anywhere
+				Arrays.fill(known, -1);
+				store = -1;
+			}
+			
+			int opcode = program.opcode[i];
+			if(opcode == LDI && !isRelocated(i, 0)) {
+				int register = destination(i);
+				if(known[register] == program.operand(i, 0)) {
+					remove(i, "r"+register+" already holds "+known[register]);
+					continue;
+				}
+				known[register] = program.operand(i, 0);
+			} else if(opcode == REA && store >= 0
+			&& program.operand(store, 0) == program.operand(i, 0)
+			&& program.operand(store, 1) == program.operand(i, 1)
+			&& program.operand(store, 2) == program.operand(i, 2)) {
+				remove(i, "reloaded the value stored on line "+program.lineIndex[store]);
+				continue;
+			} else if(program.instructionType[i] == IMM10 || opcode == RTS || opcode == HLT) {
+				Arrays.fill(known, -1); // End of block
+			} else {
+				int register = destination(i);
+				if(register >= 0) known[register] = -1;
+			}
+			
+			store = opcode == STO ? i : -1;
+		}
+	}
+	
+	private static void shortenBranches() {
+		for(int i = 0; i < program.size; i++) {
+			if(removed[i] || program.opcode[i] < BEQ || program.opcode[i] > BLT) continue;
+			
+			int jump = next(i);
+			if(jump >= program.size || targets[jump] || program.opcode[jump] != JMP) continue;
+			if(program.operand(i, 0) != next(jump)) continue;
+			
+			// BEQ <-> BNE, BGT <-> BLT:
+			int inverse = program.opcode[i]-BEQ^1;
+			setOpcode(i, BEQ+inverse);
+			program.operands[i*OPERAND_SLOTS] = program.operand(jump, 0);
+			program.operandSymbols[i*OPERAND_SLOTS] = program.operandSymbols[jump*OPERAND_SLOTS];
+			remove(jump, "merged into the branch on line "+program.lineIndex[i]);
+			change(i, "inverted branch over the JMP on line "+program.lineIndex[jump]);
+		}
+	}
+	
+	private static boolean isRelocated(int i, int j) {
+		return program.isRelocated(i, j, aliases);
+	}
+	
+	/**
+	 * @param i Instruction index
+	 * @return The register this instruction writes to, or {@code -1} if it
+	 * doesn't write to one
+	 */
+	private static int destination(int i) {
+		switch(program.opcode[i]) {
+			case ADI:
+			case LDI:
+			case GPI:
+				return program.operand(i, 1);
+			case PAG:
+				return program.operand(i, 0);
+			default:
+				if(program.instructionType[i] == Program.ALU && program.opcode[i] != STO)
+					return program.operand(i, 2); // ALU instructions and REA
+				return -1;
+		}
+	}
+	
+	/**
+	 * @param i Instruction index
+	 * @return Index of the next instruction that hasn't been removed
+	 */
+	private static int next(int i) {
+		do i++; while(i < program.size && removed[i]);
+		return i;
+	}
+	
+	private static void setOpcode(int i, int opcode) {
+		program.opcode[i] = opcode;
+		program.instructionType[i] = Program.instructionTypes[opcode];
+	}
+	
+	private static void remove(int i, String message) {
+		removed[i] = true;
+		if(targets[i]) targets[next(i)] = true;
+		change(i, message+" ("+program.text(i).trim()+")");
+	}
+	
+	private static void change(int i, String message) {
+		changes++;
+		Log.debug("Optimiser, line "+program.lineIndex[i]+": "+message);
+		program.notes[i] = Program.join(program.notes[i], message);
+	}
+}
@@ -0,0 +1,403 @@
+package net.toydotgame.TRC3emu.assembler;
+
+import java.util.Arrays;
+import java.util.List;
+import net.toydotgame.utils.Package;
+
+/**
+ * Intermediate representation of the instructions of an assembly program, held
+ * as parallel primitive arrays (one entry per instruction) rather than as one
+ * object per line. Instruction {@code i} is made up of {@link #opcode}{@code
+ * [i]}, {@link #instructionType}{@code [i]}, and so on, and its operands take
+ * up the {@link #OPERAND_SLOTS} entries starting at {@code
+ * i*OPERAND_SLOTS} in {@link #operands}, {@link #operandKinds}, and {@link
+ * #operandSymbols}.<br>
+ * <br>
+ * The original source lines are kept in a side table, {@link #source}, and are
+ * only looked at for error messages and verbose listings.<br>
+ * <br>
+ * Passes over the program just walk the arrays by index, so none of them need
+ * to allocate per instruction.
+ */
+public class Program {
+	// Source line types:
+	/**
+	 * Syntax-errored line, will not be operated on.
+	 */
+	public static final int INVALID = -1;
+	/**
+	 * Machine code instruction.
+	 */
+	public static final int INSTRUCTION = 0;
+	/**
+	 * A variable for the machine. The assembler will place the value of this
+	 * variable in the data space in memory, following the end of the program
+	 * memory space. When substituting in references to this name, it will
+	 * substitute in the memory address this value is located at (rather than its
+	 * value, as a definition would) in the final memory space of the binary. A
+	 * variable is defined in the same way as a definition, but with a {@code .}
+	 * instead:<br>
+	 * {@code .bar 12}
+	 * @see Program#DEFINITION
+	 */
+	public static final int VARIABLE = 1;
+	/**
+	 * A subroutine. Declared as a non-digit-only name with the line ending with a
+	 * {@code :}. The only thing on that line must be that, with the instruction
+	 * it points to on the following line.
+	 */
+	public static final int SUBROUTINE = 2;
+	/**
+	 * A definition for the assembler. They are declared in assembly as {@code
+	 * #foo}. A definition is kept in the assembler's memory as a memorable name
+	 * for a value that should be substituted in. A definition <i>must</i> be
+	 * defined as a non-digit-only name and a numeric value:<br>
+	 * {@code #foo 42}
+	 */
+	public static final int DEFINITION = 3;
+	
+	// Instruction types:
+	public static final int NONE = 0;
+	public static final int ALU = 1;
+	public static final int IMM8_TO_REG = 2;
+	public static final int IMM10 = 3;
+	public static final int IMM3_TO_REG = 4;
+	public static final int REG_TO_IMM3 = 5;
+	public static final int IMM3_OR_REG = 6;
+	public static final int REG_ONLY = 7;
+	
+	/**
+	 * Table of opcodes (as indices) to their designated instruction types.
+	 */
+	public static final int[] instructionTypes = {
+		NONE, NONE, ALU, IMM8_TO_REG,       // NOP, HLT, ADD, ADI
+		ALU, ALU, ALU, ALU,                 // SUB, XOR, XNO, IOR
+		ALU, ALU, ALU, ALU,                 // NOR, AND, NAN, RSH
+		IMM8_TO_REG, IMM10, IMM10, IMM10,   // LDI, JMP, BEQ, BNE
+		IMM10, IMM10, IMM10, NONE,          // BGT, BLT, JSR, RTS
+		ALU, ALU, IMM3_TO_REG, REG_TO_IMM3, // REA, STO, GPI, GPO
+		NONE, IMM3_OR_REG, REG_ONLY         // BEL, PAS, PAG
+	};
+	
+	/**
+	 * Maximum number of operands any instruction takes, and so the number of
+	 * operand array entries set aside for each instruction.
+	 */
+	public static final int OPERAND_SLOTS = 3;
+	
+	// Instance fields:
+	/**
+	 * Side table of the original source lines, indexed by line # minus 1.
+	 */
+	public final String[] source;
+	/**
+	 * Number of instructions held.
+	 */
+	public int size = 0;
+	/**
+	 * Numeric opcode of each instruction.
+	 */
+	public int[] opcode;
+	/**
+	 * Instruction type of each instruction, from {@link #instructionTypes}.
+	 */
+	public int[] instructionType;
+	/**
+	 * Number of operands actually used by each instruction.
+	 */
+	public int[] operandCount;
+	/**
+	 * Operand values, {@link #OPERAND_SLOTS} per instruction. Until {@link
+	 * Assembler#substituteAliases(Program, int)} runs, an operand is a number or
+	 * a symbol id depending on {@link #operandKinds}. Afterwards, all operands
+	 * of valid instructions are numbers.
+	 */
+	public int[] operands;
+	/**
+	 * The {@link Lexer#NUMBER}, {@link Lexer#SYMBOL}, or {@link Lexer#OVERFLOW}
+	 * token kind of each value in {@link #operands}.
+	 */
+	public byte[] operandKinds;
+	/**
+	 * The {@link SymbolTable} id each operand was written as, or {@code -1} for
+	 * literals. Kept after substitution so later passes know where a value came
+	 * from.
+	 */
+	public int[] operandSymbols;
+	/**
+	 * Source line # each instruction came from (starts at 1).
+	 */
+	public int[] lineIndex;
+	/**
+	 * Memory address of the first byte of each instruction.
+	 */
+	public int[] memoryIndex;
+	/**
+	 * {@code false} once an instruction has raised a syntax error. Invalid
+	 * instructions are skipped by later passes.
+	 */
+	public boolean[] valid;
+	/**
+	 * Notes on what the {@link Optimizer} changed about each instruction, for
+	 * the verbose listing. {@code null} for unchanged instructions.
+	 */
+	public String[] notes;
+	
+	/**
+	 * {@link SymbolTable} id of each variable, in order of definition. The
+	 * actual literal unsigned 8-bit byte to be kept for variable {@code i} is
+	 * held in {@link #variableValues}{@code [i]}.
+	 */
+	public int[] variables = new int[16];
+	public int[] variableValues = new int[16];
+	public int variableCount = 0;
+	
+	/**
+	 * Subroutine labels, in order of definition. Label {@code i} is named
+	 * {@link #labelNames}{@code [i]} and points to instruction {@link
+	 * #labelTargets}{@code [i]}.
+	 */
+	public String[] labelNames = new String[16];
+	public int[] labelTargets = new int[16];
+	public int labelCount = 0;
+	
+	/**
+	 * Creates an empty {@link Program}
+	 * @param source Lines of the source file, kept as the side table
+	 */
+	public Program(List<String> source) {
+		this.source = source.toArray(new String[0]);
+		
+		int capacity = Math.max(16, source.size()); // At most one instruction per line
+		opcode = new int[capacity];
+		instructionType = new int[capacity];
+		operandCount = new int[capacity];
+		operands = new int[capacity*OPERAND_SLOTS];
+		operandKinds = new byte[capacity*OPERAND_SLOTS];
+		operandSymbols = new int[capacity*OPERAND_SLOTS];
+		lineIndex = new int[capacity];
+		memoryIndex = new int[capacity];
+		valid = new boolean[capacity];
+		notes = new String[capacity];
+	}
+	
+	/**
+	 * Appends the instruction held in a {@link Lexer} as the next instruction.
+	 * Expects the lexer's first token to have been resolved to an opcode and
+	 * its operand count to have been validated.
+	 * @param lexer {@link Lexer} holding the tokens of the instruction's line
+	 * @param line Line # of the instruction
+	 * @return Index of the new instruction
+	 * @see Validator#main(Lexer, int)
+	 */
+	public int add(Lexer lexer, int line) {
+		if(size == opcode.length) grow();
+		
+		int i = size++;
+		opcode[i] = lexer.value(0);
+		instructionType[i] = instructionTypes[opcode[i]];
+		operandCount[i] = lexer.count()-1;
+		for(int j = 0; j < operandCount[i]; j++) {
+			int slot = i*OPERAND_SLOTS+j;
+			operands[slot] = lexer.value(j+1);
+			operandKinds[slot] = (byte)lexer.kind(j+1);
+			operandSymbols[slot] = lexer.kind(j+1) == Lexer.NUMBER ? -1 : lexer.value(j+1);
+		}
+		lineIndex[i] = line;
+		memoryIndex[i] = i<<1;
+		valid[i] = true;
+		
+		return i;
+	}
+	
+	/**
+	 * Appends a variable to {@link #variables} and {@link #variableValues}.
+	 * @param alias Symbol id of the variable
+	 * @param value Byte to be put at its address
+	 */
+	public void addVariable(int alias, int value) {
+		if(variableCount == variables.length) {
+			variables = Arrays.copyOf(variables, variableCount<<1);
+			variableValues = Arrays.copyOf(variableValues, variableCount<<1);
+		}
+		
+		variables[variableCount] = alias;
+		variableValues[variableCount++] = value;
+	}
+	
+	/**
+	 * Appends a subroutine label to {@link #labelNames} and {@link
+	 * #labelTargets}.
+	 * @param name Name of the subroutine
+	 * @param target Index of the instruction it labels
+	 */
+	public void addLabel(String name, int target) {
+		if(labelCount == labelNames.length) {
+			labelNames = Arrays.copyOf(labelNames, labelCount<<1);
+			labelTargets = Arrays.copyOf(labelTargets, labelCount<<1);
+		}
+		
+		labelNames[labelCount] = name;
+		labelTargets[labelCount++] = target;
+	}
+	
+	/**
+	 * @param i Instruction index
+	 * @return Name of the first label pointing to the instruction, or {@code
+	 * null} if it has none
+	 */
+	public String label(int i) {
+		for(int j = 0; j < labelCount; j++)
+			if(labelTargets[j] == i) return labelNames[j];
+		return null;
+	}
+	
+	/**
+	 * Inserts a literal operand, shifting the operands at and after {@code
+	 * position} along one slot.
+	 * @param i Instruction index
+	 * @param position Operand index to insert at
+	 * @param value Literal value to insert
+	 */
+	public void insertOperand(int i, int position, int value) {
+		int base = i*OPERAND_SLOTS;
+		for(int j = operandCount[i]; j > position; j--) {
+			operands[base+j] = operands[base+j-1];
+			operandKinds[base+j] = operandKinds[base+j-1];
+			operandSymbols[base+j] = operandSymbols[base+j-1];
+		}
+		
+		operands[base+position] = value;
+		operandKinds[base+position] = Lexer.NUMBER;
+		operandSymbols[base+position] = -1;
+		operandCount[i]++;
+	}
+	
+	/**
+	 * @param i Instruction index
+	 * @param j Operand index
+	 * @return Value of operand {@code j} of instruction {@code i}
+	 */
+	public int operand(int i, int j) {
+		return operands[i*OPERAND_SLOTS+j];
+	}
+	
+	/**
+	 * @param i Instruction index
+	 * @return Original source text of the instruction
+	 */
+	public String text(int i) {
+		return source[lineIndex[i]-1];
+	}
+	
+	/**
+	 * @param i Instruction index
+	 * @param j Operand index
+	 * @param aliases {@link SymbolTable} the program was assembled against
+	 * @return {@code true} if the operand was written as a variable's name, and
+	 * so holds an address that moves along with the end of the program
+	 */
+	public boolean isRelocated(int i, int j, SymbolTable aliases) {
+		int symbol = operandSymbols[i*OPERAND_SLOTS+j];
+		return symbol >= 0 && aliases.state(symbol) == SymbolTable.VARIABLE;
+	}
+	
+	/**
+	 * Cuts instructions out of the program, moving jump targets, labels, and
+	 * variable addresses to match. Notes of removed instructions are moved
+	 * onto the next instruction that is kept.
+	 * @param removed Instructions to cut out, by index
+	 * @param aliases {@link SymbolTable} the program was assembled against,
+	 * whose variables are given their new addresses
+	 * @return Number of instructions removed
+	 */
+	public int compact(boolean[] removed, SymbolTable aliases) {
+		// Map of old instruction index to new index:
+		int[] moved = new int[size+1];
+		int kept = 0;
+		for(int i = 0; i < size; i++) {
+			moved[i] = kept;
+			if(!removed[i]) kept++;
+		}
+		moved[size] = kept;
+		int shift = size-kept;
+		if(shift == 0) return 0;
+		
+		// Move notes of removed instructions onto the next one that's kept:
+		String pending = null;
+		for(int i = 0; i < size; i++) {
+			if(removed[i]) {
+				pending = join(pending, notes[i]);
+				continue;
+			}
+			notes[i] = join(pending, notes[i]);
+			pending = null;
+		}
+		if(pending != null && kept > 0) {
+			int last = size-1;
+			while(removed[last]) last--;
+			notes[last] = join(notes[last], pending);
+		}
+		
+		for(int i = 0; i < size; i++) {
+			if(removed[i]) continue;
+			int to = moved[i];
+			
+			for(int j = 0; j < OPERAND_SLOTS; j++) {
+				int from = i*OPERAND_SLOTS+j;
+				operands[to*OPERAND_SLOTS+j] = operands[from];
+				operandKinds[to*OPERAND_SLOTS+j] = operandKinds[from];
+				operandSymbols[to*OPERAND_SLOTS+j] = operandSymbols[from];
+			}
+			opcode[to] = opcode[i];
+			instructionType[to] = instructionType[i];
+			operandCount[to] = operandCount[i];
+			lineIndex[to] = lineIndex[i];
+			valid[to] = valid[i];
+			notes[to] = notes[i];
+			memoryIndex[to] = to<<1;
+			
+			int slot = to*OPERAND_SLOTS;
+			if(instructionType[to] == IMM10) {
+				int target = operands[slot];
+				operands[slot] = target <= size ? moved[target] : target-shift;
+			} else {
+				for(int j = 0; j < operandCount[to]; j++)
+					if(isRelocated(to, j, aliases)) operands[slot+j] -= shift<<1; // 2 bytes per instruction
+			}
+		}
+		Arrays.fill(notes, kept, size, null);
+		
+		for(int i = 0; i < labelCount; i++)
+			if(labelTargets[i] <= size) labelTargets[i] = moved[labelTargets[i]];
+		
+		size = kept;
+		for(int i = 0; i < variableCount; i++)
+			aliases.define(variables[i], SymbolTable.VARIABLE, (size<<1)+i);
+		
+		return shift;
+	}
+	
+	/**
+	 * Joins two notes, either of which may be {@code null}.
+	 */
+	@Package static String join(String a, String b) {
+		if(a == null) return b;
+		if(b == null) return a;
+		return a+"; "+b;
+	}
+	
+	private void grow() {
+		int capacity = opcode.length<<1;
+		opcode = Arrays.copyOf(opcode, capacity);
+		instructionType = Arrays.copyOf(instructionType, capacity);
+		operandCount = Arrays.copyOf(operandCount, capacity);
+		operands = Arrays.copyOf(operands, capacity*OPERAND_SLOTS);
+		operandKinds = Arrays.copyOf(operandKinds, capacity*OPERAND_SLOTS);
+		operandSymbols = Arrays.copyOf(operandSymbols, capacity*OPERAND_SLOTS);
+		lineIndex = Arrays.copyOf(lineIndex, capacity);
+		memoryIndex = Arrays.copyOf(memoryIndex, capacity);
+		valid = Arrays.copyOf(valid, capacity);
+		notes = Arrays.copyOf(notes, capacity);
+	}
+}
@@ -0,0 +1,193 @@
+package net.toydotgame.TRC3emu.assembler;
+
+import java.util.Arrays;
+
+/**
+ * Interning table of every alias name the assembler comes across, mapping each
+ * to a small integer <i>symbol id</i>. The {@link Lexer} resolves operand
+ * tokens to these ids as it reads a line, so the later stages never have to
+ * look a name up again—they only index into the arrays held here.<br>
+ * <br>
+ * Names are hashed directly from the source line's characters (see {@link
+ * #intern(String, int, int)}), meaning a {@code String} is only allocated the
+ * first time a name is seen.<br>
+ * <br>
+ * The aliases {@code r0} through {@code r7}, {@code p0} through {@code p7},
+ * and the quoted printable ASCII characters are pre-defined in every new table.
+ */
+public class SymbolTable {
+	// Symbol states:
+	/**
+	 * Symbol has been used (interned) but not defined yet.
+	 */
+	public static final int UNDEFINED = 0;
+	/**
+	 * Symbol holds a constant value: a built-in alias, definition, or subroutine
+	 * address.
+	 */
+	public static final int CONSTANT = 1;
+	/**
+	 * Symbol is a variable. Its value is {@code -1} until the variable is given
+	 * an address in data memory, and that address afterwards.
+	 */
+	public static final int VARIABLE = 2;
+	
+	// Instance fields:
+	private String[] names = new String[128];
+	private int[] hashes = new int[128];
+	private int[] values = new int[128];
+	private byte[] states = new byte[128];
+	private int size = 0;
+	private final int builtins; // Number of built-in aliases, which come first
+	private int[] table = new int[256]; // Open-addressed, holds id+1 (0 is an empty slot)
+	
+	/**
+	 * Creates a new {@link SymbolTable} holding only the built-in aliases.
+	 */
+	public SymbolTable() {
+		for(int i = 0; i < 8; i++) {
+			define(intern("r"+i), CONSTANT, i); // Register aliases
+			define(intern("p"+i), CONSTANT, i); // GPIO ports
+		}
+		
+		// Printable ASCII:
+		define(intern("\"sp\""), CONSTANT, 32); // Space
+		for(int i = 33; i <= 126; i++) define(intern("\""+(char)i+"\""), CONSTANT, i);
+		
+		builtins = size;
+	}
+	
+	/**
+	 * Undefines every symbol except the built-in aliases. Names stay interned
+	 * under the same ids, so tokens lexed against this table stay valid for
+	 * reassembling.
+	 */
+	public void reset() {
+		Arrays.fill(states, builtins, size, (byte)UNDEFINED);
+		Arrays.fill(values, builtins, size, -1);
+	}
+	
+	/**
+	 * Calls {@code intern(name, 0, name.length())}
+	 * @param name Alias name
+	 * @return Symbol id of {@code name}
+	 * @see #intern(String, int, int)
+	 */
+	public int intern(String name) {
+		return intern(name, 0, name.length());
+	}
+	/**
+	 * Returns the symbol id of the name held in {@code text} from {@code start}
+	 * (inclusive) to {@code end} (exclusive), adding it as a new {@link
+	 * #UNDEFINED} symbol if it has never been seen before.
+	 * @param text String holding the name, usually a whole source line
+	 * @param start Index of the first character of the name
+	 * @param end Index following the last character of the name
+	 * @return Symbol id, from 0 to {@link #size()}{@code -1}
+	 */
+	public int intern(String text, int start, int end) {
+		int length = end-start;
+		int hash = 0;
+		for(int i = start; i < end; i++) hash = 31*hash+text.charAt(i); // Same as String#hashCode()
+		
+		int mask = table.length-1;
+		int slot = spread(hash)&mask;
+		while(table[slot] != 0) {
+			int id = table[slot]-1;
+			if(hashes[id] == hash && names[id].length() == length
+			&& names[id].regionMatches(0, text, start, length))
+				return id;
+			
+			slot = (slot+1)&mask;
+		}
+		
+		// New symbol:
+		if(size == names.length) grow();
+		int id = size++;
+		names[id] = text.substring(start, end);
+		hashes[id] = hash;
+		values[id] = -1;
+		states[id] = UNDEFINED;
+		table[slot] = id+1;
+		
+		if(size<<1 > table.length) rehash(); // Keep load factor ≤0.5
+		return id;
+	}
+	
+	/**
+	 * Defines (or redefines) a symbol.
+	 * @param id Symbol id from {@link #intern(String, int, int)}
+	 * @param state {@link #CONSTANT} or {@link #VARIABLE}
+	 * @param value Value to substitute in for this symbol
+	 */
+	public void define(int id, int state, int value) {
+		states[id] = (byte)state;
+		values[id] = value;
+	}
+	
+	/**
+	 * @param id Symbol id
+	 * @return {@code true} if this symbol was defined with {@link
+	 * #define(int, int, int)}, {@code false} otherwise
+	 */
+	public boolean isDefined(int id) {
+		return states[id] != UNDEFINED;
+	}
+	
+	/**
+	 * @param id Symbol id
+	 * @return {@link #UNDEFINED}, {@link #CONSTANT}, or {@link #VARIABLE}
+	 */
+	public int state(int id) {
+		return states[id];
+	}
+	
+	/**
+	 * @param id Symbol id
+	 * @return The value of the symbol, or {@code -1} if it has none (yet)
+	 */
+	public int value(int id) {
+		return values[id];
+	}
+	
+	/**
+	 * @param id Symbol id
+	 * @return The symbol's name as it was first interned
+	 */
+	public String name(int id) {
+		return names[id];
+	}
+	
+	/**
+	 * @return Number of interned symbols
+	 */
+	public int size() {
+		return size;
+	}
+	
+	private void grow() {
+		int capacity = names.length<<1;
+		names = Arrays.copyOf(names, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+		values = Arrays.copyOf(values, capacity);
+		states = Arrays.copyOf(states, capacity);
+	}
+	
+	private void rehash() {
+		table = new int[table.length<<1];
+		int mask = table.length-1;
+		for(int id = 0; id < size; id++) {
+			int slot = spread(hashes[id])&mask;
+			while(table[slot] != 0) slot = (slot+1)&mask;
+			table[slot] = id+1;
+		}
+	}
+	
+	/**
+	 * Mixes the high bits of a hash down, as {@code String#hashCode()} of short
+	 * names barely uses them.
+	 */
+	private static int spread(int hash) {
+		return hash^(hash>>>16);
+	}
+}
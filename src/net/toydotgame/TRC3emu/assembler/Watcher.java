@@ -0,0 +1,173 @@
+package net.toydotgame.TRC3emu.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import net.toydotgame.utils.FileHandler;
+import net.toydotgame.utils.Log;
+
+/**
+ * Watches an assembly source file and reassembles it every time it is saved.
+ * The {@link Assembler} is put into incremental mode, so only lines that were
+ * edited since the last save are lexed and validated again (see {@link
+ * Assembler#setIncremental(boolean)}).<br>
+ * <br>
+ * In normal (non-verbose) mode every output line is one byte written as 8
+ * binary digits and a {@code \n}, so byte {@code i} always lives at file
+ * offset {@code 9*i}. After the first full write, only the bytes that differ
+ * from the last successful build are rewritten in place. Verbose listings
+ * carry source text, so they are always written out in full.<br>
+ * <br>
+ * Syntax errors don't stop the watcher: the last good binary is kept and the
+ * source is assembled again on the next save.
+ */
+public class Watcher {
+	/**
+	 * Length of one line of a non-verbose binary, in bytes.
+	 */
+	private static final int LINE_LENGTH = 9;
+	/**
+	 * Milliseconds to wait for further events after one arrives, as editors
+	 * tend to write a file in several steps.
+	 */
+	private static final long DEBOUNCE = 50;
+	
+	private static String inputPath;
+	private static String outputPath;
+	private static byte[] previousImage = null;
+	private static String previousSource = null;
+	
+	/**
+	 * Assembles {@code inputPath} into {@code outputPath}, then blocks, doing so
+	 * again each time the source changes. Only returns by the user killing
+	 * the program.
+	 * @param input Path of the assembly source file
+	 * @param output Path of the output binary
+	 */
+	public static void main(String input, String output) {
+		inputPath = input;
+		outputPath = output;
+		Assembler.setIncremental(true);
+		
+		Path source = new File(inputPath).getAbsoluteFile().toPath();
+		Path directory = source.getParent();
+		WatchService watcher = null;
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			directory.register(watcher,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_CREATE
+			);
+		} catch(IOException e) {
+			Log.exit("Couldn't watch \""+directory+"\" for changes!");
+		}
+		
+		rebuild();
+		Log.log("Watching "+source.getFileName()+" for changes. Press Ctrl+C to quit");
+		
+		try {
+			while(true) {
+				WatchKey key = watcher.take();
+				Thread.sleep(DEBOUNCE);
+				
+				boolean changed = false;
+				for(WatchEvent<?> event : key.pollEvents()) {
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW) changed = true;
+					else if(source.getFileName().equals(event.context())) changed = true;
+				}
+				if(!key.reset()) Log.exit("\""+directory+"\" can no longer be watched!");
+				
+				if(changed) rebuild();
+			}
+		} catch(InterruptedException e) {
+			Log.exit("User killed the watcher.", 0);
+		}
+	}
+	
+	/**
+	 * Reads and assembles the source file, and writes out the result if it
+	 * assembled without errors and the source actually changed.
+	 */
+	private static void rebuild() {
+		if(!new File(inputPath).isFile()) return; // Mid-save, wait for the next event
+		
+		String text;
+		try {
+			text = new String(Files.readAllBytes(new File(inputPath).toPath()), StandardCharsets.UTF_8);
+		} catch(IOException e) {
+			Log.error("Couldn't read \""+inputPath+"\"!");
+			return;
+		}
+		if(text.equals(previousSource)) return; // Touched but not edited
+		previousSource = text;
+		
+		long start = System.nanoTime();
+		List<String> source = new FileHandler(inputPath).readIntoList();
+		byte[] image = Assembler.assemble(source);
+		if(image == null) {
+			Log.error(
+				String.format("%,d", Assembler.getSyntaxErrors())
+				+" errors occured. Keeping the last binary"
+			);
+			return;
+		}
+		if(image.length == 0) {
+			Log.error("Output binary is 0 bytes! Keeping the last binary");
+			return;
+		}
+		List<String> binary = Assembler.render(image);
+		
+		int written;
+		if(previousImage == null || Log.logLevel >= Log.VERBOSE) {
+			new FileHandler(outputPath, FileHandler.WRITE).writeList(binary);
+			written = image.length;
+		} else written = patch(image);
+		previousImage = written < 0 ? null : image; // Force a full rewrite next time if it failed
+		
+		Log.log(
+			"Assembled "+image.length+" bytes ("+written+" written) in "
+			+(System.nanoTime()-start)/1000000+"ms"
+		);
+	}
+	
+	/**
+	 * Rewrites only the lines of the output file whose byte differs from
+	 * {@link #previousImage}, growing or truncating the file if the binary
+	 * changed length.
+	 * @param image New memory image
+	 * @return Number of bytes rewritten, or {@code -1} if the file couldn't be
+	 * written to
+	 */
+	private static int patch(byte[] image) {
+		int written = 0;
+		byte[] line = new byte[LINE_LENGTH];
+		line[LINE_LENGTH-1] = '\n';
+		
+		try(RandomAccessFile file = new RandomAccessFile(outputPath, "rw")) {
+			for(int i = 0; i < image.length; i++) {
+				if(i < previousImage.length && image[i] == previousImage[i]) continue;
+				
+				for(int bit = 0; bit < 8; bit++)
+					line[bit] = (byte)((image[i]>>(7-bit)&1) == 1 ? '1' : '0');
+				file.seek((long)i*LINE_LENGTH);
+				file.write(line);
+				written++;
+			}
+			if(image.length != previousImage.length) file.setLength((long)image.length*LINE_LENGTH);
+		} catch(IOException e) {
+			Log.error("Couldn't write to "+outputPath+"!");
+			return -1;
+		}
+		
+		return written;
+	}
+}
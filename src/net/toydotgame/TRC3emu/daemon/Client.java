@@ -0,0 +1,81 @@
+package net.toydotgame.TRC3emu.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import net.toydotgame.utils.Log;
+
+/**
+ * Thin client for the {@link Daemon}. Sends its arguments and working
+ * directory to the daemon, passes standard input, output, and error through,
+ * and exits with the job's exit code. It loads next to nothing itself, so
+ * starts far faster than a full run.<br>
+ * <br>
+ * Usage: {@code java -cp TRC3emu.jar net.toydotgame.TRC3emu.daemon.Client
+ * <socket> [TRC3emu arguments]}.
+ */
+public class Client {
+	public static void main(String[] args) {
+		if(args.length < 1) Log.exit("Usage: Client <socket> [TRC3emu arguments]");
+		
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open(UnixDomainSocketAddress.of(args[0]));
+		} catch(IOException e) {
+			Log.exit("Couldn't connect to the daemon at \""+args[0]+"\": "+e.getMessage());
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Protocol.input(channel)));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Protocol.output(channel)));
+		
+		try {
+			StringBuilder header = new StringBuilder(System.getProperty("user.dir"));
+			for(int i = 1; i < args.length; i++) header.append('\0').append(args[i]);
+			Protocol.write(out, Protocol.ARGS, header.toString().getBytes(StandardCharsets.UTF_8));
+			
+			Thread stdin = new Thread(() -> forward(out), "TRC3emu stdin");
+			stdin.setDaemon(true); // Jobs that never read mustn't keep us waiting
+			stdin.start();
+			
+			while(true) {
+				byte type = in.readByte();
+				byte[] data = Protocol.read(in);
+				switch(type) {
+					case Protocol.STDOUT:
+						System.out.write(data);
+						System.out.flush();
+						break;
+					case Protocol.STDERR:
+						System.err.write(data);
+						System.err.flush();
+						break;
+					case Protocol.EXIT:
+						System.exit(ByteBuffer.wrap(data).getInt());
+				}
+			}
+		} catch(EOFException e) {
+			Log.exit("The daemon hung up!");
+		} catch(IOException e) {
+			Log.exit("Lost the daemon: "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Sends standard input to the daemon, then an empty frame at its end.
+	 */
+	private static void forward(DataOutputStream out) {
+		byte[] buffer = new byte[8192];
+		try {
+			int read;
+			while((read = System.in.read(buffer)) >= 0)
+				if(read > 0) Protocol.write(out, Protocol.STDIN, buffer, 0, read);
+			Protocol.write(out, Protocol.STDIN, new byte[0]);
+		} catch(IOException e) {} // Daemon hung up, which the main thread sees too
+	}
+}
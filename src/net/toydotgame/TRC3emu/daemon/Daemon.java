@@ -0,0 +1,186 @@
+package net.toydotgame.TRC3emu.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import net.toydotgame.TRC3emu.Main;
+import net.toydotgame.TRC3emu.emulator.Emulator;
+import net.toydotgame.TRC3emu.emulator.Profiler;
+import net.toydotgame.TRC3emu.emulator.Sampler;
+import net.toydotgame.utils.Exit;
+import net.toydotgame.utils.Log;
+
+/**
+ * Keeps one JVM running and runs command lines sent to it by {@link Client}s
+ * over a Unix domain socket, so each job skips JVM startup, class loading,
+ * and (in terminal mode) Swing and look and feel setup, and runs on code the
+ * JIT has already compiled for earlier jobs.<br>
+ * <br>
+ * Jobs run one at a time, as {@link Main} and the assembler keep their
+ * settings in static fields; other clients wait in the socket's backlog.
+ * Each job runs on its own thread with {@link System#in}, {@link System#out},
+ * and {@link System#err} connected to the client, relative paths taken from
+ * the client's working directory, and {@link Log#trapExits} set so a fatal
+ * error ends the job rather than the daemon. If the client hangs up, the
+ * emulator is stopped.
+ */
+public class Daemon {
+	/**
+	 * Bytes of the client's input held for the job before the client has to
+	 * wait.
+	 */
+	private static final int STDIN_BUFFER = 1<<16;
+	
+	/**
+	 * Listens on the socket and runs jobs forever.
+	 * @param socketPath Path of the Unix domain socket to create
+	 */
+	public static void main(String socketPath) {
+		Path path = Path.of(socketPath).toAbsolutePath();
+		ServerSocketChannel server = null;
+		try {
+			Files.deleteIfExists(path); // Left by a daemon that was killed
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			server.bind(UnixDomainSocketAddress.of(path));
+		} catch(IOException e) {
+			Log.exit("Couldn't listen on \""+path+"\": "+e.getMessage(), 1);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> path.toFile().delete()));
+		
+		InputStream in = System.in;
+		PrintStream out = System.out, err = System.err;
+		int level = Log.logLevel;
+		Log.trapExits = true;
+		Log.log("Listening on "+path);
+		
+		for(long jobs = 1;; jobs++) {
+			long start = 0;
+			int code = -1;
+			String command = "";
+			try(SocketChannel client = server.accept()) {
+				start = System.nanoTime();
+				DataInputStream input = new DataInputStream(new BufferedInputStream(Protocol.input(client)));
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Protocol.output(client)));
+				if(input.readByte() != Protocol.ARGS) throw new IOException("Client didn't start with its arguments");
+				String[] fields = new String(Protocol.read(input), StandardCharsets.UTF_8).split("\0", -1);
+				String[] args = Arrays.copyOfRange(fields, 1, fields.length);
+				command = String.join(" ", args);
+				
+				code = serve(fields[0], args, input, output);
+			} catch(IOException e) {
+				System.setErr(err);
+				Log.error("Job "+jobs+" failed: "+e);
+			} finally {
+				System.setIn(in);
+				System.setOut(out);
+				System.setErr(err);
+				Log.setLogLevel(level);
+			}
+			Log.log(String.format("Job %d: \"%s\" exited %d after %.1fms", jobs, command, code, (System.nanoTime()-start)/1e6));
+		}
+	}
+	
+	/**
+	 * Runs a job with its standard streams connected to the client, then
+	 * sends its exit code.
+	 * @return Exit code
+	 */
+	private static int serve(String directory, String[] args, DataInputStream input, DataOutputStream output) throws IOException {
+		PipedInputStream stdin = new PipedInputStream(STDIN_BUFFER);
+		PipedOutputStream feed = new PipedOutputStream(stdin);
+		int[] code = {0};
+		Thread job = new Thread(() -> code[0] = run(directory, args), "TRC3emu job");
+		
+		System.setIn(stdin);
+		System.setOut(new PrintStream(Protocol.stream(output, Protocol.STDOUT), true, StandardCharsets.UTF_8));
+		System.setErr(new PrintStream(Protocol.stream(output, Protocol.STDERR), true, StandardCharsets.UTF_8));
+		job.start();
+		
+		Thread forwarder = new Thread(() -> forward(input, feed, job), "TRC3emu stdin");
+		forwarder.setDaemon(true);
+		forwarder.start();
+		
+		while(job.isAlive()) {
+			try {
+				job.join();
+			} catch(InterruptedException e) {} // Nothing else to do but wait
+		}
+		System.out.flush();
+		System.err.flush();
+		Protocol.write(output, Protocol.EXIT, ByteBuffer.allocate(4).putInt(code[0]).array());
+		return code[0];
+	}
+	
+	/**
+	 * Passes the client's input on to the job until the client hangs up, and
+	 * stops the job if it hangs up first.
+	 */
+	private static void forward(DataInputStream input, PipedOutputStream feed, Thread job) {
+		try {
+			while(true) {
+				byte type = input.readByte();
+				byte[] data = Protocol.read(input);
+				if(type != Protocol.STDIN) continue;
+				
+				try {
+					if(data.length == 0) feed.close(); // End of input
+					else feed.write(data);
+				} catch(IOException e) {} // The job has stopped reading
+			}
+		} catch(IOException e) { // Hung up, by the client or by us after the job
+			if(job.isAlive()) {
+				if(Emulator.machine != null) Emulator.machine.stop();
+				job.interrupt();
+			}
+			try {
+				feed.close();
+			} catch(IOException f) {}
+		}
+	}
+	
+	/**
+	 * Runs one command line, as {@link Main} would in a new JVM.
+	 * @return Exit code
+	 */
+	private static int run(String directory, String[] args) {
+		Main.workingDirectory = directory;
+		Emulator.terminalMode = false;
+		Emulator.termMan = null;
+		Profiler.reset();
+		
+		int code = 0;
+		try {
+			Main.main(args);
+		} catch(Exit e) {
+			code = e.code;
+		} catch(Throwable e) { // What would have ended the JVM
+			e.printStackTrace();
+			code = 1;
+		}
+		Sampler.stop(); // In case the emulator didn't get to
+		
+		// The terminal window outlives the emulator, until it's closed:
+		if(Emulator.termMan != null) {
+			try {
+				while(code == 0 && Emulator.termMan.isDisplayable()) Thread.sleep(50);
+			} catch(InterruptedException e) {} // Client hung up
+			Emulator.termMan.dispose();
+		}
+		return code;
+	}
+}
@@ -0,0 +1,114 @@
+package net.toydotgame.TRC3emu.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import net.toydotgame.utils.Package;
+
+/**
+ * Frames passed between the {@link Client} and the {@link Daemon}. Each is a
+ * type byte, a big-endian {@code int} length, then that many bytes.<br>
+ * <br>
+ * The client sends one {@link #ARGS} frame, then its standard input as {@link
+ * #STDIN} frames, with an empty one at the end of input. The daemon sends
+ * the job's output as {@link #STDOUT} and {@link #STDERR} frames, then one
+ * {@link #EXIT} frame and hangs up.
+ */
+@Package class Protocol {
+	/**
+	 * Working directory, then each argument, as UTF-8 separated by {@code \0}.
+	 */
+	@Package static final byte ARGS = 'A';
+	@Package static final byte STDIN = 'I';
+	@Package static final byte STDOUT = 'O';
+	@Package static final byte STDERR = 'E';
+	/**
+	 * Exit code, as a big-endian {@code int}.
+	 */
+	@Package static final byte EXIT = 'X';
+	
+	/**
+	 * Writes a frame. Safe to call from more than one thread at once.
+	 */
+	@Package static void write(DataOutputStream out, byte type, byte[] data, int offset, int length) throws IOException {
+		synchronized(out) {
+			out.writeByte(type);
+			out.writeInt(length);
+			out.write(data, offset, length);
+			out.flush();
+		}
+	}
+	
+	@Package static void write(DataOutputStream out, byte type, byte[] data) throws IOException {
+		write(out, type, data, 0, data.length);
+	}
+	
+	/**
+	 * Reads a frame's length and data, after its type byte.
+	 * @return Frame data
+	 */
+	@Package static byte[] read(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0) throw new IOException("Bad frame length "+length);
+		
+		byte[] data = new byte[length];
+		in.readFully(data);
+		return data;
+	}
+	
+	/**
+	 * Like {@link java.nio.channels.Channels#newInputStream(java.nio.channels.ReadableByteChannel)
+	 * Channels.newInputStream()}, but without holding the channel's blocking
+	 * lock while waiting, which would stop another thread writing.
+	 * @return A stream that reads from the channel
+	 */
+	@Package static InputStream input(SocketChannel channel) {
+		return new InputStream() {
+			@Override public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0]&0xFF;
+			}
+			
+			@Override public int read(byte[] b, int offset, int length) throws IOException {
+				if(length == 0) return 0;
+				return channel.read(ByteBuffer.wrap(b, offset, length));
+			}
+		};
+	}
+	
+	/**
+	 * @return A stream that writes to the channel
+	 * @see #input(SocketChannel)
+	 */
+	@Package static OutputStream output(SocketChannel channel) {
+		return new OutputStream() {
+			@Override public void write(int b) throws IOException {
+				write(new byte[]{(byte)b}, 0, 1);
+			}
+			
+			@Override public void write(byte[] b, int offset, int length) throws IOException {
+				ByteBuffer buffer = ByteBuffer.wrap(b, offset, length);
+				while(buffer.hasRemaining()) channel.write(buffer);
+			}
+		};
+	}
+	
+	/**
+	 * @return A stream that writes everything as frames of the given type
+	 */
+	@Package static OutputStream stream(DataOutputStream out, byte type) {
+		return new OutputStream() {
+			@Override public void write(int b) throws IOException {
+				Protocol.write(out, type, new byte[]{(byte)b});
+			}
+			
+			@Override public void write(byte[] b, int offset, int length) throws IOException {
+				Protocol.write(out, type, b, offset, length);
+			}
+		};
+	}
+}
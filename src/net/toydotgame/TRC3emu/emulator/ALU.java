@@ -2,7 +2,7 @@ package net.toydotgame.TRC3emu.emulator;
 
 import net.toydotgame.utils.Log;
 
-public class ALU extends Emulator {
+public class ALU {
 	// ALU operations:
 	public static final int ADD = 0;
 	public static final int SUB = 1;
@@ -14,11 +14,11 @@ public class ALU extends Emulator {
 	public static final int NAN = 7;
 	public static final int RSH = 8;
 	
-	public static void main(int args, int operation) {
+	public static void main(Machine machine, int args, int operation) {
 		int[] operands = decodeOperands(args);
 		
-		int a = regfile.read(operands[0]);
-		int b = regfile.read(operands[1]);
+		int a = machine.regfile.read(operands[0]);
+		int b = machine.regfile.read(operands[1]);
 		int c = operands[2];
 		int output = 0;
 		// For all of these operations, we can assume and rely on the fact that
@@ -70,17 +70,17 @@ public class ALU extends Emulator {
 				break;
 			case RSH: // Handle flag setting differently than all other operations:
 				output = ((a+b)&0xFF)>>1; // RSH implementation does _not_ let Cout = MSB
-				Emulator.C = a+b > 0xFF; // If adder output exceeds 255, set carry
-				Emulator.Z = (output&0xFF) == 0; // If only 8 output bits are 0, set zero
+				machine.C = a+b > 0xFF; // If adder output exceeds 255, set carry
+				machine.Z = (output&0xFF) == 0; // If only 8 output bits are 0, set zero
 				
-				regfile.write(c, output);
+				machine.regfile.write(c, output);
 				return;
 			default:
 				Log.fatalError("Unimplemented ALU operation with code `"+operation+"`!");
 		}
 		
-		regfile.write(c, output);
-		setFlags(output);
+		machine.regfile.write(c, output);
+		setFlags(machine, output);
 	}
 	
 	private static int[] decodeOperands(int args) {
@@ -91,8 +91,8 @@ public class ALU extends Emulator {
 		};
 	}
 	
-	private static void setFlags(int output) {
-		Emulator.C = output > 0xFF; // If output exceeds 255, set carry
-		Emulator.Z = (output&0xFF) == 0; // If only 8 output bits are 0, set zero
+	private static void setFlags(Machine machine, int output) {
+		machine.C = output > 0xFF; // If output exceeds 255, set carry
+		machine.Z = (output&0xFF) == 0; // If only 8 output bits are 0, set zero
 	}
 }
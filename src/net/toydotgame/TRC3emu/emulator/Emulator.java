@@ -11,39 +11,19 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 import net.toydotgame.TRC3emu.Main;
 import net.toydotgame.TRC3emu.emulator.terminal.TerminalManager;
 import net.toydotgame.utils.Log;
+import net.toydotgame.utils.Package;
 import net.toydotgame.utils.Utils;
 
+/**
+ * Runs one {@link Machine} for the command line, with its GPIO ports connected
+ * to the console, the terminal, recorded input, or a null device, and its
+ * bell to the speakers.
+ */
 public class Emulator {
 	/**
-	 * Program counter, counts 0–1023.
+	 * Machine being run, or last run, by {@link #main(List)}.
 	 */
-	public static int pc;
-	/**
-	 * Instruction register, bottom two bytes forms the instruction.
-	 */
-	private static int ir;
-	/**
-	 * Class-kept copy of memory, initialised in {@link #main(List)}.
-	 */
-	private static List<Integer> ram;
-	/**
-	 * Hold the value of the opcode, decoded with {@link #decodeOpcode()}.
-	 */
-	private static int opcode;
-	/**
-	 * Hold the value of the operands, decoded with {@link #decodeOperands()}.
-	 */
-	private static int operands;
-	/**
-	 * Register file.
-	 * @see RegisterFile
-	 */
-	public static RegisterFile regfile = new RegisterFile();
-	/**
-	 * Stack.
-	 * @see Stack
-	 */
-	public static Stack stack = new Stack();
+	public static Machine machine;
 	/**
 	 * Approximate clock speed in Hz. This value is used for the additional
 	 * <i>delay</i> per instruction, because the processing time Java takes
@@ -59,17 +39,16 @@ public class Emulator {
 	 * like {@code 1.0} or {@code 1d}, otherwise Java will concatenate the
 	 * result of the division to an {@code int}</b>!
 	 */
-	private static final double CLOCK_SPEED = -1;
+	@Package static final double CLOCK_SPEED = -1;
 	/**
-	 * Carry and zero flags. Initialised to {@code false} (does not mirror
-	 * Minecraft).
+	 * The emulator stops after running this many instructions, as if it had
+	 * halted. Unlimited by default.
 	 */
-	public static boolean C, Z;
+	public static long instructionLimit = Long.MAX_VALUE;
 	/**
-	 * Stores the current page for memory reads, used by the memory
-	 * read/{@code REA} instruction.
+	 * Don't play the bell sound on {@code BEL}.
 	 */
-	private static int page; // Init on page 0
+	public static boolean mute;
 	public static Clip bell; // Expose Clip instance for logic in Main
 	/**
 	 * Enables the "terminal mode" for the emulator. When <b>disabled</b>, and
@@ -92,217 +71,93 @@ public class Emulator {
 	 * again.
 	 */
 	public static boolean terminalMode;
-	private static Scanner scanner = new Scanner(System.in);
 	/**
-	 * Public for the purposes of halt dimming in {@link Main#emulate()}.
+	 * Connects every GPIO port to a null device instead, which reads as {@code
+	 * 0} and discards output, so GPIO-heavy programs can run unattended (e.g.
+	 * in benchmarks). Takes precedence over {@link #terminalMode}.
 	 */
-	public static TerminalManager termMan;
-	
-	@SuppressWarnings("unused") // Purely for the warning when CLOCK_SPEED is -1
-	public static void main(List<Integer> memory) {
-		// Load memory into class:
-		ram = memory;
-		// Create terminal if needed: Will spawn a window
-		if(terminalMode) termMan = new TerminalManager();
-		
-		while(opcode != 1 && pc < 1024) {
-			ir = fetchInstruction();
-			opcode = decodeOpcode();
-			operands = decodeOperands();
-			
-			Log.debug("");
-			Log.debug("FETCH @ "+Utils.paddedHex(pc<<1, 4)+": "
-				+"opcode="+opcode+", "
-				+"operands="+Utils.paddedBinary(operands>>8, 3)+" "+Utils.paddedBinary(operands&0xFF, 8)
-			);
-			
-			int a, b, c, imm;
-			switch(opcode) {
-				case 0: // NOP
-					break;
-				case 1: // HLT
-					break; // while() loop terminates if opcode is 1
-				case 2: // ADD
-					ALU.main(operands, ALU.ADD);
-					break;
-				case 3: // ADI
-					imm = operands>>3;
-					c = operands&0x7;
-					regfile.write(c,
-						regfile.read(c)+imm
-					);
-					break;
-				case 4: // SUB
-					ALU.main(operands, ALU.SUB);
-					break;
-				case 5: // XOR
-					ALU.main(operands, ALU.XOR);
-					break;
-				case 6: // XNO
-					ALU.main(operands, ALU.XNO);
-					break;
-				case 7: // IOR
-					ALU.main(operands, ALU.IOR);
-					break;
-				case 8: // NOR
-					ALU.main(operands, ALU.NOR);
-					break;
-				case 9: // AND
-					ALU.main(operands, ALU.AND);
-					break;
-				case 10: // NAN
-					ALU.main(operands, ALU.NAN);
-					break;
-				case 11: // RSH
-					ALU.main(operands, ALU.RSH);
-					break;
-				case 12: // LDI
-					imm = operands>>3;
-					c = operands&0x7;
-					regfile.write(c, imm);
-					break;
-				case 13: // JMP
-					jump(operands);
-					break;
-				case 14: // BEQ, aka branch if $Z
-					if(Z) jump(operands);
-					break;
-				case 15: // BNE, aka branch if !$Z
-					if(!Z) jump(operands);
-					break;
-				case 16: // BGT, aka branch if $C
-					if(C) jump(operands);
-					break;
-				case 17: // BLT, aka branch if !$C
-					if(!C) jump(operands);
-					break;
-				case 18: // JSR
-					stack.push(pc+1);
-					jump(operands);
-					break;
-				case 19: // RTS
-					// Even though jump jumps to the desired instruction #, it
-					// expects an 11-bit operand reading, so we shift to 11-bit:
-					jump(stack.pop()<<1);
-					break;
-				case 20: // REA
-				case 21: // STO (same operands)
-					a = regfile.read(operands>>6&0x7);
-					imm = operands>>3&0x7;
-					c = operands&0x7;
-					
-					// Handle REA and STO differently:
-					if(opcode == 20) regfile.write(c, fetchByte(page, a+imm));
-					else writeByte(page, a+imm, regfile.read(c));
-					break;
-				case 22: // GPI
-					imm = operands>>3&0x7;
-					c = operands&0x7;
-					
-					regfile.write(c, gpIn(imm));
-					break;
-				case 23: // GPO
-					a = regfile.read(operands>>6&0x7);
-					imm = operands>>3&0x7;
-					
-					gpOut(imm, a);
-					break;
-				case 24: // BEL
-					bell();
-					break;
-				case 25: // PAS
-					imm = operands>>8&0x7;
-					b = regfile.read(operands>>3&0x7);
-					page = imm|b; // Cannot exceed 7
-					Log.error("PAS: "+page);
-					break;
-				case 26: // PAG
-					c = operands&0x7;
-					regfile.write(c, page);
-					break;
-				default:
-					Log.fatalError("Unimplemented opcode `"+opcode+"`!");
-			}
-						
-			if(CLOCK_SPEED > 0) {
-				try {
-					Thread.sleep((long)(1000/CLOCK_SPEED));
-				} catch (InterruptedException e) {
-					Log.exit("User killed the emulator.", 0);
-				}
-			} else if(CLOCK_SPEED == 0) {
-				Log.log("Clock speed is set to 0. Effectively halted.");
-				break;
-			}
-			
-			pc++;
-		}
-		
-		if(pc == 1024) Log.debug("Reached end of memory!");
-	}
-	
+	public static boolean nullDevice;
 	/**
-	 * Fetches a byte using an absolute address. Designed for use in system
-	 * internals rather than by the instruction set.
-	 * @param address Byte address from 0–2047
-	 * @return Memory value from that address
-	 * @see #fetchByte(int, int)
+	 * Stop the machine when it's spinning in a loop it can't get out of.
+	 * @see Machine#detectIdle
+	 * @see Machine#watchdog
 	 */
-	private static int fetchByte(int address) {
-		return ram.get(address)&0xFF; // Sanitise just in case memory value isn't reliable
-	}
+	public static boolean detectIdle;
 	/**
-	 * Fetches a byte using a page number and address (probably from a
-	 * register). This one <i>is</i> designed for use by the instruction set.
-	 * @param page Page, 0–7
-	 * @param address Byte address from 0–255 within page
-	 * @return Memory value from that address
-	 * @see #fetchByte(int)
+	 * Recorded input to give to {@code GPI}s, in order and regardless of
+	 * port, or {@code null} if there is none.
+	 * @see #replay(int[])
 	 */
-	private static int fetchByte(int page, int address) {
-		return ram.get((page<<8)+address)&0xFF;
-	}
-	
+	private static int[] replay;
+	private static int replayed;
+	private static Scanner scanner;
 	/**
-	 * Writes a value to RAM. Designed for use by the instruction set.
-	 * @param page Page, 0–7
-	 * @param address Byte address from 0–255 within page
-	 * @param value Byte to write
-	 * @see #fetchByte(int, int)
+	 * Public for the purposes of halt dimming in {@link Main#emulate()}.
 	 */
-	private static void writeByte(int page, int address, int value) {
-		Log.error("Writing value "+(value&0xFF)+" to address "+Integer.toBinaryString((page<<8)+address));
-		ram.set((page<<8)+address, value&0xFF);
-	}
-	
-	private static int fetchInstruction() {
-		int instruction = fetchByte(pc<<1);
-		instruction |= fetchByte((pc<<1)+1)<<8;
-				
-		return instruction;
-	}
+	public static TerminalManager termMan;
 	
-	private static int decodeOpcode() {
-		return ir>>11; // Mask top 5 bits, right shift by 11 bits
-	}
+	/**
+	 * Connects the machine's GPIO ports to {@link #gpIn(int)} and {@link
+	 * #gpOut(int, int)}.
+	 */
+	private static final Gpio console = new Gpio() {
+		@Override public int read(int port) {
+			return gpIn(port);
+		}
+		
+		@Override public void write(int port, int value) {
+			gpOut(port, value);
+		}
+		
+		@Override public boolean idle(int port) { // Every other source waits for input
+			return nullDevice || (replay != null && replayed >= replay.length);
+		}
+	};
 	
-	private static int decodeOperands() {
-		return ir&0x7FF; // Mask only bottom 11 bits
+	public static void main(List<Integer> memory) {
+		// Load memory into a new machine:
+		machine = new Machine(memory);
+		machine.gpio = console;
+		machine.bell = Emulator::bell;
+		machine.instructionLimit = instructionLimit;
+		machine.detectIdle = detectIdle;
+		if(detectIdle) machine.watchdog = new Watchdog();
+		// Create terminal if needed: Will spawn a window
+		if(terminalMode && Log.trapExits) { // Closing it mustn't quit the JVM, just this run
+			Machine running = machine;
+			Thread thread = Thread.currentThread();
+			termMan = new TerminalManager(() -> {
+				running.stop();
+				thread.interrupt(); // Unblocks a GPI waiting on a key
+			});
+		} else if(terminalMode) termMan = new TerminalManager();
+		scanner = null; // System.in may have been replaced since the last run
+		if(Sampler.interval > 0) Sampler.start();
+		if(Metrics.enabled) Metrics.register(machine, "0");
+		
+		machine.run();
+		
+		if(machine.halt == Machine.ILLEGAL_OPCODE)
+			Log.fatalError("Unimplemented opcode `"+machine.opcode()+"`!");
+		if(machine.halt == Machine.END_OF_MEMORY) Log.debug("Reached end of memory!");
+		if(machine.watchdog != null && machine.watchdog.since >= 0) Log.error(machine.watchdog+", stopping");
+		else if(machine.halt == Machine.HUNG || machine.halt == Machine.IDLE) // Nothing here will change what it polls
+			Log.error("Stuck in a loop at address "+Utils.paddedHex(machine.pc<<1, 4)+" ("
+				+Machine.HALT_REASONS[machine.halt]+"), stopping"
+			);
+		if(Profiler.enabled) Profiler.report();
+		Sampler.stop();
 	}
 	
 	/**
-	 * Set PC to desired instruction # (target {@code instruction} (0–1023)is
-	 * equivalent to desiring to jump to memory address {@code instruction<<1}
-	 * (0–2047).<br>
-	 * <br>
-	 * This method will set the PC to one <b>below</b> the desired target,
-	 * because in {@link #main(List)}, there's a {@code pc++} call regardless of
-	 * the instruction called.
-	 * @param instruction Program counter value to jump to
+	 * Gives {@code GPI}s recorded input instead of asking for it. Once it runs
+	 * out, {@code GPI}s read {@code 0}.
+	 * @param input Bytes to give to each {@code GPI} in turn, or {@code null}
+	 * to ask for input again
 	 */
-	private static void jump(int instruction) {
-		// Account for pc++ run each time: This does not mirror Minecraft
-		pc = (instruction>>1)-1;
+	public static void replay(int[] input) {
+		replay = input;
+		replayed = 0;
 	}
 	
 	/**
@@ -321,6 +176,8 @@ public class Emulator {
 	 * @see Main#stallUntilAudioDone(Clip)
 	 */
 	private static void bell() {
+		if(mute) return;
+		
 		AudioInputStream source = null; // Make compiler happy
 		try {
 			source = AudioSystem.getAudioInputStream( // Create sample stream from URL
@@ -357,8 +214,11 @@ public class Emulator {
 	}
 	
 	private static int gpIn(int port) {
+		if(replay != null) return replayed < replay.length ? replay[replayed++]&0xFF : 0;
+		if(nullDevice) return 0;
 		if(terminalMode) return termMan.get(port).read();
 				
+		if(scanner == null) scanner = new Scanner(System.in);
 		int input = -1;
 		while(true) {
 			try {
@@ -375,6 +235,7 @@ public class Emulator {
 	}
 	
 	private static void gpOut(int port, int data) {
+		if(nullDevice) return;
 		if(terminalMode) {
 			termMan.get(port).print(data);
 			return;
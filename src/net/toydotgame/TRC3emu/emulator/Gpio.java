@@ -0,0 +1,57 @@
+package net.toydotgame.TRC3emu.emulator;
+
+/**
+ * What a {@link Machine}'s GPIO ports are connected to. {@code GPI} and
+ * {@code GPO} call straight through to this on the machine's own thread, so
+ * a {@link #read(int)} may block until input arrives, or return {@link
+ * #BLOCKED} to give the thread back instead.
+ */
+public interface Gpio {
+	/**
+	 * Returned by {@link #read(int)} when there's no input yet. The machine
+	 * stops with {@link Machine#WAITING}, leaving the program counter on the
+	 * {@code GPI}, which is run again when the machine is.
+	 */
+	public static final int BLOCKED = -1;
+	/**
+	 * Connects every port to nothing: reads are {@code 0}, and writes are
+	 * discarded.
+	 */
+	public static final Gpio NULL = new Gpio() {
+		@Override public int read(int port) {
+			return 0;
+		}
+		
+		@Override public void write(int port, int value) {}
+		
+		@Override public boolean idle(int port) {
+			return true;
+		}
+	};
+	
+	/**
+	 * Reads a byte for {@code GPI}.
+	 * @param port Port, 0–7
+	 * @return Byte read, 0–255, or {@link #BLOCKED}
+	 */
+	public int read(int port);
+	
+	/**
+	 * Writes a byte from {@code GPO}.
+	 * @param port Port, 0–7
+	 * @param value Byte written, 0–255
+	 */
+	public void write(int port, int value);
+	
+	/**
+	 * Whether a port has nothing new to read: a {@code GPI} from it reads the
+	 * same byte as the last, and will until something outside the machine
+	 * changes. A loop polling only idle ports is {@link Machine#IDLE}, not
+	 * {@link Machine#HUNG}. None are by default.
+	 * @param port Port, 0–7
+	 * @see Machine#detectIdle
+	 */
+	public default boolean idle(int port) {
+		return false;
+	}
+}
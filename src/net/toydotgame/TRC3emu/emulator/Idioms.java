@@ -0,0 +1,186 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.Arrays;
+import net.toydotgame.utils.Package;
+
+/**
+ * Spots copy, fill, and print loops as a {@link Machine} runs, and runs them
+ * straight over its memory and registers, without fetching and decoding each
+ * instruction, for {@link Machine#idioms}. e.g. the splash loop in {@code
+ * calc.s}:<br>
+ * <pre>
+ * loop:
+ * 	rea r6 0 r5
+ * 	gpo r5 p0
+ * 	adi 1 r6
+ * 	sub r6 r7 r0
+ * 	bne loop</pre>
+ * A loop is a body of up to {@link #MAX_BODY} {@code REA}, {@code STO}, {@code
+ * GPO}, and {@code ADI} instructions, at least one of them {@code ADI} and one
+ * not, then {@code SUB x y r0} and a {@code BNE} back to the start. The body
+ * is run as written, so pointers wrap, and an address past the end of the
+ * page goes into the next one, as they would a step at a time. Instructions
+ * run, registers, and flags all end up as they would too.<br>
+ * <br>
+ * Loops are found when a {@code BNE} is run, and kept by where they start
+ * (as are places that aren't loops) until the machine writes over them.
+ */
+@Package class Idioms {
+	/**
+	 * Most instructions in a loop's body, before its {@code SUB} and {@code
+	 * BNE}.
+	 */
+	@Package static final int MAX_BODY = 6;
+	/**
+	 * Kept where there's no loop.
+	 */
+	private static final Loop NONE = new Loop(0, new int[0]);
+	
+	/**
+	 * A loop, decoded.
+	 */
+	private static class Loop {
+		final int start;
+		/**
+		 * Body, as {@code opcode<<11 | operands}, then the {@code SUB}.
+		 */
+		final int[] body;
+		
+		Loop(int start, int[] body) {
+			this.start = start;
+			this.body = body;
+		}
+	}
+	
+	/**
+	 * Loops by where they start, or {@link #NONE}, or {@code null} if not
+	 * looked at yet.
+	 */
+	private final Loop[] loops = new Loop[1024];
+	
+	/**
+	 * Runs the loop starting at the program counter, round as many times as
+	 * it goes, within {@code limit} instructions.
+	 * @param limit Most instructions to run
+	 * @return Instructions run, or {@code 0} if there's no loop here, or not
+	 * room to go round it once
+	 */
+	@Package int run(Machine machine, long limit) {
+		Loop loop = loops[machine.pc];
+		if(loop == null) loop = loops[machine.pc] = find(machine, machine.pc);
+		if(loop == NONE || limit < loop.body.length+1) return 0;
+		
+		int[] body = loop.body;
+		int length = body.length+1; // And the BNE
+		long rounds = limit/length, instructions = 0;
+		int[] r = new int[8];
+		for(int i = 1; i < 8; i++) r[i] = machine.regfile.read(i);
+		int base = machine.page<<8;
+		int next = loop.start; // Where to carry on from, if it stops partway
+		boolean C = machine.C, Z = machine.Z;
+		
+		try {
+			round: for(long n = 0; n < rounds; n++) {
+				for(int i = 0; i < body.length-1; i++) {
+					int instruction = body[i], operands = instruction&0x7FF;
+					int c = operands&0x7;
+					instructions++;
+					switch(instruction>>11) {
+						case 3: // ADI
+							if(c != 0) r[c] = (r[c]+(operands>>3))&0xFF;
+							break;
+						case 20: // REA
+							int value = machine.memory[base+r[operands>>6&0x7]+(operands>>3&0x7)]&0xFF;
+							if(c != 0) r[c] = value;
+							break;
+						case 21: // STO
+							int address = r[operands>>6&0x7]+(operands>>3&0x7);
+							machine.writeByte(machine.page, address, r[c]);
+							if(base+address>>1 >= loop.start && base+address>>1 < loop.start+length) { // Written over itself
+								next = loop.start+i+1;
+								break round;
+							}
+							break;
+						case 23: // GPO
+							machine.gpio.write(operands>>3&0x7, r[operands>>6&0x7]);
+							if(machine.watchdog != null) machine.watchdog.io++;
+							if(machine.halt != Machine.RUNNING) { // e.g. stopped by the other end of a cable
+								next = loop.start+i+1;
+								break round;
+							}
+							break;
+					}
+				}
+				
+				int operands = body[body.length-1]&0x7FF; // SUB
+				int result = r[operands>>6&0x7]+(~r[operands>>3&0x7]&0xFF)+1;
+				C = result > 0xFF;
+				Z = (result&0xFF) == 0;
+				instructions += 2;
+				if(Z) { // Falls out of the BNE
+					next = loop.start+length;
+					break;
+				}
+			}
+		} catch(RuntimeException e) { // Leave the machine on the instruction that threw, as step() does
+			next = loop.start+(int)((instructions-1)%length);
+			throw e;
+		} finally {
+			for(int i = 1; i < 8; i++) machine.regfile.write(i, r[i]);
+			machine.C = C;
+			machine.Z = Z;
+			machine.pc = next;
+			machine.retired += instructions;
+			machine.published.lazySet(machine.page<<10 | loop.start+(int)((instructions-1)%length));
+			if(machine.halt == Machine.RUNNING && next == 1024) machine.halt = Machine.END_OF_MEMORY;
+		}
+		return (int)instructions;
+	}
+	
+	/**
+	 * Forgets loops a write to memory may have changed.
+	 * @param address Address written, 0–2047
+	 */
+	@Package void write(int address) {
+		for(int start = Math.max(0, (address>>1)-MAX_BODY-1); start <= address>>1; start++) loops[start] = null;
+	}
+	
+	/**
+	 * Forgets every loop, for when memory's replaced.
+	 */
+	@Package void clear() {
+		Arrays.fill(loops, null);
+	}
+	
+	private static Loop find(Machine machine, int start) {
+		int memory = 0, adds = 0;
+		for(int i = 0; i <= MAX_BODY && start+i+1 < 1024; i++) {
+			int instruction = word(machine, start+i);
+			switch(instruction>>11) {
+				case 3: // ADI
+					adds++;
+					continue;
+				case 20: // REA
+				case 21: // STO
+				case 23: // GPO
+					memory++;
+					continue;
+				case 4: // SUB
+					int bne = word(machine, start+i+1);
+					if((instruction&0x7) != 0 || bne>>11 != 15 || (bne&0x7FF)>>1 != start || adds == 0 || memory == 0)
+						return NONE;
+					
+					int[] body = new int[i+1];
+					for(int j = 0; j <= i; j++) body[j] = word(machine, start+j);
+					return new Loop(start, body);
+				default:
+					return NONE;
+			}
+		}
+		return NONE;
+	}
+	
+	private static int word(Machine machine, int pc) {
+		return machine.fetchByte(pc<<1) | machine.fetchByte((pc<<1)+1)<<8;
+	}
+}
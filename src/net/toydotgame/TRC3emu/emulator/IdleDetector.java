@@ -0,0 +1,79 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import net.toydotgame.utils.Package;
+
+/**
+ * Spots a {@link Machine} spinning in a loop it can't get out of, for
+ * {@link Machine#detectIdle}.<br>
+ * <br>
+ * The machine counts {@link #progress}: anything a loop does that the rest of
+ * the world could see, or that could send it somewhere new (changing memory,
+ * {@code GPO}, {@code BEL}, or {@code GPI} from a port that isn't {@linkplain
+ * Gpio#idle(int) idle}). At each backward jump, the machine's registers,
+ * flags, page, stack, and target are compared to a saved state, using Brent's
+ * cycle detection: the state is saved again after 1, 2, 4, 8... jumps, so any
+ * loop is caught within a few times around. If the state's come round again
+ * with no progress in between, memory is the same too, so the machine will go
+ * round the same way forever.
+ */
+@Package class IdleDetector {
+	/**
+	 * Counts kept by the machine: progress made, and {@code GPI}s from idle
+	 * ports.
+	 */
+	@Package long progress = 0, polls = 0;
+	private long savedProgress = -1, savedPolls;
+	private int pc, page;
+	private boolean C, Z;
+	private final int[] registers = new int[8];
+	private Stack stack;
+	/**
+	 * Backward jumps since the state was saved, and how many to save it
+	 * again after.
+	 */
+	private int jumps, power;
+	
+	/**
+	 * Checks a backward jump.
+	 * @param target Instruction being jumped to
+	 * @return {@link Machine#HUNG} or {@link Machine#IDLE} if the machine's
+	 * spinning, else {@link Machine#RUNNING}
+	 */
+	@Package int jump(Machine machine, int target) {
+		if(progress != savedProgress) {
+			save(machine, target);
+			return Machine.RUNNING;
+		}
+		
+		if(same(machine, target)) {
+			int reason = polls == savedPolls ? Machine.HUNG : Machine.IDLE;
+			savedProgress = -1; // Start over if it's resumed
+			return reason;
+		}
+		if(++jumps == power) {
+			save(machine, target);
+			power <<= 1;
+		}
+		return Machine.RUNNING;
+	}
+	
+	private void save(Machine machine, int target) {
+		if(progress != savedProgress) power = 1;
+		savedProgress = progress;
+		savedPolls = polls;
+		jumps = 0;
+		pc = target;
+		page = machine.page;
+		C = machine.C;
+		Z = machine.Z;
+		for(int r = 1; r < 8; r++) registers[r] = machine.regfile.read(r);
+		if(stack == null) stack = new Stack(machine);
+		stack.copy(machine.stack);
+	}
+	
+	private boolean same(Machine machine, int target) {
+		if(target != pc || machine.page != page || machine.C != C || machine.Z != Z) return false;
+		for(int r = 1; r < 8; r++) if(machine.regfile.read(r) != registers[r]) return false;
+		return stack.same(machine.stack);
+	}
+}
@@ -0,0 +1,374 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs one program over many inputs at once, as lanes in lockstep, for
+ * sweeps like testing a program against every input it can take. Each lane
+ * acts exactly as its own {@link Machine} would, with a scripted input like
+ * {@link net.toydotgame.TRC3emu.workload.Batch Batch}'s, but their registers,
+ * flags, stacks, and memory are kept struct-of-arrays: one array per field,
+ * indexed by lane, so a field is contiguous across lanes.<br>
+ * <br>
+ * Each step takes the lanes at the lowest program counter (that have the
+ * same instruction there, in case one has written over its code), decodes
+ * that instruction once, and runs it for just those lanes, in one loop over
+ * them. Lanes whose control flow has gone another way wait, masked out,
+ * until the lanes behind them catch up, which for structured code is where
+ * they rejoin. So for lanes that take the same path, fetching, decoding, and
+ * dispatching is done once for all of them, rather than once per lane.
+ */
+public class Lockstep {
+	public final int lanes;
+	/**
+	 * The machines stop after running this many instructions. Unlimited by
+	 * default.
+	 */
+	public long instructionLimit = Long.MAX_VALUE;
+	/**
+	 * {@link System#nanoTime()} value the lanes still running stop at.
+	 * Checked every {@link #DEADLINE_CHECK} steps. None by default.
+	 */
+	public long deadline = Long.MAX_VALUE;
+	private static final int DEADLINE_CHECK = 4096;
+	/**
+	 * Steps run, each one instruction for one or more lanes.
+	 */
+	public long steps;
+	
+	// Each lane's state, as in Machine. Arrays of more than one value per
+	// lane are indexed [value*lanes+lane]:
+	private final byte[] memory;
+	private final int[] registers; // r0 is never written, so reads as 0
+	private final int[] pc, page, halt;
+	private final boolean[] C, Z;
+	private final long[] retired;
+	private final int[] stack, stackTop, stackDepth;
+	private final int[][] inputs;
+	private final int[] nextInput;
+	private final ByteArrayOutputStream[][] output;
+	private final String[] error;
+	/**
+	 * Lanes run by the current step.
+	 */
+	private final int[] active;
+	
+	/**
+	 * @param memory Memory map of 2,048 bytes, given to every lane
+	 * @param inputs Bytes given to each lane's {@code GPI}s in turn, regardless
+	 * of port, one array per lane
+	 */
+	public Lockstep(List<Integer> memory, int[][] inputs) {
+		lanes = inputs.length;
+		this.memory = new byte[2048*lanes];
+		for(int address = 0; address < 2048; address++) {
+			byte value = (byte)(int)memory.get(address);
+			for(int lane = 0; lane < lanes; lane++) this.memory[address*lanes+lane] = value;
+		}
+		registers = new int[8*lanes];
+		pc = new int[lanes];
+		page = new int[lanes];
+		halt = new int[lanes];
+		C = new boolean[lanes];
+		Z = new boolean[lanes];
+		retired = new long[lanes];
+		stack = new int[Stack.SIZE*lanes];
+		stackTop = new int[lanes];
+		Arrays.fill(stackTop, Stack.SIZE-1);
+		stackDepth = new int[lanes];
+		this.inputs = inputs;
+		nextInput = new int[lanes];
+		output = new ByteArrayOutputStream[lanes][8];
+		error = new String[lanes];
+		active = new int[lanes];
+	}
+	
+	/**
+	 * Runs until every lane stops for any reason.
+	 */
+	public void run() {
+		int running = lanes;
+		while(running > 0) {
+			if(steps%DEADLINE_CHECK == 0 && deadline != Long.MAX_VALUE && System.nanoTime()-deadline >= 0) {
+				for(int lane = 0; lane < lanes; lane++) if(halt[lane] == Machine.RUNNING) halt[lane] = Machine.TIMEOUT;
+				return;
+			}
+			
+			// Find the lanes at the lowest program counter:
+			int count = 0, target = Integer.MAX_VALUE, instruction = 0;
+			for(int lane = 0; lane < lanes; lane++) {
+				if(halt[lane] != Machine.RUNNING) continue;
+				if(retired[lane] >= instructionLimit) {
+					halt[lane] = Machine.BUDGET;
+					running--;
+					continue;
+				}
+				
+				int at = pc[lane];
+				if(at > target) continue;
+				int word = fetchByte(at<<1, lane) | fetchByte((at<<1)+1, lane)<<8;
+				if(at < target) {
+					target = at;
+					instruction = word;
+					count = 0;
+				} else if(word != instruction) continue; // Left for a later step
+				active[count++] = lane;
+			}
+			if(count == 0) return;
+			
+			steps++;
+			running -= step(instruction, count);
+		}
+	}
+	
+	/**
+	 * Runs one instruction for the {@link #active} lanes.
+	 * @return How many of them stopped
+	 */
+	private int step(int instruction, int count) {
+		int opcode = instruction>>11;
+		int operands = instruction&0x7FF;
+		int a = operands>>6&0x7, b = operands>>3&0x7, c = operands&0x7;
+		int imm = operands>>3;
+		
+		switch(opcode) {
+			case 0: // NOP
+			case 24: // BEL, which nothing hears
+				break;
+			case 1: // HLT
+				for(int i = 0; i < count; i++) halt[active[i]] = Machine.HALTED;
+				break;
+			case 2: // ADD
+			case 4: // SUB
+			case 5: // XOR
+			case 6: // XNO
+			case 7: // IOR
+			case 8: // NOR
+			case 9: // AND
+			case 10: // NAN
+			case 11: // RSH
+				alu(opcode, a, b, c, count);
+				break;
+			case 3: // ADI
+				if(c == 0) break;
+				for(int i = 0; i < count; i++) {
+					int lane = active[i];
+					registers[c*lanes+lane] = registers[c*lanes+lane]+imm&0xFF;
+				}
+				break;
+			case 12: // LDI
+				if(c == 0) break;
+				for(int i = 0; i < count; i++) registers[c*lanes+active[i]] = imm&0xFF;
+				break;
+			case 13: // JMP
+				for(int i = 0; i < count; i++) pc[active[i]] = (operands>>1)-1;
+				break;
+			case 14: // BEQ
+			case 15: // BNE
+			case 16: // BGT
+			case 17: // BLT
+				for(int i = 0; i < count; i++) {
+					int lane = active[i];
+					boolean taken;
+					if(opcode == 14) taken = Z[lane];
+					else if(opcode == 15) taken = !Z[lane];
+					else if(opcode == 16) taken = C[lane];
+					else taken = !C[lane];
+					if(taken) pc[lane] = (operands>>1)-1;
+				}
+				break;
+			case 18: // JSR
+				for(int i = 0; i < count; i++) {
+					int lane = active[i];
+					push(lane, pc[lane]+1);
+					pc[lane] = (operands>>1)-1;
+				}
+				break;
+			case 19: // RTS
+				for(int i = 0; i < count; i++) {
+					int lane = active[i];
+					pc[lane] = pop(lane)-1;
+				}
+				break;
+			case 20: // REA
+			case 21: // STO
+				for(int i = 0; i < count; i++) {
+					int lane = active[i];
+					int address = (page[lane]<<8)+registers[a*lanes+lane]+b;
+					if(address >= 2048) {
+						error[lane] = new ArrayIndexOutOfBoundsException(
+							"Index "+address+" out of bounds for length 2048"
+						).toString();
+						continue;
+					}
+					
+					if(opcode == 21) memory[address*lanes+lane] = (byte)registers[c*lanes+lane];
+					else if(c != 0) registers[c*lanes+lane] = fetchByte(address, lane);
+				}
+				break;
+			case 22: // GPI
+				for(int i = 0; i < count; i++) {
+					int lane = active[i];
+					int value = 0;
+					if(nextInput[lane] < inputs[lane].length) value = inputs[lane][nextInput[lane]++]&0xFF;
+					else halt[lane] = Machine.INPUT;
+					if(c != 0) registers[c*lanes+lane] = value;
+				}
+				break;
+			case 23: // GPO
+				for(int i = 0; i < count; i++) {
+					int lane = active[i];
+					if(output[lane][b] == null) output[lane][b] = new ByteArrayOutputStream();
+					output[lane][b].write(registers[a*lanes+lane]);
+				}
+				break;
+			case 25: // PAS
+				for(int i = 0; i < count; i++) {
+					int lane = active[i];
+					page[lane] = operands>>8&0x7|registers[b*lanes+lane];
+				}
+				break;
+			case 26: // PAG
+				if(c == 0) break;
+				for(int i = 0; i < count; i++) {
+					int lane = active[i];
+					registers[c*lanes+lane] = page[lane]&0xFF;
+				}
+				break;
+			default: // Leave the PC on the offending instruction
+				for(int i = 0; i < count; i++) {
+					retired[active[i]]++;
+					halt[active[i]] = Machine.ILLEGAL_OPCODE;
+				}
+				return count;
+		}
+		
+		int stopped = 0;
+		for(int i = 0; i < count; i++) {
+			int lane = active[i];
+			retired[lane]++;
+			if(error[lane] != null) {
+				halt[lane] = Machine.STOPPED;
+				stopped++;
+				continue;
+			}
+			
+			pc[lane]++;
+			if(halt[lane] == Machine.RUNNING && pc[lane] == 1024) halt[lane] = Machine.END_OF_MEMORY;
+			if(halt[lane] != Machine.RUNNING) stopped++;
+		}
+		return stopped;
+	}
+	
+	/**
+	 * Runs an ALU instruction, as {@link ALU#main(Machine, int, int)} does.
+	 */
+	private void alu(int opcode, int a, int b, int c, int count) {
+		for(int i = 0; i < count; i++) {
+			int lane = active[i];
+			int x = registers[a*lanes+lane];
+			int y = registers[b*lanes+lane];
+			int output;
+			switch(opcode) {
+				case 2: // ADD
+					output = x+y;
+					break;
+				case 4: // SUB
+					output = x+(~y&0xFF)+1;
+					break;
+				case 5: // XOR
+					output = x^y;
+					if(x > y) output += 0x100;
+					break;
+				case 6: // XNO
+					output = ~(x^y)&0xFF;
+					if(x+y > 0xFF) output += 0x100;
+					break;
+				case 7: // IOR
+					output = x|y;
+					break;
+				case 8: // NOR
+					output = ~(x|y)&0xFF;
+					break;
+				case 9: // AND
+					output = x&y;
+					break;
+				case 10: // NAN
+					output = (~x&0xFF)&(~y&0xFF);
+					break;
+				default: // RSH, whose carry is the adder's
+					output = ((x+y)&0xFF)>>1;
+					if(c != 0) registers[c*lanes+lane] = output;
+					C[lane] = x+y > 0xFF;
+					Z[lane] = output == 0;
+					continue;
+			}
+			
+			if(c != 0) registers[c*lanes+lane] = output&0xFF;
+			C[lane] = output > 0xFF;
+			Z[lane] = (output&0xFF) == 0;
+		}
+	}
+	
+	private int fetchByte(int address, int lane) {
+		return memory[address*lanes+lane]&0xFF;
+	}
+	
+	/**
+	 * @see Stack#push(int)
+	 */
+	private void push(int lane, int address) {
+		if(stackDepth[lane] < Stack.SIZE) stackDepth[lane]++; // On overflow, the oldest value is overwritten instead
+		stackTop[lane] = stackTop[lane]+1&Stack.SIZE-1;
+		stack[stackTop[lane]*lanes+lane] = address&0x3FF;
+	}
+	
+	/**
+	 * @see Stack#pop()
+	 */
+	private int pop(int lane) {
+		if(stackDepth[lane] == 0) return 0;
+		
+		int pop = stack[stackTop[lane]*lanes+lane];
+		stackTop[lane] = stackTop[lane]-1&Stack.SIZE-1;
+		stackDepth[lane]--;
+		return pop;
+	}
+	
+	/**
+	 * @return A lane's final state as a machine, with its memory, registers,
+	 * flags, page, program counter, instructions run, and halt reason (but an
+	 * empty stack)
+	 */
+	public Machine lane(int lane) {
+		int[] image = new int[2048];
+		for(int address = 0; address < 2048; address++) image[address] = fetchByte(address, lane);
+		
+		Machine machine = new Machine(image);
+		for(int r = 1; r < 8; r++) machine.regfile.write(r, registers[r*lanes+lane]);
+		machine.C = C[lane];
+		machine.Z = Z[lane];
+		machine.page = page[lane];
+		machine.pc = pc[lane];
+		machine.retired = retired[lane];
+		machine.halt = halt[lane];
+		return machine;
+	}
+	
+	/**
+	 * @return Bytes a lane wrote to a port
+	 */
+	public byte[] output(int lane, int port) {
+		return output[lane][port] == null ? new byte[0] : output[lane][port].toByteArray();
+	}
+	
+	/**
+	 * @return What would have been thrown by a lane's machine, which stopped
+	 * it, or {@code null}
+	 */
+	public String error(int lane) {
+		return error[lane];
+	}
+}
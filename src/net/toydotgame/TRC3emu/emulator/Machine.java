@@ -0,0 +1,553 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.toydotgame.TRC3emu.events.BellEvent;
+import net.toydotgame.TRC3emu.events.GpiWaitEvent;
+import net.toydotgame.TRC3emu.events.RunSegmentEvent;
+import net.toydotgame.utils.Log;
+import net.toydotgame.utils.Package;
+import net.toydotgame.utils.Utils;
+
+/**
+ * One TRC3: memory, registers, flags, stack, and the fetch-decode-execute
+ * loop. Nothing here is static, so any number of machines can run side by
+ * side, each on its own thread, without seeing each other. {@link Emulator}
+ * runs one for the command line.<br>
+ * <br>
+ * A machine runs until it halts, runs off the end of memory, uses up its
+ * {@link #instructionLimit}, passes its {@link #deadline}, or is {@linkplain
+ * #stop() stopped}. Why it stopped is left in {@link #halt}. A machine stopped
+ * by its budget, or {@link #WAITING} on input, can be run again from where it
+ * left off by setting {@link #halt} back to {@link #RUNNING}.
+ */
+public class Machine {
+	// Halt reasons:
+	public static final int RUNNING = 0;
+	public static final int HALTED = 1;         // HLT
+	public static final int END_OF_MEMORY = 2;
+	public static final int BUDGET = 3;         // instructionLimit reached
+	public static final int TIMEOUT = 4;        // deadline passed
+	public static final int STOPPED = 5;        // stop() called
+	public static final int ILLEGAL_OPCODE = 6;
+	public static final int INPUT = 7;          // Set by a Gpio with no more input to give
+	public static final int WAITING = 8;        // A Gpio had no input yet, see Gpio.BLOCKED
+	public static final int IDLE = 9;           // Spinning, polling idle ports, see detectIdle
+	public static final int HUNG = 10;          // Spinning, with nothing to get it out, see detectIdle
+	/**
+	 * Name of each halt reason, by value.
+	 */
+	public static final String[] HALT_REASONS = {
+		"running", "halted", "end of memory", "budget", "timeout", "stopped", "illegal opcode",
+		"input exhausted", "waiting for input", "idle", "hung"
+	};
+	
+	/**
+	 * Program counter, counts 0–1023.
+	 */
+	public int pc;
+	/**
+	 * Instruction register, bottom two bytes forms the instruction.
+	 */
+	private int ir;
+	/**
+	 * Hold the value of the opcode, decoded with {@link #decodeOpcode()}.
+	 */
+	private int opcode;
+	/**
+	 * Hold the value of the operands, decoded with {@link #decodeOperands()}.
+	 */
+	private int operands;
+	/**
+	 * Memory, 2,048 bytes.
+	 */
+	public final int[] memory;
+	/**
+	 * Register file.
+	 * @see RegisterFile
+	 */
+	public final RegisterFile regfile = new RegisterFile();
+	/**
+	 * Stack.
+	 * @see Stack
+	 */
+	public final Stack stack = new Stack(this);
+	/**
+	 * Carry and zero flags. Initialised to {@code false} (does not mirror
+	 * Minecraft).
+	 */
+	public boolean C, Z;
+	/**
+	 * Stores the current page for memory reads, used by the memory
+	 * read/{@code REA} instruction.
+	 */
+	public int page; // Init on page 0
+	/**
+	 * The current page and program counter, packed as {@code page<<10 | pc},
+	 * for reading from other threads (e.g. by {@link Sampler}). Updated with
+	 * {@link AtomicInteger#lazySet(int)} before every instruction, which is
+	 * only an ordered plain store, so costs next to nothing.
+	 */
+	public final AtomicInteger published = new AtomicInteger();
+	/**
+	 * Instructions run since the machine was created.
+	 */
+	public long retired;
+	/**
+	 * The machine stops after running this many instructions. Unlimited by
+	 * default.
+	 */
+	public long instructionLimit = Long.MAX_VALUE;
+	/**
+	 * {@link System#nanoTime()} value the machine stops at. Checked every
+	 * {@link RunSegmentEvent#LENGTH} instructions. None by default.
+	 */
+	public long deadline = Long.MAX_VALUE;
+	/**
+	 * Why the machine stopped, one of the halt reasons above, or {@link
+	 * #RUNNING}.
+	 */
+	public int halt = RUNNING;
+	/**
+	 * What {@code GPI} and {@code GPO} talk to.
+	 */
+	public Gpio gpio = Gpio.NULL;
+	/**
+	 * Run on {@code BEL}. Does nothing by default.
+	 */
+	public Runnable bell = () -> {};
+	/**
+	 * Stop the machine when it's spinning in a loop it can't get out of, with
+	 * {@link #HUNG}, or one it can only get out of by a port it's polling
+	 * changing, with {@link #IDLE}, which it can be resumed from. A jump to
+	 * itself is caught straight away, and any other loop within a few times
+	 * round (see {@link IdleDetector}). Off by default.
+	 */
+	public boolean detectIdle = false;
+	private final IdleDetector idle = new IdleDetector();
+	/**
+	 * Checks every {@link Watchdog#INTERVAL} instructions whether the machine's
+	 * hung, stopping it with {@link #HUNG} if so. None by default.
+	 */
+	public Watchdog watchdog = null;
+	/**
+	 * Live metrics to count into, set by {@link Metrics#register(Machine,
+	 * String)}. None by default.
+	 */
+	public Metrics metrics = null;
+	/**
+	 * Run copy, fill, and print loops in one go (see {@link Idioms}), when
+	 * nothing's watching each instruction: not while profiling, sampling,
+	 * collecting metrics, detecting idle loops, or logging verbosely. Machines
+	 * sharing memory must turn it off, as they wouldn't see each other write
+	 * over a loop. On by default.
+	 */
+	public boolean idioms = true;
+	private Idioms loops;
+	private volatile boolean stopping = false;
+	/**
+	 * Pages of memory written since the last {@link #restore(Snapshot)}, one
+	 * bit each.
+	 */
+	private int dirty = 0;
+	/**
+	 * Snapshot last restored, whose pages are still the machine's where it
+	 * hasn't written since.
+	 */
+	private Snapshot base;
+	
+	/**
+	 * @param memory Memory map of 2,048 bytes, copied into the machine
+	 */
+	public Machine(List<Integer> memory) {
+		this.memory = new int[2048];
+		for(int i = 0; i < this.memory.length; i++) this.memory[i] = memory.get(i)&0xFF;
+	}
+	
+	/**
+	 * @param memory Memory of 2,048 bytes, used as-is (not copied), so
+	 * machines given the same array share it
+	 */
+	public Machine(int[] memory) {
+		this.memory = memory;
+	}
+	
+	/**
+	 * Runs until the machine stops for any reason.
+	 * @return Why it stopped, also left in {@link #halt}
+	 */
+	public int run() {
+		RunSegmentEvent segment = new RunSegmentEvent();
+		segment.begin();
+		int segmentLeft = RunSegmentEvent.LENGTH;
+		long checkAt = watchdog == null ? Long.MAX_VALUE : (retired/Watchdog.INTERVAL+1)*Watchdog.INTERVAL;
+		Idioms loops = null;
+		if(idioms && !detectIdle && !Profiler.enabled && metrics == null && Sampler.interval == 0
+			&& Log.logLevel < Log.VERBOSE) {
+			if(this.loops == null) this.loops = new Idioms();
+			loops = this.loops;
+		}
+		
+		while(halt == RUNNING) {
+			// Only within the next check, so they're each made after the same instruction as a step at a time:
+			int ran = opcode == 15 && loops != null
+				? loops.run(this, Math.min(segmentLeft, Math.min(checkAt, instructionLimit)-retired))
+				: 0;
+			if(ran == 0) {
+				step();
+				ran = 1;
+			}
+			
+			if(retired >= checkAt) {
+				checkAt += Watchdog.INTERVAL;
+				if(halt == RUNNING && watchdog.check(this)) halt = HUNG;
+			}
+			if((segmentLeft -= ran) == 0) {
+				endSegment(segment, RunSegmentEvent.LENGTH);
+				segment = new RunSegmentEvent();
+				segment.begin();
+				segmentLeft = RunSegmentEvent.LENGTH;
+				
+				if(stopping) halt = STOPPED;
+				else if(deadline != Long.MAX_VALUE && System.nanoTime()-deadline >= 0) halt = TIMEOUT;
+			}
+		}
+		endSegment(segment, RunSegmentEvent.LENGTH-segmentLeft);
+		
+		return halt;
+	}
+	
+	/**
+	 * Asks the machine to stop, from any thread. It stops within {@link
+	 * RunSegmentEvent#LENGTH} instructions, or once a blocked {@code GPI}
+	 * returns.
+	 */
+	public void stop() {
+		stopping = true;
+	}
+	
+	/**
+	 * Runs one instruction, unless the machine has used up its {@link
+	 * #instructionLimit}. Sets {@link #halt} if the machine stops.
+	 */
+	@SuppressWarnings("unused") // Purely for the warning when CLOCK_SPEED is -1
+	public void step() {
+		if(retired >= instructionLimit) {
+			halt = BUDGET;
+			return;
+		}
+		
+		published.lazySet(page<<10 | pc);
+		retired++;
+		ir = fetchInstruction();
+		opcode = decodeOpcode();
+		operands = decodeOperands();
+		if(Profiler.enabled) Profiler.count(pc);
+		if(metrics != null) metrics.retire();
+		
+		Log.debug("");
+		Log.debug("FETCH @ "+Utils.paddedHex(pc<<1, 4)+": "
+			+"opcode="+opcode+", "
+			+"operands="+Utils.paddedBinary(operands>>8, 3)+" "+Utils.paddedBinary(operands&0xFF, 8)
+		);
+		
+		int a, b, c, imm;
+		switch(opcode) {
+			case 0: // NOP
+				break;
+			case 1: // HLT
+				halt = HALTED;
+				break;
+			case 2: // ADD
+				ALU.main(this, operands, ALU.ADD);
+				break;
+			case 3: // ADI
+				imm = operands>>3;
+				c = operands&0x7;
+				regfile.write(c,
+					regfile.read(c)+imm
+				);
+				break;
+			case 4: // SUB
+				ALU.main(this, operands, ALU.SUB);
+				break;
+			case 5: // XOR
+				ALU.main(this, operands, ALU.XOR);
+				break;
+			case 6: // XNO
+				ALU.main(this, operands, ALU.XNO);
+				break;
+			case 7: // IOR
+				ALU.main(this, operands, ALU.IOR);
+				break;
+			case 8: // NOR
+				ALU.main(this, operands, ALU.NOR);
+				break;
+			case 9: // AND
+				ALU.main(this, operands, ALU.AND);
+				break;
+			case 10: // NAN
+				ALU.main(this, operands, ALU.NAN);
+				break;
+			case 11: // RSH
+				ALU.main(this, operands, ALU.RSH);
+				break;
+			case 12: // LDI
+				imm = operands>>3;
+				c = operands&0x7;
+				regfile.write(c, imm);
+				break;
+			case 13: // JMP
+				if(Profiler.enabled) Profiler.branch(pc, operands>>1, true);
+				jump(operands);
+				break;
+			case 14: // BEQ, aka branch if $Z
+				if(Profiler.enabled) Profiler.branch(pc, operands>>1, Z);
+				if(Z) jump(operands);
+				break;
+			case 15: // BNE, aka branch if !$Z
+				if(Profiler.enabled) Profiler.branch(pc, operands>>1, !Z);
+				if(!Z) jump(operands);
+				break;
+			case 16: // BGT, aka branch if $C
+				if(Profiler.enabled) Profiler.branch(pc, operands>>1, C);
+				if(C) jump(operands);
+				break;
+			case 17: // BLT, aka branch if !$C
+				if(Profiler.enabled) Profiler.branch(pc, operands>>1, !C);
+				if(!C) jump(operands);
+				break;
+			case 18: // JSR
+				if(Profiler.enabled) Profiler.call(operands>>1);
+				stack.push(pc+1);
+				jump(operands);
+				break;
+			case 19: // RTS
+				if(Profiler.enabled) Profiler.ret();
+				// Even though jump jumps to the desired instruction #, it
+				// expects an 11-bit operand reading, so we shift to 11-bit:
+				jump(stack.pop()<<1);
+				break;
+			case 20: // REA
+			case 21: // STO (same operands)
+				a = regfile.read(operands>>6&0x7);
+				imm = operands>>3&0x7;
+				c = operands&0x7;
+				
+				// Handle REA and STO differently:
+				if(opcode == 20) regfile.write(c, fetchByte(page, a+imm));
+				else writeByte(page, a+imm, regfile.read(c));
+				break;
+			case 22: // GPI
+				imm = operands>>3&0x7;
+				c = operands&0x7;
+				
+				long waited = System.nanoTime();
+				GpiWaitEvent wait = new GpiWaitEvent();
+				wait.begin();
+				int value = gpio.read(imm);
+				if(value == Gpio.BLOCKED) { // Run this GPI again when resumed
+					halt = WAITING;
+					retired--;
+					if(Profiler.enabled) Profiler.uncount(pc);
+					if(metrics != null) metrics.unretire();
+					return;
+				}
+				regfile.write(c, value);
+				if(watchdog != null) watchdog.io++;
+				if(detectIdle) {
+					if(gpio.idle(imm)) idle.polls++;
+					else idle.progress++;
+				}
+				if(wait.shouldCommit()) {
+					wait.port = imm;
+					wait.value = regfile.read(c);
+					wait.commit();
+				}
+				if(metrics != null) metrics.gpioIn(imm, System.nanoTime()-waited);
+				break;
+			case 23: // GPO
+				a = regfile.read(operands>>6&0x7);
+				imm = operands>>3&0x7;
+				
+				gpio.write(imm, a);
+				if(watchdog != null) watchdog.io++;
+				if(detectIdle) idle.progress++;
+				if(metrics != null) metrics.gpioOut(imm);
+				break;
+			case 24: // BEL
+				BellEvent ring = new BellEvent();
+				ring.begin();
+				bell.run();
+				ring.commit();
+				if(watchdog != null) watchdog.io++;
+				if(detectIdle) idle.progress++;
+				if(metrics != null) metrics.bell();
+				break;
+			case 25: // PAS
+				imm = operands>>8&0x7;
+				b = regfile.read(operands>>3&0x7);
+				page = imm|b; // Cannot exceed 7
+				Log.error("PAS: "+page);
+				break;
+			case 26: // PAG
+				c = operands&0x7;
+				regfile.write(c, page);
+				break;
+			default:
+				halt = ILLEGAL_OPCODE;
+				return; // Leave the PC on the offending instruction
+		}
+		
+		if(Emulator.CLOCK_SPEED > 0) {
+			try {
+				Thread.sleep((long)(1000/Emulator.CLOCK_SPEED));
+			} catch (InterruptedException e) {
+				halt = STOPPED;
+				Thread.currentThread().interrupt(); // Let the caller see it too
+			}
+		} else if(Emulator.CLOCK_SPEED == 0) {
+			Log.log("Clock speed is set to 0. Effectively halted.");
+			halt = STOPPED;
+		}
+		
+		pc++;
+		if(halt == RUNNING && pc == 1024) halt = END_OF_MEMORY;
+	}
+	
+	/**
+	 * Takes the machine's state, sharing pages of memory with the snapshot it
+	 * was last restored from where they haven't been written since.
+	 * @return The machine's state
+	 * @see Snapshot
+	 */
+	public Snapshot snapshot() {
+		int[][] pages = new int[8][];
+		int[] hashes = new int[8];
+		for(int i = 0; i < 8; i++) {
+			if(base != null && (dirty>>i&1) == 0) {
+				pages[i] = base.pages[i];
+				hashes[i] = base.pageHashes[i];
+			} else {
+				pages[i] = Arrays.copyOfRange(memory, i<<8, i+1<<8);
+				hashes[i] = Arrays.hashCode(pages[i]);
+			}
+		}
+		
+		int[] registers = new int[7];
+		for(int r = 1; r < 8; r++) registers[r-1] = regfile.read(r);
+		return new Snapshot(pc, page, C, Z, retired, registers, stack.toArray(), pages, hashes);
+	}
+	
+	/**
+	 * Puts the machine back into a snapshot's state, ready to run.
+	 * @param snapshot State to take
+	 */
+	public void restore(Snapshot snapshot) {
+		for(int i = 0; i < 8; i++) System.arraycopy(snapshot.pages[i], 0, memory, i<<8, 256);
+		for(int r = 1; r < 8; r++) regfile.write(r, snapshot.register(r));
+		stack.load(snapshot.stack());
+		pc = snapshot.pc;
+		page = snapshot.page;
+		C = snapshot.C;
+		Z = snapshot.Z;
+		retired = snapshot.retired;
+		halt = RUNNING;
+		dirty = 0;
+		base = snapshot;
+		idle.progress++; // Wherever it was going round, it isn't now
+		if(loops != null) loops.clear();
+		if(watchdog != null) watchdog.reset();
+	}
+	
+	/**
+	 * @return Opcode of the instruction last run
+	 */
+	public int opcode() {
+		return opcode;
+	}
+	
+	private void endSegment(RunSegmentEvent segment, int instructions) {
+		if(!segment.shouldCommit()) return;
+		
+		segment.instructions = instructions;
+		segment.pc = pc;
+		segment.page = page;
+		segment.commit();
+	}
+	
+	/**
+	 * Fetches a byte using an absolute address. Designed for use in system
+	 * internals rather than by the instruction set.
+	 * @param address Byte address from 0–2047
+	 * @return Memory value from that address
+	 * @see #fetchByte(int, int)
+	 */
+	@Package int fetchByte(int address) {
+		return memory[address]&0xFF; // Sanitise just in case memory value isn't reliable
+	}
+	/**
+	 * Fetches a byte using a page number and address (probably from a
+	 * register). This one <i>is</i> designed for use by the instruction set.
+	 * @param page Page, 0–7
+	 * @param address Byte address from 0–255 within page
+	 * @return Memory value from that address
+	 * @see #fetchByte(int)
+	 */
+	private int fetchByte(int page, int address) {
+		return memory[(page<<8)+address]&0xFF;
+	}
+	
+	/**
+	 * Writes a value to RAM. Designed for use by the instruction set.
+	 * @param page Page, 0–7
+	 * @param address Byte address from 0–255 within page
+	 * @param value Byte to write
+	 * @see #fetchByte(int, int)
+	 */
+	@Package void writeByte(int page, int address, int value) {
+		Log.error("Writing value "+(value&0xFF)+" to address "+Integer.toBinaryString((page<<8)+address));
+		if(detectIdle && memory[(page<<8)+address] != (value&0xFF)) idle.progress++;
+		if(watchdog != null) watchdog.write((page<<8)+address, memory[(page<<8)+address], value&0xFF);
+		memory[(page<<8)+address] = value&0xFF;
+		if(loops != null) loops.write((page<<8)+address);
+		dirty |= 1<<((page<<8)+address>>8);
+	}
+	
+	private int fetchInstruction() {
+		int instruction = fetchByte(pc<<1);
+		instruction |= fetchByte((pc<<1)+1)<<8;
+		
+		return instruction;
+	}
+	
+	private int decodeOpcode() {
+		return ir>>11; // Mask top 5 bits, right shift by 11 bits
+	}
+	
+	private int decodeOperands() {
+		return ir&0x7FF; // Mask only bottom 11 bits
+	}
+	
+	/**
+	 * Set PC to desired instruction # (target {@code instruction} (0–1023)is
+	 * equivalent to desiring to jump to memory address {@code instruction<<1}
+	 * (0–2047).<br>
+	 * <br>
+	 * This method will set the PC to one <b>below</b> the desired target,
+	 * because in {@link #step()}, there's a {@code pc++} call regardless of
+	 * the instruction called.
+	 * @param instruction Program counter value to jump to
+	 */
+	private void jump(int instruction) {
+		int target = instruction>>1;
+		if(detectIdle && target <= pc) {
+			if(target == pc && opcode != 18 && opcode != 19) halt = HUNG; // Nothing changes before it's run again
+			else halt = idle.jump(this, target);
+		}
+		
+		// Account for pc++ run each time: This does not mirror Minecraft
+		pc = target-1;
+	}
+}
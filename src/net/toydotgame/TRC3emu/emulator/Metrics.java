@@ -0,0 +1,206 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.toydotgame.utils.Log;
+import net.toydotgame.utils.Package;
+
+/**
+ * Live metrics for a running {@link Machine}, registered with the platform
+ * MBean server as {@code net.toydotgame.TRC3emu:type=Emulator,name=<machine>}
+ * so JConsole, VisualVM, or a metrics scraper can watch long runs without
+ * verbose logging. Each machine has its own, as its {@link Machine#metrics}.
+ * <br>
+ * <br>
+ * The machine's thread never takes a lock to update these. The instruction
+ * count is a plain field only that thread writes, published with {@link
+ * AtomicLong#lazySet(long)}, and the program counter and page come from
+ * {@link Machine#published}. Rarer events (GPIO, bells) go into {@link
+ * LongAdder}s. Anything derived, like the moving average, is worked out on
+ * the reading thread when the attribute is read.
+ */
+public class Metrics implements MetricsMBean {
+	/**
+	 * Register an MBean for each machine run, and count while running. Off
+	 * unless set by {@link net.toydotgame.TRC3emu.Main Main}.
+	 */
+	public static boolean enabled = false;
+	/**
+	 * Seconds the instructions per second average is taken over.
+	 */
+	@Package static final double AVERAGE_WINDOW = 5;
+	
+	private final Machine machine;
+	private final ObjectName name;
+	private long count = 0; // Only written by the machine's thread
+	private final AtomicLong retired = new AtomicLong();
+	private final LongAdder[] bytesIn = adders(8), bytesOut = adders(8);
+	private final LongAdder gpiBlocked = new LongAdder(); // Nanoseconds
+	private final LongAdder bells = new LongAdder();
+	private final long started = System.nanoTime();
+	
+	// Moving average state, only touched by readers:
+	private long lastRead = started, lastRetired = 0;
+	private double average = 0;
+	
+	private Metrics(Machine machine, ObjectName name) {
+		this.machine = machine;
+		this.name = name;
+	}
+	
+	/**
+	 * Registers an MBean for a machine, replacing any left with the same name
+	 * by an earlier run in this JVM, and sets it as the machine's {@link
+	 * Machine#metrics}, counting from zero. Call before running the machine.
+	 * @param machine Machine to watch
+	 * @param name Name of the machine, unique within this JVM
+	 * @return The machine's metrics, or {@code null} if they couldn't be
+	 * registered
+	 */
+	public static Metrics register(Machine machine, String name) {
+		try {
+			ObjectName objectName = new ObjectName("net.toydotgame.TRC3emu:type=Emulator,name="
+				+(name.matches("[\\w .-]+") ? name : ObjectName.quote(name))
+			);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(objectName)) server.unregisterMBean(objectName);
+			Metrics metrics = new Metrics(machine, objectName);
+			server.registerMBean(metrics, objectName);
+			Log.debug("Registered metrics MBean "+objectName);
+			return machine.metrics = metrics;
+		} catch(JMException e) {
+			Log.error("Couldn't register metrics MBean: "+e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Unregisters the MBean, once the machine's done, so runs of many machines
+	 * don't leave them all behind.
+	 */
+	public void unregister() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch(JMException e) {} // Already gone, e.g. replaced by a later run
+	}
+	
+	/**
+	 * Counts one instruction being run.
+	 */
+	@Package void retire() {
+		retired.lazySet(++count);
+	}
+	
+	/**
+	 * Takes back the last {@link #retire()}, for a {@code GPI} that got {@link
+	 * Gpio#BLOCKED} and will be run again.
+	 */
+	@Package void unretire() {
+		retired.lazySet(--count);
+	}
+	
+	/**
+	 * Counts a byte read by {@code GPI}.
+	 * @param port GPIO port
+	 * @param nanos Nanoseconds spent waiting for it
+	 */
+	@Package void gpioIn(int port, long nanos) {
+		bytesIn[port].increment();
+		gpiBlocked.add(nanos);
+	}
+	
+	/**
+	 * Counts a byte written by {@code GPO}.
+	 * @param port GPIO port
+	 */
+	@Package void gpioOut(int port) {
+		bytesOut[port].increment();
+	}
+	
+	/**
+	 * Counts the bell being rung.
+	 */
+	@Package void bell() {
+		bells.increment();
+	}
+	
+	@Override
+	public long getInstructionsRetired() {
+		return retired.get();
+	}
+	
+	@Override
+	public synchronized double getInstructionsPerSecond() {
+		// Exponentially weighted, so reads at any rate give the same window:
+		long now = System.nanoTime();
+		long total = retired.get();
+		double seconds = (now-lastRead)/1e9;
+		if(seconds <= 0) return average;
+		
+		double weight = 1-Math.exp(-seconds/AVERAGE_WINDOW);
+		average += weight*((total-lastRetired)/seconds-average);
+		lastRead = now;
+		lastRetired = total;
+		return average;
+	}
+	
+	@Override
+	public int getProgramCounter() {
+		return machine.published.get()&0x3FF;
+	}
+	
+	@Override
+	public int getPage() {
+		return machine.published.get()>>10;
+	}
+	
+	@Override
+	public int getStackDepth() {
+		return machine.stack.depth();
+	}
+	
+	@Override
+	public long[] getGpioBytesIn() {
+		return sums(bytesIn);
+	}
+	
+	@Override
+	public long[] getGpioBytesOut() {
+		return sums(bytesOut);
+	}
+	
+	@Override
+	public double getGpiBlockedMillis() {
+		return gpiBlocked.sum()/1e6;
+	}
+	
+	@Override
+	public long getBellCount() {
+		return bells.sum();
+	}
+	
+	@Override
+	public double getThrottleLagMillis() {
+		if(Emulator.CLOCK_SPEED <= 0) return 0;
+		
+		double elapsed = (System.nanoTime()-started)/1e6;
+		double scheduled = retired.get()*1000/Emulator.CLOCK_SPEED;
+		return Math.max(0, elapsed-scheduled);
+	}
+	
+	private static LongAdder[] adders(int length) {
+		LongAdder[] adders = new LongAdder[length];
+		for(int i = 0; i < length; i++) adders[i] = new LongAdder();
+		return adders;
+	}
+	
+	private static long[] sums(LongAdder[] adders) {
+		long[] sums = new long[adders.length];
+		for(int i = 0; i < adders.length; i++) sums[i] = adders[i].sum();
+		return sums;
+	}
+}
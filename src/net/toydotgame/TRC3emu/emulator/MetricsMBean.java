@@ -0,0 +1,59 @@
+package net.toydotgame.TRC3emu.emulator;
+
+/**
+ * Management interface of {@link Metrics}, as seen from JConsole, VisualVM,
+ * or anything else that speaks JMX.
+ */
+public interface MetricsMBean {
+	/**
+	 * @return Instructions run since the emulator started
+	 */
+	long getInstructionsRetired();
+	
+	/**
+	 * @return Instructions run per second, averaged over roughly the last
+	 * {@value Metrics#AVERAGE_WINDOW} seconds
+	 */
+	double getInstructionsPerSecond();
+	
+	/**
+	 * @return Program counter value of the current instruction
+	 */
+	int getProgramCounter();
+	
+	/**
+	 * @return Current page
+	 */
+	int getPage();
+	
+	/**
+	 * @return Number of return addresses on the stack
+	 */
+	int getStackDepth();
+	
+	/**
+	 * @return Bytes read from each GPIO port by {@code GPI}, by port number
+	 */
+	long[] getGpioBytesIn();
+	
+	/**
+	 * @return Bytes written to each GPIO port by {@code GPO}, by port number
+	 */
+	long[] getGpioBytesOut();
+	
+	/**
+	 * @return Milliseconds spent waiting on input in {@code GPI}
+	 */
+	double getGpiBlockedMillis();
+	
+	/**
+	 * @return Times the bell was rung by {@code BEL}
+	 */
+	long getBellCount();
+	
+	/**
+	 * @return Milliseconds the emulator is behind the clock speed it is
+	 * throttled to, or {@code 0} when it isn't throttled
+	 */
+	double getThrottleLagMillis();
+}
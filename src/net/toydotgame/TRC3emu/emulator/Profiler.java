@@ -0,0 +1,330 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.toydotgame.utils.FlushedFileWriter;
+import net.toydotgame.utils.Log;
+import net.toydotgame.utils.Package;
+import net.toydotgame.utils.Utils;
+
+/**
+ * Execution profiler for the {@link Emulator}. While {@link #enabled}, the
+ * emulator counts every instruction it runs by program counter value, and
+ * every jump or branch as taken or not taken, straight into primitive arrays.
+ * Nothing goes through {@link Log} until the program halts.<br>
+ * <br>
+ * {@code JSR} and {@code RTS} are also followed to build a tree of call
+ * stacks, with the instructions run in each, which is written out as a
+ * <i>folded stack</i> file (one {@code frame;frame;frame count} line per
+ * stack) for flame graph tools. The same tree gives the call graph report:
+ * calls to each subroutine, and the instructions run inside it (exclusive)
+ * and inside it and everything it calls (inclusive).<br>
+ * <br>
+ * At halt, {@link #report()} prints the hottest instructions, loops,
+ * branches, and subroutines. If source lines were given with {@link #setSource(String[],
+ * String[])}, these are shown next to each address.
+ */
+public class Profiler {
+	/**
+	 * Count instructions while emulating. Off unless set by {@link
+	 * net.toydotgame.TRC3emu.Main Main}.
+	 */
+	public static boolean enabled = false;
+	/**
+	 * Path of the folded stack file to write at halt, or {@code null} to not
+	 * write one.
+	 */
+	public static String foldedPath = null;
+	/**
+	 * How many lines each section of the report lists.
+	 */
+	private static final int REPORT_LENGTH = 15;
+	
+	/**
+	 * Times each instruction was run, by program counter value.
+	 */
+	private static final long[] executions = new long[1024];
+	/**
+	 * Times each jump or branch was, and wasn't, taken, by program counter
+	 * value.
+	 */
+	private static final long[] taken = new long[1024], notTaken = new long[1024];
+	/**
+	 * Program counter value each jump or branch went to when taken.
+	 */
+	private static final int[] targets = new int[1024];
+	
+	// Call tree, one node per distinct call stack. Node 0 is the program itself:
+	private static int[] nodeParent = new int[64];
+	private static int[] nodeEntry = new int[64]; // PC of the subroutine
+	private static long[] nodeSelf = new long[64]; // Instructions run in this frame
+	private static long[] nodeCalls = new long[64];
+	private static int nodeCount = 1;
+	private static int node = 0;
+	private static int depth = 0, maxDepth = 0; // Nested calls
+	private static final Map<Long, Integer> children = new HashMap<Long, Integer>();
+	
+	// Source map:
+	private static String[] source = null;
+	private static String[] labels = null;
+	
+	/**
+	 * Gives the profiler source text and labels to show next to addresses.
+	 * @param source Source line of each instruction, by program counter
+	 * value. Entries may be {@code null}
+	 * @param labels Label of each instruction, by program counter value, or
+	 * {@code null} if there are none
+	 */
+	public static void setSource(String[] source, String[] labels) {
+		Profiler.source = source;
+		Profiler.labels = labels;
+	}
+	
+	/**
+	 * Clears every count, the call tree, and the source map, so a new program
+	 * can be profiled in the same JVM.
+	 */
+	public static void reset() {
+		Arrays.fill(executions, 0);
+		Arrays.fill(taken, 0);
+		Arrays.fill(notTaken, 0);
+		Arrays.fill(targets, 0);
+		nodeParent = new int[64];
+		nodeEntry = new int[64];
+		nodeSelf = new long[64];
+		nodeCalls = new long[64];
+		nodeCount = 1;
+		node = 0;
+		depth = 0;
+		maxDepth = 0;
+		children.clear();
+		source = null;
+		labels = null;
+	}
+	
+	/**
+	 * Counts one instruction being run.
+	 * @param pc Program counter value of the instruction
+	 */
+	public static void count(int pc) {
+		executions[pc]++;
+		nodeSelf[node]++;
+	}
+	
+	/**
+	 * Takes back the last {@link #count(int)}, for a {@code GPI} that got
+	 * {@link Gpio#BLOCKED} and will be run again.
+	 * @param pc Program counter value of the instruction
+	 */
+	public static void uncount(int pc) {
+		executions[pc]--;
+		nodeSelf[node]--;
+	}
+	
+	/**
+	 * Counts a jump or branch. Must be called before the jump happens.
+	 * @param pc Program counter value of the instruction
+	 * @param target Program counter value of the jump target
+	 * @param jumped {@code true} if the jump is taken
+	 */
+	public static void branch(int pc, int target, boolean jumped) {
+		if(jumped) {
+			taken[pc]++;
+			targets[pc] = target;
+		} else notTaken[pc]++;
+	}
+	
+	/**
+	 * Moves into the frame of a subroutine, as by {@code JSR}.
+	 * @param target Program counter value of the subroutine
+	 */
+	public static void call(int target) {
+		long key = (long)node<<10 | target;
+		Integer child = children.get(key);
+		if(child == null) {
+			if(nodeCount == nodeParent.length) {
+				nodeParent = Arrays.copyOf(nodeParent, nodeCount<<1);
+				nodeEntry = Arrays.copyOf(nodeEntry, nodeCount<<1);
+				nodeSelf = Arrays.copyOf(nodeSelf, nodeCount<<1);
+				nodeCalls = Arrays.copyOf(nodeCalls, nodeCount<<1);
+			}
+			nodeParent[nodeCount] = node;
+			nodeEntry[nodeCount] = target;
+			child = nodeCount++;
+			children.put(key, child);
+		}
+		node = child;
+		nodeCalls[node]++;
+		if(++depth > maxDepth) maxDepth = depth;
+	}
+	
+	/**
+	 * Moves back out to the caller's frame, as by {@code RTS}.
+	 */
+	public static void ret() {
+		if(node == 0) return;
+		node = nodeParent[node];
+		depth--;
+	}
+	
+	/**
+	 * Prints the report and writes the folded stack file, if one was asked for.
+	 */
+	public static void report() {
+		long total = 0;
+		for(long count : executions) total += count;
+		Log.log("Profile: "+String.format("%,d", total)+" instructions run");
+		if(total == 0) return;
+		
+		// Hottest instructions:
+		Integer[] order = new Integer[1024];
+		for(int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> Long.compare(executions[b], executions[a]));
+		Log.log("Hottest instructions:");
+		for(int i = 0; i < REPORT_LENGTH && executions[order[i]] > 0; i++)
+			Log.log(row(executions[order[i]], total, order[i]));
+		
+		// Loops, found as backward jumps. Instructions run is the sum over the body:
+		List<int[]> loops = new ArrayList<int[]>();
+		for(int pc = 0; pc < 1024; pc++)
+			if(taken[pc] > 0 && targets[pc] <= pc) loops.add(new int[]{targets[pc], pc});
+		long[] loopTotals = new long[loops.size()];
+		for(int i = 0; i < loops.size(); i++)
+			for(int pc = loops.get(i)[0]; pc <= loops.get(i)[1]; pc++) loopTotals[i] += executions[pc];
+		Integer[] loopOrder = new Integer[loops.size()];
+		for(int i = 0; i < loopOrder.length; i++) loopOrder[i] = i;
+		Arrays.sort(loopOrder, (a, b) -> Long.compare(loopTotals[b], loopTotals[a]));
+		if(loops.size() > 0) Log.log("Hottest loops:");
+		for(int i = 0; i < REPORT_LENGTH && i < loopOrder.length; i++) {
+			int[] loop = loops.get(loopOrder[i]);
+			Log.log(
+				row(loopTotals[loopOrder[i]], total, loop[0])
+				+" (to "+Utils.paddedHex(loop[1]<<1, 4)+", "
+				+String.format("%,d", taken[loop[1]])+" iterations)"
+			);
+		}
+		
+		// Branches by how often they were reached:
+		Integer[] branchOrder = order.clone();
+		Arrays.sort(branchOrder, (a, b) -> Long.compare(taken[b]+notTaken[b], taken[a]+notTaken[a]));
+		if(taken[branchOrder[0]]+notTaken[branchOrder[0]] > 0) Log.log("Branches (taken/not taken):");
+		for(int i = 0; i < REPORT_LENGTH; i++) {
+			int pc = branchOrder[i];
+			long reached = taken[pc]+notTaken[pc];
+			if(reached == 0) break;
+			
+			Log.log(
+				"  "+Utils.paddedHex(pc<<1, 4)+": "
+				+String.format("%,d/%,d (%.1f%% taken)", taken[pc], notTaken[pc], 100.0*taken[pc]/reached)
+				+text(pc)
+			);
+		}
+		
+		reportSubroutines(total);
+		
+		if(foldedPath != null) writeFolded();
+	}
+	
+	/**
+	 * Prints calls and inclusive and exclusive instruction counts of each
+	 * subroutine, by summing over every call tree node it appears as.
+	 * @param total Instructions run
+	 */
+	private static void reportSubroutines(long total) {
+		if(nodeCount == 1) return; // No calls made
+		
+		// Instructions run in each node's subtree. Children always come after
+		// their parent, so one backwards pass sums them up:
+		long[] subtree = Arrays.copyOf(nodeSelf, nodeCount);
+		for(int n = nodeCount-1; n > 0; n--) subtree[nodeParent[n]] += subtree[n];
+		
+		long[] calls = new long[1024], exclusive = new long[1024], inclusive = new long[1024];
+		for(int n = 1; n < nodeCount; n++) {
+			int entry = nodeEntry[n];
+			calls[entry] += nodeCalls[n];
+			exclusive[entry] += nodeSelf[n];
+			
+			// Recursive calls are already counted in the outermost call's subtree:
+			boolean recursive = false;
+			for(int a = nodeParent[n]; a != 0; a = nodeParent[a])
+				if(nodeEntry[a] == entry) recursive = true;
+			if(!recursive) inclusive[entry] += subtree[n];
+		}
+		
+		Integer[] order = new Integer[1024];
+		for(int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> Long.compare(inclusive[b], inclusive[a]));
+		Log.log(
+			"Subroutines (deepest stack reached: "+maxDepth+"/"+Stack.SIZE
+			+(maxDepth > Stack.SIZE ? ", overflowed" : "")+"):"
+		);
+		Log.log(String.format("  %-16s %10s %12s %7s %12s %7s", "", "calls", "inclusive", "", "exclusive", ""));
+		for(int i = 0; i < order.length && calls[order[i]] > 0; i++) {
+			int entry = order[i];
+			Log.log(String.format(
+				"  %-16s %,10d %,12d %6.1f%% %,12d %6.1f%%",
+				frameName(entry), calls[entry],
+				inclusive[entry], 100.0*inclusive[entry]/total,
+				exclusive[entry], 100.0*exclusive[entry]/total
+			));
+		}
+	}
+	
+	/**
+	 * Writes each call stack as {@code frame;frame;frame count}, where the
+	 * count is the number of instructions run with exactly that stack.
+	 */
+	private static void writeFolded() {
+		try(FlushedFileWriter writer = new FlushedFileWriter(foldedPath)) {
+			StringBuilder lines = new StringBuilder();
+			for(int n = 0; n < nodeCount; n++) {
+				if(nodeSelf[n] == 0) continue;
+				
+				lines.append(stack(n)).append(' ').append(nodeSelf[n]).append('\n');
+			}
+			writer.write(lines.toString()); // One write, FlushedFileWriter flushes on each
+		} catch(IOException e) {
+			Log.error("Couldn't write folded stacks to \""+foldedPath+"\"!");
+			return;
+		}
+		Log.log("Wrote folded stacks to "+foldedPath);
+	}
+	
+	private static String stack(int n) {
+		if(n == 0) return frameName(-1);
+		return stack(nodeParent[n])+";"+frameName(nodeEntry[n]);
+	}
+	
+	/**
+	 * @param entry Program counter value of a subroutine, or {@code -1} for
+	 * the program itself
+	 * @return Label of the subroutine if known, or its address
+	 */
+	private static String frameName(int entry) {
+		if(entry < 0) return "start";
+		if(labels != null && labels[entry] != null) return labels[entry];
+		return Utils.paddedHex(entry<<1, 4);
+	}
+	
+	private static String row(long count, long total, int pc) {
+		return "  "+Utils.paddedHex(pc<<1, 4)+": "
+			+String.format("%,12d %5.1f%%", count, 100.0*count/total)
+			+text(pc);
+	}
+	
+	/**
+	 * @param pc Program counter value
+	 * @return The label and source text of the instruction, tab-prefixed, or
+	 * nothing if no source was given
+	 */
+	@Package static String text(int pc) {
+		String text = "";
+		if(labels != null && labels[pc] != null) text += "\t"+labels[pc]+":";
+		if(source != null && source[pc] != null) text += "\t"+source[pc].trim();
+		return text;
+	}
+}
@@ -0,0 +1,99 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import net.toydotgame.utils.Log;
+import net.toydotgame.utils.Utils;
+
+/**
+ * Sampling profiler. Rather than counting every instruction like {@link
+ * Profiler}, a daemon thread wakes up every {@link #interval} microseconds and
+ * reads the program counter and page the {@link Emulator}'s machine last
+ * published to {@link Machine#published}, and adds one to that pair's bucket
+ * in a histogram. The emulator's only cost is that one published store per
+ * instruction, so this can stay on during throttled runs without changing
+ * their timing.<br>
+ * <br>
+ * The report printed at halt lists the pairs sampled most, which is where the
+ * run spent its (wall clock) time.
+ */
+public class Sampler {
+	/**
+	 * Microseconds between samples, or {@code 0} to not sample. Set by {@link
+	 * net.toydotgame.TRC3emu.Main Main}.
+	 */
+	public static long interval = 0;
+	/**
+	 * How many lines the report lists.
+	 */
+	private static final int REPORT_LENGTH = 15;
+	
+	/**
+	 * Samples of each {@code page<<10 | pc} pair.
+	 */
+	private static final long[] histogram = new long[8<<10];
+	private static long samples = 0;
+	private static volatile boolean running = false;
+	private static Thread thread;
+	
+	/**
+	 * Starts sampling on a new daemon thread, with an empty histogram.
+	 */
+	public static void start() {
+		Arrays.fill(histogram, 0);
+		samples = 0;
+		running = true;
+		thread = new Thread(Sampler::sample, "TRC3emu sampler");
+		thread.setDaemon(true); // Never keep the JVM alive
+		thread.start();
+		Log.debug("Sampling every "+interval+"µs");
+	}
+	
+	/**
+	 * Stops sampling, waits for the sampler thread to finish, and prints the
+	 * report.
+	 */
+	public static void stop() {
+		if(thread == null) return;
+		
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch(InterruptedException e) {} // Report what we have anyway
+		thread = null;
+		
+		report();
+	}
+	
+	private static void sample() {
+		long nanos = interval*1000;
+		while(running) {
+			LockSupport.parkNanos(nanos);
+			if(!running) break;
+			
+			// PAS can set pages above 7, so keep to the pages memory has. Only this thread writes the histogram:
+			histogram[Emulator.machine.published.get()&histogram.length-1]++;
+			samples++;
+		}
+	}
+	
+	private static void report() {
+		Log.log("Sampled profile: "+String.format("%,d", samples)+" samples, every "+interval+"µs");
+		if(samples == 0) return;
+		
+		Integer[] order = new Integer[histogram.length];
+		for(int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> Long.compare(histogram[b], histogram[a]));
+		
+		for(int i = 0; i < REPORT_LENGTH && histogram[order[i]] > 0; i++) {
+			int pc = order[i]&0x3FF;
+			int page = order[i]>>10;
+			Log.log(
+				"  "+Utils.paddedHex(pc<<1, 4)+" (page "+page+"): "
+				+String.format("%,10d %5.1f%%", histogram[order[i]], 100.0*histogram[order[i]]/samples)
+				+Profiler.text(pc)
+			);
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import net.toydotgame.TRC3emu.events.RunSegmentEvent;
+
+/**
+ * Runs any number of {@link Machine}s on a fixed pool of carrier threads,
+ * one per core by default. Each carrier has its own queue. A machine runs for
+ * a slice of {@link #slice} instructions, then goes to the back of its
+ * carrier's queue. New and woken machines are dealt out to the carriers'
+ * queues in turn, and a carrier that runs out of work steals the machine
+ * that's waited longest from another's queue.<br>
+ * <br>
+ * A machine that can't go on is parked, holding no thread, until woken: one
+ * {@link Machine#WAITING} on a {@code GPI} ({@link Gpio#BLOCKED}), one
+ * {@link Machine#IDLE} polling ports with nothing to read, one whose
+ * {@link Listener} says it isn't {@linkplain Listener#ready(Task) ready}, or
+ * one that's ahead of its {@linkplain Task#clockSpeed clock}.
+ */
+public class Scheduler {
+	public static final int DEFAULT_SLICE = 4*RunSegmentEvent.LENGTH;
+	/**
+	 * Instructions each machine runs before another gets a turn.
+	 */
+	public final int slice;
+	private final Carrier[] carriers;
+	private final AtomicInteger nextCarrier = new AtomicInteger();
+	private final AtomicLong steals = new AtomicLong();
+	private volatile boolean shutdown = false;
+	/**
+	 * Wakes machines parked by their clock.
+	 */
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "TRC3emu clock");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * What a {@link Task}'s owner is told, on the carrier that ran it.
+	 */
+	public interface Listener {
+		/**
+		 * Called after each slice that didn't stop the machine, and by {@link
+		 * Task#wake()}, holding the task's lock.
+		 * @return Whether the machine can run again now. If not, it's parked
+		 * until the next {@link Task#wake()} that finds it ready. By default,
+		 * unless it's {@link Machine#WAITING} or {@link Machine#IDLE}.
+		 */
+		public default boolean ready(Task task) {
+			return task.machine.halt != Machine.WAITING && task.machine.halt != Machine.IDLE;
+		}
+		
+		/**
+		 * Called once, when the machine stops for good. Why is in its {@link
+		 * Machine#halt}, or {@link Task#error}.
+		 */
+		public void done(Task task);
+	}
+	
+	/**
+	 * One machine being run by a scheduler, and how fairly it's been treated.
+	 * Its settings are read from the machine and the fields below when it's
+	 * {@linkplain Scheduler#submit(Task) submitted}.
+	 */
+	public static class Task implements Runnable {
+		// States:
+		private static final int READY = 0; // Queued
+		private static final int RUNNING = 1;
+		private static final int PARKED = 2;
+		private static final int DONE = 3;
+		
+		public final Machine machine;
+		private final Listener listener;
+		private Scheduler scheduler;
+		private int state = READY;
+		/**
+		 * The machine's own {@link Machine#instructionLimit}, as slices
+		 * replace it while they run.
+		 */
+		private long budget;
+		/**
+		 * Nanoseconds of running time the machine may use, or {@code 0} for
+		 * no limit. It stops with {@link Machine#TIMEOUT} at the end of the
+		 * slice that goes over.
+		 */
+		public long timeLimit = 0;
+		/**
+		 * Instructions per second the machine may run at, or {@code 0} for as
+		 * fast as it can. The clock doesn't run while the machine is parked
+		 * for any other reason.
+		 */
+		public double clockSpeed = 0;
+		private boolean rebase = true;
+		private long clockStart, clockRetired;
+		/**
+		 * What the machine threw, if anything, which stopped it.
+		 */
+		public RuntimeException error;
+		
+		// Fairness stats:
+		/**
+		 * Slices run.
+		 */
+		public long slices;
+		/**
+		 * Nanoseconds spent running, queued waiting for a carrier, and parked.
+		 */
+		public long runNanos, queuedNanos, parkedNanos;
+		/**
+		 * Slices run on a different carrier to the slice before, i.e. stolen.
+		 */
+		public long migrations;
+		private long since;
+		private Thread carrier;
+		
+		/**
+		 * @param machine Machine to run
+		 * @param listener Told when the machine stops, and asked whether it's
+		 * ready to run
+		 */
+		public Task(Machine machine, Listener listener) {
+			this.machine = machine;
+			this.listener = listener;
+		}
+		
+		/**
+		 * Runs a slice, on a carrier.
+		 */
+		@Override public void run() {
+			long start = System.nanoTime();
+			int length = scheduler.slice;
+			synchronized(this) {
+				queuedNanos += start-since;
+				state = RUNNING;
+			}
+			if(carrier != null && carrier != Thread.currentThread()) migrations++;
+			carrier = Thread.currentThread();
+			
+			if(clockSpeed > 0) {
+				if(rebase) { // Not parked by the clock, so don't catch up on the time missed
+					clockStart = start;
+					clockRetired = machine.retired;
+					rebase = false;
+				}
+				long allowed = (long)((start-clockStart)*clockSpeed/1e9)-(machine.retired-clockRetired);
+				if(allowed <= 0) {
+					long due = (long)Math.ceil((machine.retired-clockRetired+1)*1e9/clockSpeed);
+					synchronized(this) {
+						park(start);
+					}
+					scheduler.timer.schedule(this::wake, due-(start-clockStart), TimeUnit.NANOSECONDS);
+					return;
+				}
+				length = (int)Math.min(length, allowed);
+			}
+			
+			machine.halt = Machine.RUNNING;
+			machine.instructionLimit = Math.min(budget, machine.retired+length);
+			try {
+				machine.run();
+			} catch(RuntimeException e) { // e.g. an address past the end of memory
+				error = e;
+			}
+			machine.instructionLimit = budget;
+			long end = System.nanoTime();
+			runNanos += end-start;
+			slices++;
+			
+			boolean stopped = error != null || (machine.halt != Machine.WAITING && machine.halt != Machine.IDLE
+				&& !(machine.halt == Machine.BUDGET && machine.retired < budget)
+			);
+			if(!stopped && timeLimit > 0 && runNanos >= timeLimit) {
+				machine.halt = Machine.TIMEOUT;
+				stopped = true;
+			}
+			if(stopped) {
+				synchronized(this) {
+					state = DONE;
+				}
+				listener.done(this);
+				return;
+			}
+			
+			synchronized(this) {
+				if(listener.ready(this)) queue(end);
+				else {
+					rebase = true;
+					park(end);
+				}
+			}
+		}
+		
+		/**
+		 * Queues the machine again if it's parked and now {@linkplain
+		 * Listener#ready(Task) ready}. Call from any thread, but not while
+		 * holding a lock {@link Listener#ready(Task)} takes.
+		 */
+		public synchronized void wake() {
+			if(state != PARKED || !listener.ready(this)) return;
+			
+			long now = System.nanoTime();
+			parkedNanos += now-since;
+			queue(now);
+		}
+		
+		private void queue(long now) {
+			state = READY;
+			since = now;
+			scheduler.queue(this);
+		}
+		
+		private void park(long now) {
+			state = PARKED;
+			since = now;
+		}
+	}
+	
+	/**
+	 * A carrier thread, and its queue.
+	 */
+	private class Carrier extends Thread {
+		private final ConcurrentLinkedDeque<Task> queue = new ConcurrentLinkedDeque<Task>();
+		private volatile boolean idle = false;
+		
+		Carrier() {
+			super("TRC3emu carrier");
+			setDaemon(true); // Runaway machines can't keep the JVM alive
+		}
+		
+		@Override public void run() {
+			while(!shutdown) {
+				Task task = queue.pollFirst();
+				if(task == null) task = steal(this);
+				if(task != null) {
+					try {
+						task.run();
+					} catch(RuntimeException e) { // From a listener: the task's lost, but not the carrier
+						e.printStackTrace();
+					}
+					continue;
+				}
+				
+				idle = true;
+				if(!hasWork()) LockSupport.park(this); // queue() unparks us
+				idle = false;
+			}
+		}
+		
+		private Scheduler owner() {
+			return Scheduler.this;
+		}
+	}
+	
+	/**
+	 * @param threads Carrier threads
+	 * @param slice Instructions per slice
+	 */
+	public Scheduler(int threads, int slice) {
+		this.slice = slice;
+		carriers = new Carrier[threads];
+		for(int i = 0; i < threads; i++) carriers[i] = new Carrier();
+		for(Carrier carrier : carriers) carrier.start();
+	}
+	
+	/**
+	 * Puts a task at the back of a queue: its carrier's own if it's just run
+	 * a slice, or the next carrier's in turn if it's new or woken. Then wakes
+	 * an idle carrier, if there is one, to run or steal it.
+	 */
+	private void queue(Task task) {
+		Thread current = Thread.currentThread();
+		Carrier carrier;
+		if(current instanceof Carrier && ((Carrier)current).owner() == this) carrier = (Carrier)current;
+		else carrier = carriers[Math.floorMod(nextCarrier.getAndIncrement(), carriers.length)];
+		carrier.queue.addLast(task);
+		
+		for(Carrier idle : carriers) {
+			if(!idle.idle) continue;
+			
+			LockSupport.unpark(idle);
+			return;
+		}
+	}
+	
+	/**
+	 * Takes the task at the front of another carrier's queue.
+	 * @return The task, or {@code null} if every queue is empty
+	 */
+	private Task steal(Carrier thief) {
+		int start = (int)(System.nanoTime()&0x7FFFFFFF); // Spread thieves over their victims
+		for(int i = 0; i < carriers.length; i++) {
+			Carrier victim = carriers[(start+i)%carriers.length];
+			if(victim == thief) continue;
+			
+			Task task = victim.queue.pollFirst();
+			if(task == null) continue;
+			steals.incrementAndGet();
+			return task;
+		}
+		return null;
+	}
+	
+	private boolean hasWork() {
+		for(Carrier carrier : carriers) if(!carrier.queue.isEmpty()) return true;
+		return false;
+	}
+	
+	/**
+	 * Starts running a task's machine.
+	 */
+	public void submit(Task task) {
+		synchronized(task) {
+			task.scheduler = this;
+			task.budget = task.machine.instructionLimit;
+			task.queue(System.nanoTime());
+		}
+	}
+	
+	/**
+	 * @return Slices taken by one carrier from another's queue so far
+	 */
+	public long steals() {
+		return steals.get();
+	}
+	
+	/**
+	 * Stops every carrier. Machines still running are abandoned.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for(Carrier carrier : carriers) LockSupport.unpark(carrier);
+		timer.shutdownNow();
+	}
+}
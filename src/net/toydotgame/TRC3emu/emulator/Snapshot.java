@@ -0,0 +1,79 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.Arrays;
+import net.toydotgame.utils.Package;
+
+/**
+ * A machine's whole state at one moment, taken with {@link Machine#snapshot()}
+ * and put back with {@link Machine#restore(Snapshot)}, so one state can be
+ * run on from many times over.<br>
+ * <br>
+ * Memory is held as eight pages of 256 bytes, which are never changed once
+ * taken. A snapshot of a machine restored from another shares every page the
+ * machine hasn't written to since, so forking a state costs a copy of only
+ * the pages it's changed.<br>
+ * <br>
+ * Snapshots are equal if everything that decides what the machine does next
+ * is: program counter, page, registers, flags, stack, and memory. The count
+ * of instructions run isn't part of that.
+ */
+public final class Snapshot {
+	public final int pc, page;
+	public final boolean C, Z;
+	public final long retired;
+	private final int[] registers; // r1–r7
+	private final int[] stack;     // Bottom first
+	@Package final int[][] pages;
+	@Package final int[] pageHashes;
+	private final int hash;
+	
+	@Package Snapshot(int pc, int page, boolean C, boolean Z, long retired, int[] registers, int[] stack,
+		int[][] pages, int[] pageHashes) {
+		this.pc = pc;
+		this.page = page;
+		this.C = C;
+		this.Z = Z;
+		this.retired = retired;
+		this.registers = registers;
+		this.stack = stack;
+		this.pages = pages;
+		this.pageHashes = pageHashes;
+		
+		int hash = 31*pc+page;
+		hash = 31*hash+(C ? 2 : 0)+(Z ? 1 : 0);
+		hash = 31*hash+Arrays.hashCode(registers);
+		hash = 31*hash+Arrays.hashCode(stack);
+		hash = 31*hash+Arrays.hashCode(pageHashes);
+		this.hash = hash;
+	}
+	
+	/**
+	 * @return Value of a register, 0–7
+	 */
+	public int register(int address) {
+		return address == 0 ? 0 : registers[address-1];
+	}
+	
+	/**
+	 * @return Values on the stack, bottom first
+	 */
+	public int[] stack() {
+		return stack.clone();
+	}
+	
+	@Override public int hashCode() {
+		return hash;
+	}
+	
+	@Override public boolean equals(Object object) {
+		if(this == object) return true;
+		if(!(object instanceof Snapshot)) return false;
+		
+		Snapshot other = (Snapshot)object;
+		if(hash != other.hash || pc != other.pc || page != other.page || C != other.C || Z != other.Z) return false;
+		if(!Arrays.equals(registers, other.registers) || !Arrays.equals(stack, other.stack)) return false;
+		for(int i = 0; i < pages.length; i++)
+			if(pages[i] != other.pages[i] && !Arrays.equals(pages[i], other.pages[i])) return false;
+		return true;
+	}
+}
@@ -2,15 +2,35 @@ package net.toydotgame.TRC3emu.emulator;
 
 import java.util.Arrays;
 import net.toydotgame.utils.Log;
+import net.toydotgame.utils.Package;
 
 /**
- * Provides a 16-word deep stack interface.
+ * Provides a 16-word deep stack interface.<br>
+ * <br>
+ * Held as a ring buffer with a depth counter, so both {@link #push(int)} and
+ * {@link #pop()} are {@code O(1)}. Like TRC3's hardware stack, pushing onto a
+ * full stack loses the oldest return address (the other 15 are kept), and
+ * popping an empty stack yields {@code 0}.
  */
 public class Stack {
+	/**
+	 * Number of words the stack holds.
+	 */
+	public static final int SIZE = 16;
 	private int[] stack;
+	/**
+	 * Index of the top of the stack in {@link #stack}.
+	 */
+	private int top = SIZE-1;
+	private int depth = 0;
+	/**
+	 * Machine the stack belongs to, for error messages.
+	 */
+	private final Machine machine;
 	
-	public Stack() {
-		this.stack = new int[16];
+	public Stack(Machine machine) {
+		this.stack = new int[SIZE];
+		this.machine = machine;
 	}
 	
 	/**
@@ -18,33 +38,89 @@ public class Stack {
 	 * @param address 10-bit value to push
 	 */
 	public void push(int address) {
-		if(stack[stack.length-1] != 0)
-			Log.error("Stack overflow occured @ address "+(Emulator.pc<<1)+"!");
+		if(depth == SIZE)
+			Log.error("Stack overflow occured @ address "+(machine.pc<<1)+"!");
+		else depth++; // On overflow, the oldest value is overwritten instead
 		
-		for(int i = 1; i < this.stack.length; i++)
-			this.stack[i] = this.stack[i-1];
-		this.stack[0] = address&0x3FF;
+		top = top+1&SIZE-1;
+		this.stack[top] = address&0x3FF;
 		
-		Log.debug("STACK PUSHED: "+Arrays.toString(stack));
+		if(Log.logLevel >= Log.VERBOSE) Log.debug("STACK PUSHED: "+this.enumerate());
 	}
 	
 	/**
-	 * Pops the topmost value off the stack. Returns it and shifts everything 1
-	 * back.
-	 * @return Value from the top of the stack
+	 * Pops the topmost value off the stack, and returns it.
+	 * @return Value from the top of the stack, or {@code 0} if it was empty
 	 */
 	public int pop() {
-		int sum = 0;
-		for(int value : this.stack) sum += value;
-		if(sum == 0)
-			Log.error("Stack undeflow occured @ address "+(Emulator.pc<<1)+"!");
+		if(depth == 0) {
+			Log.error("Stack undeflow occured @ address "+(machine.pc<<1)+"!");
+			return 0;
+		}
 		
-		int pop = this.stack[0];
-		for(int i = 0; i < this.stack.length-1; i++)
-			this.stack[i] = this.stack[i+1];
+		int pop = this.stack[top];
+		top = top-1&SIZE-1;
+		depth--;
 		
-		Log.debug("STACK POPPED: "+pop+" "+Arrays.toString(stack));
+		if(Log.logLevel >= Log.VERBOSE) Log.debug("STACK POPPED: "+pop+" "+this.enumerate());
 		
 		return pop;
 	}
+	
+	/**
+	 * @return Number of values on the stack, 0–16
+	 */
+	public int depth() {
+		return depth;
+	}
+	
+	/**
+	 * @return Values on the stack, bottom first
+	 */
+	@Package int[] toArray() {
+		int[] values = new int[depth];
+		for(int i = 0; i < depth; i++) values[i] = this.stack[top-(depth-1-i)&SIZE-1];
+		
+		return values;
+	}
+	
+	/**
+	 * Makes this stack a copy of another.
+	 */
+	@Package void copy(Stack other) {
+		System.arraycopy(other.stack, 0, this.stack, 0, SIZE);
+		top = other.top;
+		depth = other.depth;
+	}
+	
+	/**
+	 * @return Whether another stack holds the same values
+	 */
+	@Package boolean same(Stack other) {
+		if(depth != other.depth) return false;
+		for(int i = 0; i < depth; i++)
+			if(this.stack[top-i&SIZE-1] != other.stack[other.top-i&SIZE-1]) return false;
+		
+		return true;
+	}
+	
+	/**
+	 * Replaces the stack's values.
+	 * @param values Values, bottom first, at most {@link #SIZE}
+	 */
+	@Package void load(int[] values) {
+		depth = values.length;
+		top = depth-1&SIZE-1;
+		for(int i = 0; i < depth; i++) this.stack[i] = values[i];
+	}
+	
+	/**
+	 * @return Values on the stack, topmost first
+	 */
+	public String enumerate() {
+		int[] values = new int[depth];
+		for(int i = 0; i < depth; i++) values[i] = this.stack[top-i&SIZE-1];
+		
+		return Arrays.toString(values);
+	}
 }
@@ -0,0 +1,188 @@
+package net.toydotgame.TRC3emu.emulator;
+
+import java.util.Arrays;
+import net.toydotgame.utils.Package;
+import net.toydotgame.utils.Utils;
+
+/**
+ * Catches a {@link Machine} that's hung: gone back to a state it's been in
+ * before, with no I/O in between, so will go round the same way forever.
+ * Set as a machine's {@link Machine#watchdog}.<br>
+ * <br>
+ * Every {@link #INTERVAL} instructions, the machine's whole state (program
+ * counter, page, registers, flags, stack, and memory) is hashed, and checked
+ * against a saved state with Brent's cycle detection: the state is saved
+ * again after 1, 2, 4, 8... checks, and whenever there's been I/O since. As
+ * checks are a fixed number of instructions apart, a loop of any length is
+ * caught within a few times its length. Memory's hash is kept up to date on
+ * each write, so a check doesn't read it, and a matching hash is confirmed
+ * against the saved state before the machine's stopped.<br>
+ * <br>
+ * Once caught, the loop is run round once more to find exactly how long it
+ * is and where it runs, for {@link #toString()}.
+ */
+public class Watchdog {
+	/**
+	 * Instructions between checks.
+	 */
+	public static final int INTERVAL = 4096;
+	/**
+	 * Longest loop {@link #measure(Machine, long)} goes round.
+	 */
+	private static final long MAX_MEASURE = 1<<20;
+	/**
+	 * Random weight of each byte of memory in its hash.
+	 */
+	private static final long[] WEIGHTS = new long[2048];
+	static {
+		long seed = 0x9E3779B97F4A7C15L;
+		for(int i = 0; i < WEIGHTS.length; i++) WEIGHTS[i] = mix(seed += 0x9E3779B97F4A7C15L)|1;
+	}
+	
+	/**
+	 * Instructions run by when the machine was caught in the loop (the saved
+	 * state it came back round to, so it may have gone in well before), how
+	 * many it takes to go round it once, and the lowest and highest
+	 * instructions in it. Set once the machine's {@link Machine#HUNG}, or
+	 * {@code -1}.
+	 */
+	public long since = -1, period = -1;
+	public int low = -1, high = -1;
+	/**
+	 * Counts kept by the machine: {@code GPI}s, {@code GPO}s, and {@code
+	 * BEL}s, and the hash of its memory.
+	 */
+	@Package long io = 0, memoryHash;
+	private boolean hashed = false;
+	// Saved state:
+	private long savedIo = -1, savedHash, savedRetired;
+	private int pc, page;
+	private boolean C, Z;
+	private final int[] registers = new int[8];
+	private final int[] memory = new int[2048];
+	private Stack stack;
+	private int checks, power;
+	
+	/**
+	 * Keeps memory's hash up to date.
+	 */
+	@Package void write(int address, int before, int after) {
+		memoryHash += (after-before)*WEIGHTS[address];
+	}
+	
+	/**
+	 * Forgets everything, for when the machine's state is replaced.
+	 */
+	@Package void reset() {
+		hashed = false;
+		savedIo = -1;
+	}
+	
+	/**
+	 * Checks the machine, {@link #INTERVAL} instructions after the last check.
+	 * @return Whether it's hung
+	 */
+	@Package boolean check(Machine machine) {
+		if(!hashed) {
+			memoryHash = 0;
+			for(int i = 0; i < 2048; i++) memoryHash += machine.memory[i]*WEIGHTS[i];
+			hashed = true;
+		}
+		
+		long hash = hash(machine);
+		if(io != savedIo) {
+			save(machine, hash);
+			power = 1;
+			return false;
+		}
+		
+		if(hash == savedHash && same(machine)) {
+			since = savedRetired;
+			measure(machine, hash);
+			return true;
+		}
+		if(++checks == power) {
+			save(machine, hash);
+			power <<= 1;
+		}
+		return false;
+	}
+	
+	/**
+	 * Runs once round the loop, from where it was caught, to find its length
+	 * and extent. This may go one loop over the machine's budget, but can't
+	 * change anything outside it. Skipped for loops longer than {@link
+	 * #MAX_MEASURE}, leaving {@link #period} as a multiple of the loop's
+	 * length.
+	 */
+	private void measure(Machine machine, long hash) {
+		period = machine.retired-savedRetired;
+		if(period > MAX_MEASURE) return;
+		
+		long limit = machine.instructionLimit;
+		machine.instructionLimit = Long.MAX_VALUE;
+		low = high = machine.pc;
+		for(long steps = 1; steps <= period; steps++) {
+			machine.step(); // No I/O in here, so nothing outside sees it run
+			low = Math.min(low, machine.pc);
+			high = Math.max(high, machine.pc);
+			if(machine.pc == pc && hash(machine) == hash && same(machine)) {
+				period = steps;
+				break;
+			}
+		}
+		machine.instructionLimit = limit;
+	}
+	
+	private long hash(Machine machine) {
+		long hash = memoryHash;
+		hash = mix(hash+machine.pc);
+		hash = mix(hash+machine.page);
+		hash = mix(hash+(machine.C ? 2 : 0)+(machine.Z ? 1 : 0));
+		for(int r = 1; r < 8; r++) hash = mix(hash+machine.regfile.read(r));
+		for(int value : machine.stack.toArray()) hash = mix(hash+value);
+		return hash;
+	}
+	
+	private void save(Machine machine, long hash) {
+		savedIo = io;
+		savedHash = hash;
+		savedRetired = machine.retired;
+		checks = 0;
+		pc = machine.pc;
+		page = machine.page;
+		C = machine.C;
+		Z = machine.Z;
+		for(int r = 1; r < 8; r++) registers[r] = machine.regfile.read(r);
+		System.arraycopy(machine.memory, 0, memory, 0, 2048);
+		if(stack == null) stack = new Stack(machine);
+		stack.copy(machine.stack);
+	}
+	
+	private boolean same(Machine machine) {
+		if(machine.pc != pc || machine.page != page || machine.C != C || machine.Z != Z) return false;
+		for(int r = 1; r < 8; r++) if(machine.regfile.read(r) != registers[r]) return false;
+		if(!stack.same(machine.stack)) return false;
+		return Arrays.equals(machine.memory, memory);
+	}
+	
+	/**
+	 * SplitMix64's finaliser.
+	 */
+	private static long mix(long x) {
+		x = (x^x>>>30)*0xBF58476D1CE4E5B9L;
+		x = (x^x>>>27)*0x94D049BB133111EBL;
+		return x^x>>>31;
+	}
+	
+	/**
+	 * @return Where the machine's hung, e.g. {@code "Hung in a loop of 3
+	 * instructions at 0004–0008, caught by instruction 4096"}
+	 */
+	@Override public String toString() {
+		if(since < 0) return "Not hung";
+		if(low < 0) return "Hung in a loop of at most "+period+" instructions, caught by instruction "+since;
+		return "Hung in a loop of "+period+" instructions at "+Utils.paddedHex(low<<1, 4)+"–"
+			+Utils.paddedHex(high<<1, 4)+", caught by instruction "+since;
+	}
+}
@@ -7,13 +7,16 @@ import java.awt.Font;
 import java.awt.GridLayout;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.event.WindowEvent;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.text.Caret;
+import net.toydotgame.TRC3emu.events.TerminalPrintEvent;
 import net.toydotgame.utils.Log;
 import net.toydotgame.utils.Package;
 import net.toydotgame.utils.Utils;
@@ -97,7 +100,8 @@ public class Terminal extends JPanel {
 				
 				// If not an Alt+key input, parse:
 				int keyCode = (int)e.getKeyChar();
-				if(keyCode == KeyEvent.VK_ESCAPE) System.exit(0);
+				if(keyCode == KeyEvent.VK_ESCAPE) // Same as closing the window:
+					parent.dispatchEvent(new WindowEvent(parent, WindowEvent.WINDOW_CLOSING));
 				if(keyCode == 0x0 || keyCode > 0x7F) return;
 				
 				// Valid keystroke, so input it as it is:
@@ -193,6 +197,8 @@ public class Terminal extends JPanel {
 	public void print(int charCode) {
 		Character c = parseCharForPrinting(charCode);
 		if(c == null) return; // Don't print anything
+		TerminalPrintEvent event = new TerminalPrintEvent();
+		event.begin();
 		
 		if((int)c == 0x8 || (int)c == 0x7F) { // Handle backspaces graphically:
 			String text = content.getText();
@@ -217,6 +223,13 @@ public class Terminal extends JPanel {
 			unread = true;
 			parent.refresh();
 		}
+		
+		if(event.shouldCommit()) {
+			event.terminal = super.getName();
+			event.charCode = charCode;
+			event.edt = SwingUtilities.isEventDispatchThread();
+			event.commit();
+		}
 	}
 	
 	/**
@@ -86,8 +86,8 @@ import net.toydotgame.utils.Package;
 			pending = true;                 // Unlock the terminal and this queue
 			terminal.parent.refresh();      // Update GUI
 			return super.take();            // .take() block, blocks thread until done
-		} catch(InterruptedException e) {   // User probably killed us, but die anyway:
-			Log.fatalError(e.getMessage());
+		} catch(InterruptedException e) {   // User probably killed us, so die:
+			Log.exit("User killed the emulator.", 0);
 			return -1;                      // Make compiler happy
 		} finally {                         // Practically will only run on success…
 			pending = false;                // This code will actually run _after_
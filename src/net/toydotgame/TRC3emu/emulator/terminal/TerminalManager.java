@@ -4,6 +4,8 @@ import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.Set;
 import javax.swing.JFrame;
 import javax.swing.JTabbedPane;
@@ -12,6 +14,7 @@ import javax.swing.UIManager;
 import javax.swing.UIManager.LookAndFeelInfo;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import net.toydotgame.TRC3emu.events.TerminalRefreshEvent;
 import net.toydotgame.utils.Log;
 import net.toydotgame.utils.Package;
 
@@ -31,12 +34,29 @@ public class TerminalManager extends JFrame {
 		= "TRC3emu";                            // Used to set/reset window title
 	private static final int terminalCount = 8; // Number of terminals to create
 	
+	/**
+	 * Creates a terminal window with 8 terminals. Closing it quits.
+	 */
+	public TerminalManager() {
+		this(null);
+	}
+	
 	/**
 	 * Creates a terminal window with 8 terminals.
+	 * @param onClose Run when the window is closed, instead of quitting, or
+	 * {@code null} to quit
 	 */
-	public TerminalManager() {		
+	public TerminalManager(Runnable onClose) {
 		// Init JFrame:
-		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		if(onClose == null) setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		else {
+			setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+			addWindowListener(new WindowAdapter() {
+				@Override public void windowClosed(WindowEvent e) {
+					onClose.run();
+				}
+			});
+		}
 		setTitle(windowBrand);
 		setSize(size);
 		setResizable(false);
@@ -98,6 +118,8 @@ public class TerminalManager extends JFrame {
 	 */
 	@Package void refresh() {
 		if(!isVisible()) return; // Avoid refreshing title before we've even displayed the window
+		TerminalRefreshEvent event = new TerminalRefreshEvent();
+		event.begin();
 		
 		// Update window title:
 		Terminal viewedTerminal = (Terminal)tabs.getSelectedComponent();
@@ -113,6 +135,11 @@ public class TerminalManager extends JFrame {
 		// Update tab names:
 		for(int i = 0; i < tabs.getTabCount(); i++)
 			tabs.setTitleAt(i, t[i].getName());
+		
+		if(event.shouldCommit()) {
+			event.edt = SwingUtilities.isEventDispatchThread();
+			event.commit();
+		}
 	}
 	
 	/**
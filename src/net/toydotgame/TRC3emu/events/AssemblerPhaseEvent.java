@@ -0,0 +1,46 @@
+package net.toydotgame.TRC3emu.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One phase of assembling a program.
+ */
+@Name("net.toydotgame.TRC3emu.AssemblerPhase")
+@Label("Assembler Phase")
+@Category({"TRC3emu", "Assembler"})
+@Description("A phase of assembly: parse, resolve, optimise, analyse, or encode")
+@Enabled(false)
+public class AssemblerPhaseEvent extends Event {
+	@Label("Phase")
+	public String phase;
+	@Label("Instructions")
+	public int instructions;
+	
+	/**
+	 * Creates and begins an event for a phase.
+	 * @param phase Name of the phase
+	 * @return Begun event, to {@link #end(int)} when the phase is done
+	 */
+	public static AssemblerPhaseEvent start(String phase) {
+		AssemblerPhaseEvent event = new AssemblerPhaseEvent();
+		event.phase = phase;
+		event.begin();
+		return event;
+	}
+	
+	/**
+	 * Commits this event.
+	 * @param instructions Instructions in the program after this phase
+	 */
+	public void end(int instructions) {
+		if(!shouldCommit()) return;
+		
+		this.instructions = instructions;
+		commit();
+	}
+}
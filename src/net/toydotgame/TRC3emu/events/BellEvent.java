@@ -0,0 +1,18 @@
+package net.toydotgame.TRC3emu.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Loading and starting the bell sound for a {@code BEL}.
+ */
+@Name("net.toydotgame.TRC3emu.Bell")
+@Label("Bell")
+@Category({"TRC3emu", "Emulator"})
+@Description("Time spent starting the bell sound")
+@Enabled(false)
+public class BellEvent extends Event {}
@@ -0,0 +1,23 @@
+package net.toydotgame.TRC3emu.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The emulator waiting on a {@code GPI} for input.
+ */
+@Name("net.toydotgame.TRC3emu.GpiWait")
+@Label("GPI Wait")
+@Category({"TRC3emu", "Emulator"})
+@Description("Time spent waiting for input on a GPIO port")
+@Enabled(false)
+public class GpiWaitEvent extends Event {
+	@Label("Port")
+	public int port;
+	@Label("Value")
+	public int value;
+}
@@ -0,0 +1,52 @@
+package net.toydotgame.TRC3emu.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Reading or writing a memory image: a binary file, or a cached program.
+ */
+@Name("net.toydotgame.TRC3emu.ImageIO")
+@Label("Image I/O")
+@Category({"TRC3emu", "Files"})
+@Description("Reading or writing a binary or cached memory image")
+@Enabled(false)
+public class ImageIOEvent extends Event {
+	@Label("Path")
+	public String path;
+	@Label("Size")
+	@DataAmount
+	public long bytes;
+	@Label("Write")
+	public boolean write;
+	
+	/**
+	 * Creates and begins an event for reading or writing an image.
+	 * @param path File being read or written
+	 * @param write {@code true} if writing
+	 * @return Begun event, to {@link #end(long)} when done
+	 */
+	public static ImageIOEvent start(String path, boolean write) {
+		ImageIOEvent event = new ImageIOEvent();
+		event.path = path;
+		event.write = write;
+		event.begin();
+		return event;
+	}
+	
+	/**
+	 * Commits this event.
+	 * @param bytes Size of the image in bytes
+	 */
+	public void end(long bytes) {
+		if(!shouldCommit()) return;
+		
+		this.bytes = bytes;
+		commit();
+	}
+}
@@ -0,0 +1,46 @@
+package net.toydotgame.TRC3emu.events;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import net.toydotgame.utils.Log;
+
+/**
+ * Starts a Java Flight Recorder recording of TRC3emu's events. They are all
+ * {@link jdk.jfr.Enabled @Enabled(false)} by default, so they cost nothing
+ * unless turned on here or in a {@code .jfc} settings file given to {@code
+ * -XX:StartFlightRecording}.
+ */
+public class Recorder {
+	private static final String[] EVENTS = {
+		"net.toydotgame.TRC3emu.RunSegment",
+		"net.toydotgame.TRC3emu.GpiWait",
+		"net.toydotgame.TRC3emu.Bell",
+		"net.toydotgame.TRC3emu.TerminalPrint",
+		"net.toydotgame.TRC3emu.TerminalRefresh",
+		"net.toydotgame.TRC3emu.ImageIO",
+		"net.toydotgame.TRC3emu.AssemblerPhase",
+	};
+	
+	/**
+	 * Starts recording TRC3emu's events, along with the JVM's default set
+	 * (CPU, GC, thread parking, etc). The recording is written when the JVM
+	 * exits.
+	 * @param path File to write the recording to
+	 */
+	public static void start(String path) {
+		try {
+			Recording recording = new Recording(Configuration.getConfiguration("default"));
+			for(String event : EVENTS) recording.enable(event);
+			recording.setName("TRC3emu");
+			recording.setToDisk(true);
+			recording.setDestination(Paths.get(path)); // Written on exit
+			recording.start();
+			Log.debug("Started flight recording to "+path);
+		} catch(IOException | ParseException e) {
+			Log.error("Couldn't start flight recording: "+e.getMessage());
+		}
+	}
+}
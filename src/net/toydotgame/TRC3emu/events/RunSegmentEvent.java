@@ -0,0 +1,33 @@
+package net.toydotgame.TRC3emu.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A stretch of {@link #LENGTH} instructions run by the emulator, or fewer for
+ * the last stretch before it halts. One event per instruction would swamp the
+ * recording.
+ */
+@Name("net.toydotgame.TRC3emu.RunSegment")
+@Label("Run Segment")
+@Category({"TRC3emu", "Emulator"})
+@Description("Instructions run by the emulator, in batches")
+@Enabled(false)
+public class RunSegmentEvent extends Event {
+	/**
+	 * Instructions per segment.
+	 */
+	public static final int LENGTH = 4096;
+	
+	@Label("Instructions")
+	public int instructions;
+	@Label("Program Counter")
+	@Description("Program counter value at the end of the segment")
+	public int pc;
+	@Label("Page")
+	public int page;
+}
@@ -0,0 +1,25 @@
+package net.toydotgame.TRC3emu.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A character being printed to a terminal.
+ */
+@Name("net.toydotgame.TRC3emu.TerminalPrint")
+@Label("Terminal Print")
+@Category({"TRC3emu", "Terminal"})
+@Description("Printing to a terminal's text area")
+@Enabled(false)
+public class TerminalPrintEvent extends Event {
+	@Label("Terminal")
+	public String terminal;
+	@Label("Character Code")
+	public int charCode;
+	@Label("On Event Dispatch Thread")
+	public boolean edt;
+}
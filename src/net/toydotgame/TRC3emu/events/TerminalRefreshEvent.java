@@ -0,0 +1,21 @@
+package net.toydotgame.TRC3emu.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The terminal window updating its title and tabs.
+ */
+@Name("net.toydotgame.TRC3emu.TerminalRefresh")
+@Label("Terminal Refresh")
+@Category({"TRC3emu", "Terminal"})
+@Description("Updating the terminal window's title and tabs")
+@Enabled(false)
+public class TerminalRefreshEvent extends Event {
+	@Label("On Event Dispatch Thread")
+	public boolean edt;
+}
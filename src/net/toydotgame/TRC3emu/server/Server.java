@@ -0,0 +1,130 @@
+package net.toydotgame.TRC3emu.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import net.toydotgame.TRC3emu.emulator.Scheduler;
+import net.toydotgame.utils.Log;
+
+/**
+ * Serves one program to many connections at once, each with its own machine
+ * (see {@link Session}). Listens on a localhost TCP port, or a Unix domain
+ * socket.<br>
+ * <br>
+ * One thread watches every connection with a {@link Selector}, and the
+ * machines share a {@link Scheduler} with {@link #threads} carriers. A machine
+ * waiting on {@code GPI} holds no thread, only its memory and buffers, so
+ * thousands of idle sessions cost little more than their sockets.
+ */
+public class Server {
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Carrier threads to run machines on. One per core by default.
+	 */
+	public static int threads = DEFAULT_THREADS;
+	/**
+	 * Connections waiting to be accepted before more are refused.
+	 */
+	private static final int BACKLOG = 1024;
+	
+	/**
+	 * Listens and serves forever.
+	 * @param address A port number to listen on localhost, or the path of a
+	 * Unix domain socket to create
+	 * @param memory Memory map of 2,048 bytes, copied for each session
+	 */
+	public static void main(String address, List<Integer> memory) {
+		int[] image = new int[2048];
+		for(int i = 0; i < image.length; i++) image[i] = memory.get(i)&0xFF;
+		
+		Selector selector = null;
+		ServerSocketChannel server = null;
+		try {
+			selector = Selector.open();
+			server = listen(address);
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch(IOException | IllegalArgumentException e) {
+			Log.exit("Couldn't listen on \""+address+"\": "+e.getMessage(), 1);
+		}
+		
+		Scheduler scheduler = new Scheduler(threads, Scheduler.DEFAULT_SLICE);
+		Log.log("Serving on "+address+" with "+threads+" threads");
+		// The emulator's logging isn't per machine, so keep it out of the server's output:
+		Log.setLogLevel(Log.NOTHING);
+		
+		while(true) {
+			try {
+				selector.select();
+			} catch(IOException e) {
+				Log.setLogLevel(Log.NORMAL);
+				Log.exit("Selector failed: "+e.getMessage(), 1);
+			}
+			
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if(!key.isValid()) continue;
+				
+				if(key.isAcceptable()) {
+					accept(server, selector, scheduler, image);
+					continue;
+				}
+				
+				Session session = (Session)key.attachment();
+				if(key.isReadable()) session.receive();
+				if(key.isValid() && key.isWritable()) session.send();
+			}
+		}
+	}
+	
+	/**
+	 * Opens the server socket.
+	 * @see #main(String, List)
+	 */
+	private static ServerSocketChannel listen(String address) throws IOException {
+		SocketAddress socketAddress;
+		ServerSocketChannel server;
+		if(address.matches("\\d+")) {
+			socketAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+			server = ServerSocketChannel.open();
+		} else {
+			Path path = Path.of(address).toAbsolutePath();
+			Files.deleteIfExists(path); // Left by a server that was killed
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> path.toFile().delete()));
+			socketAddress = UnixDomainSocketAddress.of(path);
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		}
+		
+		server.bind(socketAddress, BACKLOG);
+		return server;
+	}
+	
+	/**
+	 * Accepts a waiting connection, if there is one, and starts its session.
+	 */
+	private static void accept(ServerSocketChannel server, Selector selector, Scheduler scheduler, int[] image) {
+		try {
+			SocketChannel channel = server.accept();
+			if(channel == null) return;
+			
+			channel.configureBlocking(false);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			Session session = new Session(key, scheduler, image.clone());
+			key.attach(session);
+			session.start();
+		} catch(IOException e) {} // Gone before we got to it, or out of file descriptors
+	}
+}
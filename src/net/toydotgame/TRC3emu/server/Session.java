@@ -0,0 +1,195 @@
+package net.toydotgame.TRC3emu.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import net.toydotgame.TRC3emu.emulator.Gpio;
+import net.toydotgame.TRC3emu.emulator.Machine;
+import net.toydotgame.TRC3emu.emulator.Metrics;
+import net.toydotgame.TRC3emu.emulator.Scheduler;
+import net.toydotgame.TRC3emu.emulator.Watchdog;
+import net.toydotgame.utils.Package;
+
+/**
+ * One connection to the {@link Server} and the machine serving it. GPIO port
+ * 0 reads bytes sent by the connection and writes bytes back to it; every
+ * other port is a null device.<br>
+ * <br>
+ * The machine runs on the server's {@link Scheduler}, so only holds a thread
+ * while it has something to do. A {@code GPI} with no input yet parks it
+ * ({@link Gpio#BLOCKED}) until input arrives. Likewise, once {@link #BUFFER}
+ * bytes of output are waiting to be sent, it's parked until some have gone.
+ * A machine spinning in a loop is caught ({@link Machine#detectIdle}, and a
+ * {@link Watchdog} for loops that write memory): if it's {@link
+ * Machine#HUNG}, the session ends once its output's sent, and if it's {@link
+ * Machine#IDLE}, polling the null ports, it's parked for good.
+ * <br>
+ * <br>
+ * The buffers are shared by the server's selector thread and whichever
+ * carrier is running the machine, so are only touched while holding the
+ * session's lock. The machine itself is only touched by its carrier.
+ */
+@Package class Session implements Gpio, Scheduler.Listener {
+	/**
+	 * Size of the input and output buffers.
+	 */
+	private static final int BUFFER = 4096;
+	
+	private final SocketChannel channel;
+	private final SelectionKey key;
+	private final Scheduler scheduler;
+	private final Machine machine;
+	private final Scheduler.Task task;
+	/**
+	 * Bytes received but not yet read by {@code GPI}, between its position
+	 * and limit.
+	 */
+	private final ByteBuffer input = ByteBuffer.allocate(BUFFER).flip();
+	/**
+	 * Bytes written by {@code GPO} but not yet sent, before its position.
+	 */
+	private final ByteBuffer output = ByteBuffer.allocate(BUFFER);
+	private boolean endOfInput = false;
+	private boolean finished = false; // Machine stopped, output still being sent
+	private boolean closed = false;
+	
+	/**
+	 * @param key Key of the connection, registered with the server's selector
+	 * @param scheduler Where to run the machine
+	 * @param memory Memory for the machine, used as-is
+	 */
+	@Package Session(SelectionKey key, Scheduler scheduler, int[] memory) {
+		this.key = key;
+		this.channel = (SocketChannel)key.channel();
+		this.scheduler = scheduler;
+		machine = new Machine(memory);
+		machine.gpio = this;
+		machine.detectIdle = true; // Spinning machines would hog a carrier
+		machine.watchdog = new Watchdog();
+		if(Metrics.enabled) Metrics.register(machine, "session "+channel.socket().getRemoteSocketAddress());
+		task = new Scheduler.Task(machine, this);
+	}
+	
+	/**
+	 * Starts the machine.
+	 */
+	@Package void start() {
+		scheduler.submit(task);
+	}
+	
+	/**
+	 * Sends what the last slice wrote, and says whether the machine has room
+	 * to write and, if it's waiting, input to read.
+	 */
+	@Override public synchronized boolean ready(Scheduler.Task task) {
+		if(closed) return false; // Leave it parked for good
+		
+		updateInterest();
+		if(!output.hasRemaining()) return false;
+		if(machine.halt == Machine.WAITING) return input.hasRemaining() || endOfInput;
+		if(machine.halt == Machine.IDLE) return false; // Polling null ports, which never change
+		return true;
+	}
+	
+	@Override public synchronized void done(Scheduler.Task task) {
+		if(closed) return;
+		
+		finished = true;
+		if(output.position() == 0) close();
+		else updateInterest();
+	}
+	
+	@Override public int read(int port) {
+		if(port != 0) return 0;
+		
+		synchronized(this) {
+			if(input.hasRemaining()) return input.get()&0xFF;
+			if(!endOfInput) return BLOCKED;
+		}
+		machine.halt = Machine.INPUT; // The connection won't send any more
+		return 0;
+	}
+	
+	@Override public boolean idle(int port) {
+		return port != 0;
+	}
+	
+	@Override public void write(int port, int value) {
+		if(port != 0) return;
+		
+		synchronized(this) {
+			output.put((byte)value);
+			if(!output.hasRemaining()) machine.instructionLimit = machine.retired; // End the slice here
+		}
+	}
+	
+	/**
+	 * Reads what the connection has sent, on the selector thread.
+	 */
+	@Package void receive() {
+		synchronized(this) {
+			try {
+				input.compact();
+				int read = channel.read(input);
+				input.flip();
+				if(read < 0) endOfInput = true;
+			} catch(IOException e) {
+				close();
+				return;
+			}
+			updateInterest();
+		}
+		task.wake(); // Not holding our lock, which ready() takes
+	}
+	
+	/**
+	 * Sends waiting output to the connection, on the selector thread.
+	 */
+	@Package void send() {
+		synchronized(this) {
+			try {
+				output.flip();
+				channel.write(output);
+				output.compact();
+			} catch(IOException e) {
+				close();
+				return;
+			}
+			
+			if(finished && output.position() == 0) {
+				close();
+				return;
+			}
+			updateInterest();
+		}
+		task.wake();
+	}
+	
+	/**
+	 * Hangs up, and stops the machine.
+	 */
+	@Package synchronized void close() {
+		closed = true;
+		machine.stop();
+		if(machine.metrics != null) machine.metrics.unregister();
+		key.cancel();
+		try {
+			channel.close();
+		} catch(IOException e) {} // Nothing more to lose
+	}
+	
+	/**
+	 * Asks the selector for what the session is ready for: more input while
+	 * there's room for it, and to send output while there's some waiting.
+	 */
+	private void updateInterest() {
+		int ops = 0;
+		if(!endOfInput && input.remaining() < BUFFER) ops |= SelectionKey.OP_READ;
+		if(output.position() > 0) ops |= SelectionKey.OP_WRITE;
+		
+		if(key.interestOps() == ops) return;
+		key.interestOps(ops);
+		key.selector().wakeup(); // In case this isn't the selector thread
+	}
+}
@@ -0,0 +1,473 @@
+package net.toydotgame.TRC3emu.workload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.toydotgame.TRC3emu.Main;
+import net.toydotgame.TRC3emu.assembler.Assembler;
+import net.toydotgame.TRC3emu.emulator.Gpio;
+import net.toydotgame.TRC3emu.emulator.Lockstep;
+import net.toydotgame.TRC3emu.emulator.Machine;
+import net.toydotgame.TRC3emu.emulator.Metrics;
+import net.toydotgame.TRC3emu.emulator.Scheduler;
+import net.toydotgame.TRC3emu.emulator.Watchdog;
+import net.toydotgame.utils.FileHandler;
+import net.toydotgame.utils.Log;
+import net.toydotgame.utils.Package;
+
+/**
+ * Runs many programs at once, each on its own {@link Machine}, sharing a
+ * {@link Scheduler}, and writes one line of JSON per run.<br>
+ * <br>
+ * The job list has one job per line, {@code binary [input]}, with paths
+ * relative to the job list unless they're absolute. Binaries are text
+ * binaries from {@code -a}, or sources ending in {@code .s}, which are
+ * assembled first (on one thread, as the assembler isn't thread-safe). Input
+ * files have one decimal byte per line, given to each {@code GPI} in turn,
+ * regardless of port. Blank lines and lines starting with {@code #} are
+ * skipped.<br>
+ * <br>
+ * Each run stops when it halts, after {@link #budget} instructions, after
+ * {@link #timeout} milliseconds of running, or when a {@code GPI} finds its
+ * input used up. Its result line has the final registers, flags, page, and
+ * program counter, the bytes written to each port, instructions run, why it
+ * stopped, and how long it ran, in how many slices, and how long it spent
+ * queued. Lines are written in job list order, whatever order the runs finish
+ * in.<br>
+ * <br>
+ * Each run has a {@link Watchdog}, so a run that's hung, going round a loop
+ * with no I/O, stops as {@link Machine#HUNG} rather than using up its budget.
+ * Lanes don't, so in lockstep, jobs that use up their budget are run again on
+ * a machine of their own, to give the same result they would without. A
+ * hung run's result line says where ({@code hang}): how many instructions
+ * it had run by when it was caught in the loop ({@code since}), which it may
+ * have gone into well before, how many instructions go round it ({@code
+ * period}), and the lowest and highest addresses in it ({@code from} and
+ * {@code to}).
+ * <br>
+ * <br>
+ * With {@link #lockstep} set, jobs with the same program run together as the
+ * lanes of a {@link Lockstep} instead, for sweeps of one program over many
+ * inputs. Their timeout counts from when their group starts, and their result
+ * lines give the group's time and size ({@code lanes}) in place of slices and
+ * time queued.
+ */
+public class Batch {
+	public static final long DEFAULT_BUDGET = 10_000_000;
+	public static final long DEFAULT_TIMEOUT = 10_000;
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Instructions each run may use. Ten million by default.
+	 */
+	public static long budget = DEFAULT_BUDGET;
+	/**
+	 * Milliseconds each run may spend running, or {@code 0} for no limit. Ten
+	 * seconds by default.
+	 */
+	public static long timeout = DEFAULT_TIMEOUT;
+	/**
+	 * Carrier threads to run jobs on. One per core by default.
+	 */
+	public static int threads = DEFAULT_THREADS;
+	/**
+	 * Run jobs with the same program together with {@link Lockstep}, rather
+	 * than each on its own machine. Off by default.
+	 */
+	public static boolean lockstep = false;
+	/**
+	 * Stop runs spinning in a loop they can't get out of, as {@link
+	 * Machine#HUNG}, rather than letting them use up their budget. Off by
+	 * default.
+	 */
+	public static boolean detectIdle = false;
+	/**
+	 * Most jobs run together in one {@link Lockstep}.
+	 */
+	private static final int MAX_LANES = 1024;
+	private static final AtomicLong laneInstructions = new AtomicLong(), lockstepSteps = new AtomicLong();
+	
+	/**
+	 * One run. Everything it touches is its own.
+	 */
+	private static class Job {
+		int index;
+		String binary, input;
+		List<Integer> memory;
+		int[] script = new int[0];
+		String error;
+	}
+	
+	/**
+	 * Feeds a job's input to {@code GPI}s, and keeps what {@code GPO}s write.
+	 */
+	private static class ScriptedGpio implements Gpio {
+		private final Machine machine;
+		private final int[] script;
+		private int next = 0;
+		private final ByteArrayOutputStream[] output = new ByteArrayOutputStream[8];
+		
+		ScriptedGpio(Machine machine, int[] script) {
+			this.machine = machine;
+			this.script = script;
+			for(int i = 0; i < output.length; i++) output[i] = new ByteArrayOutputStream();
+		}
+		
+		@Override public int read(int port) {
+			if(next < script.length) return script[next++]&0xFF;
+			
+			machine.halt = Machine.INPUT; // Stops after this instruction
+			return 0;
+		}
+		
+		@Override public void write(int port, int value) {
+			output[port].write(value);
+		}
+	}
+	
+	/**
+	 * Runs every job in a job list.
+	 * @param jobsPath Job list
+	 * @param out Where to write result lines
+	 */
+	public static void main(String jobsPath, PrintStream out) {
+		List<Job> jobs = readJobs(jobsPath);
+		boolean quiet = out == System.out; // Keep stdout to result lines only
+		if(!quiet) Log.log("Running "+jobs.size()+" jobs on "+threads+" threads...");
+		
+		// The emulator's logging isn't per machine, so keep it out of the results:
+		int level = Log.logLevel;
+		Log.setLogLevel(Log.NOTHING);
+		laneInstructions.set(0);
+		lockstepSteps.set(0);
+		
+		Scheduler scheduler = null;
+		ExecutorService pool = null;
+		List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+		if(lockstep) {
+			pool = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "TRC3emu lockstep");
+				thread.setDaemon(true); // Runaway groups can't keep the JVM alive
+				return thread;
+			});
+			results = lockstep(pool, jobs);
+		} else {
+			scheduler = new Scheduler(threads, Scheduler.DEFAULT_SLICE);
+			for(Job job : jobs) results.add(start(scheduler, job));
+		}
+		
+		int failed = 0;
+		for(int i = 0; i < jobs.size(); i++) {
+			String result;
+			try {
+				result = results.get(i).get();
+			} catch(ExecutionException e) {
+				result = error(jobs.get(i), e.getCause().toString());
+			} catch(InterruptedException e) {
+				break;
+			}
+			if(result.contains("\"error\":")) failed++;
+			out.println(result);
+		}
+		out.flush();
+		String stats;
+		if(lockstep) {
+			pool.shutdownNow();
+			stats = String.format("%,d instructions in %,d lockstep steps", laneInstructions.get(), lockstepSteps.get());
+		} else {
+			stats = scheduler.steals()+" slices stolen";
+			scheduler.shutdown();
+		}
+		
+		Log.setLogLevel(level);
+		if(!quiet) Log.log("Done! "+(jobs.size()-failed)+" ran, "+failed+" failed, "+stats);
+	}
+	
+	/**
+	 * Reads the job list, and loads (or assembles) every binary and input up
+	 * front. Jobs that can't be loaded keep an error instead.
+	 */
+	private static List<Job> readJobs(String jobsPath) {
+		File base = new File(jobsPath).getAbsoluteFile().getParentFile();
+		List<Job> jobs = new ArrayList<Job>();
+		for(String line : new FileHandler(jobsPath).readIntoList()) {
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			
+			String[] fields = line.split("\\s+");
+			Job job = new Job();
+			job.index = jobs.size();
+			job.binary = fields[0];
+			job.input = fields.length > 1 ? fields[1] : null;
+			jobs.add(job);
+			
+			try {
+				job.memory = loadBinary(resolve(base, job.binary));
+				if(job.input != null) job.script = loadInput(resolve(base, job.input));
+			} catch(IllegalArgumentException e) {
+				job.error = e.getMessage();
+			}
+		}
+		return jobs;
+	}
+	
+	/**
+	 * @param base Directory relative paths are relative to
+	 * @return {@code path}, relative to {@code base} unless it's absolute
+	 */
+	@Package static File resolve(File base, String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(base, path);
+	}
+	
+	/**
+	 * Loads a text binary, or assembles a source ending in {@code .s}.
+	 * @return Its memory map
+	 * @throws IllegalArgumentException If it can't be loaded
+	 */
+	@Package static List<Integer> loadBinary(File file) {
+		if(!file.isFile()) throw new IllegalArgumentException("No such file \""+file+"\"");
+		List<String> lines = new FileHandler(file.getPath()).readIntoList();
+		if(!file.getName().endsWith(".s")) return Main.parse(lines, new String[1024]);
+		
+		int level = Log.logLevel;
+		Log.setLogLevel(Log.NOTHING);
+		byte[] image = Assembler.assemble(lines);
+		Log.setLogLevel(level);
+		if(image == null) throw new IllegalArgumentException(Assembler.getSyntaxErrors()+" assembly errors");
+		if(image.length > 2048) throw new IllegalArgumentException("Assembled program won't fit into memory");
+		
+		List<Integer> memory = new ArrayList<Integer>(2048);
+		for(int i = 0; i < 2048; i++) memory.add(i < image.length ? image[i]&0xFF : 0);
+		return memory;
+	}
+	
+	private static int[] loadInput(File file) {
+		if(!file.isFile()) throw new IllegalArgumentException("No such file \""+file+"\"");
+		List<String> lines = new FileHandler(file.getPath()).readIntoList();
+		lines.removeIf(line -> line.isBlank() || line.startsWith("#"));
+		try {
+			return lines.stream().mapToInt(line -> Integer.parseInt(line.trim())).toArray();
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Mangled input \""+file+"\"");
+		}
+	}
+	
+	/**
+	 * Starts a job on a new machine.
+	 * @return Its result line, once it's done
+	 */
+	private static CompletableFuture<String> start(Scheduler scheduler, Job job) {
+		if(job.error != null) return CompletableFuture.completedFuture(error(job, job.error));
+		
+		ScriptedGpio gpio = machine(job);
+		Machine machine = gpio.machine;
+		
+		CompletableFuture<String> result = new CompletableFuture<String>();
+		Scheduler.Task task = new Scheduler.Task(machine, done -> {
+			if(machine.metrics != null) machine.metrics.unregister();
+			try {
+				result.complete(result(job, done, gpio));
+			} catch(RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		});
+		task.timeLimit = TimeUnit.MILLISECONDS.toNanos(timeout);
+		scheduler.submit(task);
+		return result;
+	}
+	
+	/**
+	 * @return The GPIO of a new machine, set up to run a job
+	 */
+	private static ScriptedGpio machine(Job job) {
+		Machine machine = new Machine(job.memory);
+		ScriptedGpio gpio = new ScriptedGpio(machine, job.script);
+		machine.gpio = gpio;
+		machine.instructionLimit = budget;
+		machine.detectIdle = detectIdle;
+		machine.watchdog = new Watchdog();
+		if(Metrics.enabled) Metrics.register(machine, "job"+job.index);
+		return gpio;
+	}
+	
+	/**
+	 * Runs jobs with the same memory map together, {@link #MAX_LANES} at a
+	 * time, each group as one {@link Lockstep} on the pool.
+	 * @return Each job's result line, once it's done
+	 */
+	private static List<CompletableFuture<String>> lockstep(ExecutorService pool, List<Job> jobs) {
+		List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+		Map<List<Integer>, List<Job>> programs = new LinkedHashMap<List<Integer>, List<Job>>();
+		for(Job job : jobs) {
+			if(job.error != null) {
+				results.add(CompletableFuture.completedFuture(error(job, job.error)));
+				continue;
+			}
+			results.add(new CompletableFuture<String>());
+			programs.computeIfAbsent(job.memory, memory -> new ArrayList<Job>()).add(job);
+		}
+		
+		for(List<Job> program : programs.values()) {
+			// Split into as many groups as there are threads, within MAX_LANES:
+			int groups = Math.max(Math.min(threads, program.size()), (program.size()+MAX_LANES-1)/MAX_LANES);
+			for(int i = 0; i < groups; i++) {
+				List<Job> group = program.subList(program.size()*i/groups, program.size()*(i+1)/groups);
+				pool.execute(() -> runGroup(group, results));
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Runs a group of jobs with the same memory map in lockstep, and completes
+	 * their results.
+	 */
+	private static void runGroup(List<Job> group, List<CompletableFuture<String>> results) {
+		int[][] inputs = new int[group.size()][];
+		for(int lane = 0; lane < inputs.length; lane++) inputs[lane] = group.get(lane).script;
+		Lockstep lanes = new Lockstep(group.get(0).memory, inputs);
+		lanes.instructionLimit = budget;
+		long start = System.nanoTime();
+		if(timeout > 0) lanes.deadline = start+TimeUnit.MILLISECONDS.toNanos(timeout);
+		
+		try {
+			lanes.run();
+		} catch(RuntimeException e) {
+			for(Job job : group) results.get(job.index).complete(error(job, e.toString()));
+			return;
+		}
+		String millis = String.format(Locale.ROOT, "%.3f", (System.nanoTime()-start)/1e6);
+		lockstepSteps.addAndGet(lanes.steps);
+		
+		for(int lane = 0; lane < inputs.length; lane++) {
+			Job job = group.get(lane);
+			if(lanes.error(lane) != null) {
+				results.get(job.index).complete(error(job, lanes.error(lane)));
+				continue;
+			}
+			
+			byte[][] output = new byte[8][];
+			for(int port = 0; port < 8; port++) output[port] = lanes.output(lane, port);
+			Machine machine = lanes.lane(lane);
+			laneInstructions.addAndGet(machine.retired);
+			if(machine.halt == Machine.BUDGET) { // May have hung, which only a watchdog would've seen
+				ScriptedGpio gpio = machine(job);
+				machine = gpio.machine;
+				if(timeout > 0) machine.deadline = System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(timeout);
+				try {
+					machine.run();
+				} catch(RuntimeException e) {
+					results.get(job.index).complete(error(job, e.toString()));
+					continue;
+				} finally {
+					if(machine.metrics != null) machine.metrics.unregister();
+				}
+				for(int port = 0; port < 8; port++) output[port] = gpio.output[port].toByteArray();
+			}
+			
+			StringBuilder json = state(job, machine, output);
+			json.append(",\"millis\":").append(millis);
+			json.append(",\"lanes\":").append(inputs.length);
+			hang(json, machine.watchdog);
+			results.get(job.index).complete(json.append('}').toString());
+		}
+	}
+	
+	/**
+	 * @return A finished job's result line
+	 */
+	private static String result(Job job, Scheduler.Task task, ScriptedGpio gpio) {
+		if(task.error != null) return error(job, task.error.toString());
+		
+		byte[][] output = new byte[8][];
+		for(int port = 0; port < 8; port++) output[port] = gpio.output[port].toByteArray();
+		StringBuilder json = state(job, task.machine, output);
+		json.append(",\"millis\":").append(String.format(Locale.ROOT, "%.3f", task.runNanos/1e6));
+		json.append(",\"slices\":").append(task.slices);
+		json.append(",\"queuedMillis\":").append(String.format(Locale.ROOT, "%.3f", task.queuedNanos/1e6));
+		hang(json, task.machine.watchdog);
+		return json.append('}').toString();
+	}
+	
+	/**
+	 * @return The start of a result line, up to and including the output
+	 */
+	private static StringBuilder state(Job job, Machine machine, byte[][] output) {
+		return state(new StringBuilder(head(job)), machine, output);
+	}
+	
+	/**
+	 * Adds a machine's final state, and what it wrote to each port, to a line
+	 * of JSON.
+	 * @return {@code json}
+	 */
+	@Package static StringBuilder state(StringBuilder json, Machine machine, byte[][] output) {
+		json.append(",\"halt\":").append(string(Machine.HALT_REASONS[machine.halt]));
+		json.append(",\"instructions\":").append(machine.retired);
+		json.append(",\"pc\":").append(machine.pc);
+		json.append(",\"page\":").append(machine.page);
+		json.append(",\"registers\":[");
+		for(int r = 0; r < 8; r++) json.append(r > 0 ? "," : "").append(machine.regfile.read(r));
+		json.append("],\"C\":").append(machine.C);
+		json.append(",\"Z\":").append(machine.Z);
+		json.append(",\"output\":[");
+		for(int port = 0; port < 8; port++) {
+			if(port > 0) json.append(',');
+			json.append('[');
+			byte[] bytes = output[port];
+			for(int i = 0; i < bytes.length; i++) {
+				if(i > 0) json.append(',');
+				json.append(bytes[i]&0xFF);
+			}
+			json.append(']');
+		}
+		return json.append(']');
+	}
+	
+	/**
+	 * Adds where a run hung to its result line, if it did.
+	 * @param watchdog The run's watchdog, or {@code null} if it had none
+	 */
+	private static void hang(StringBuilder json, Watchdog watchdog) {
+		if(watchdog == null || watchdog.since < 0) return;
+		
+		json.append(",\"hang\":{\"since\":").append(watchdog.since);
+		json.append(",\"period\":").append(watchdog.period);
+		json.append(",\"from\":").append(watchdog.low < 0 ? "null" : watchdog.low<<1);
+		json.append(",\"to\":").append(watchdog.high < 0 ? "null" : watchdog.high<<1).append('}');
+	}
+	
+	private static String error(Job job, String message) {
+		return head(job)+",\"error\":"+string(message)+"}";
+	}
+	
+	private static String head(Job job) {
+		return "{\"job\":"+job.index
+			+",\"binary\":"+string(job.binary)
+			+",\"input\":"+(job.input == null ? "null" : string(job.input));
+	}
+	
+	/**
+	 * @return {@code text} as a JSON string literal
+	 */
+	@Package static String string(String text) {
+		StringBuilder json = new StringBuilder("\"");
+		for(char c : text.toCharArray()) {
+			if(c == '"' || c == '\\') json.append('\\').append(c);
+			else if(c < 0x20) json.append(String.format("\\u%04x", (int)c));
+			else json.append(c);
+		}
+		return json.append('"').toString();
+	}
+}
@@ -0,0 +1,322 @@
+package net.toydotgame.TRC3emu.workload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import net.toydotgame.TRC3emu.emulator.Gpio;
+import net.toydotgame.TRC3emu.emulator.Machine;
+import net.toydotgame.TRC3emu.emulator.Snapshot;
+import net.toydotgame.utils.Log;
+
+/**
+ * Explores every way an interactive program can go, up to {@link #depth}
+ * inputs deep, and writes one line of JSON per way it can end.<br>
+ * <br>
+ * The program runs until its first {@code GPI}. There the machine's state is
+ * {@linkplain Machine#snapshot() taken}, and forked once for each of the
+ * {@link #inputs}, each fork running on with that byte until its next {@code
+ * GPI}, and so on. Forks run in parallel on a fork-join pool of {@link
+ * #threads} threads. Taking a state copies only the pages of memory written
+ * since the state it was forked from, sharing the rest.<br>
+ * <br>
+ * States are kept by what decides what the machine does next (see {@link
+ * Snapshot}), so a {@code GPI} reached again in a state already explored,
+ * from the same depth or shallower, isn't explored again. Where many inputs
+ * lead to the same state, only the first is followed: the shortest, then the
+ * smallest, sequence of inputs.<br>
+ * <br>
+ * A way ends when the machine halts, runs off the end of memory, runs {@link
+ * #budget} instructions between inputs, throws, or reaches a {@code GPI}
+ * after {@link #depth} inputs. Each distinct end state gets one line: the
+ * inputs that first reach it, its final registers, flags, page, and program
+ * counter, the bytes written to each port along the way, instructions run,
+ * and why it stopped. Lines are sorted by their inputs.
+ */
+public class Explorer {
+	public static final int DEFAULT_DEPTH = 2;
+	/**
+	 * Inputs explored along each way, at most. Two by default.
+	 */
+	public static int depth = DEFAULT_DEPTH;
+	/**
+	 * Bytes given to each {@code GPI}. Every byte by default.
+	 */
+	public static int[] inputs = parseInputs("0-255");
+	/**
+	 * Instructions the machine may run between inputs. Ten million by default.
+	 */
+	public static long budget = Batch.DEFAULT_BUDGET;
+	/**
+	 * Threads to explore on. One per core by default.
+	 */
+	public static int threads = Batch.DEFAULT_THREADS;
+	
+	/**
+	 * Every {@code GPI} state reached, by the shortest then smallest inputs
+	 * that reach it.
+	 */
+	private static ConcurrentHashMap<Snapshot, int[]> waiting;
+	/**
+	 * Every end state reached, likewise.
+	 */
+	private static ConcurrentHashMap<Snapshot, End> ends;
+	private static final AtomicLong runs = new AtomicLong(), pruned = new AtomicLong();
+	/**
+	 * Each explorer thread's machine, reused for every fork it runs.
+	 */
+	private static final ThreadLocal<Machine> machines = ThreadLocal.withInitial(() -> {
+		Machine machine = new Machine(new int[2048]);
+		machine.gpio = new Feed();
+		return machine;
+	});
+	
+	/**
+	 * Gives the next {@code GPI} one byte, and the one after it {@link
+	 * Gpio#BLOCKED}, and keeps what {@code GPO}s write.
+	 */
+	private static class Feed implements Gpio {
+		private int next = BLOCKED;
+		private final ByteArrayOutputStream[] output = new ByteArrayOutputStream[8];
+		
+		Feed() {
+			for(int i = 0; i < output.length; i++) output[i] = new ByteArrayOutputStream();
+		}
+		
+		/**
+		 * Readies for a fork: {@code input} next, and no output yet.
+		 */
+		void reset(int input) {
+			next = input;
+			for(ByteArrayOutputStream port : output) port.reset();
+		}
+		
+		@Override public int read(int port) {
+			int value = next;
+			next = BLOCKED;
+			return value;
+		}
+		
+		@Override public void write(int port, int value) {
+			output[port].write(value);
+		}
+	}
+	
+	/**
+	 * One way the program can end, and its result line.
+	 */
+	private static class End {
+		int[] path;
+		int halt;
+		String line;
+	}
+	
+	/**
+	 * Explores a state at a {@code GPI}, with every input.
+	 */
+	@SuppressWarnings("serial") // This class is not serialised in this project
+	private static class Fork extends RecursiveAction {
+		private final Snapshot state;
+		private final int[] path;
+		private final byte[][] output;
+		
+		/**
+		 * @param state State waiting on a {@code GPI}
+		 * @param path Inputs that reached it
+		 * @param output Bytes written to each port on the way
+		 */
+		Fork(Snapshot state, int[] path, byte[][] output) {
+			this.state = state;
+			this.path = path;
+			this.output = output;
+		}
+		
+		@Override protected void compute() {
+			if(waiting.get(state) != path) { // Since reached by better inputs, which explore it instead
+				pruned.incrementAndGet();
+				return;
+			}
+			
+			List<Fork> forks = new ArrayList<Fork>();
+			for(int input : inputs) {
+				Machine machine = machines.get();
+				Feed feed = (Feed)machine.gpio;
+				machine.restore(state);
+				feed.reset(input);
+				
+				int[] next = Arrays.copyOf(path, path.length+1);
+				next[path.length] = input;
+				Fork fork = run(machine, next, output);
+				if(fork != null) forks.add(fork);
+			}
+			invokeAll(forks);
+		}
+	}
+	
+	/**
+	 * Explores a program.
+	 * @param binaryPath Text binary, or source ending in {@code .s}
+	 * @param out Where to write result lines
+	 */
+	public static void main(String binaryPath, PrintStream out) {
+		List<Integer> memory;
+		try {
+			memory = Batch.loadBinary(new File(binaryPath));
+		} catch(IllegalArgumentException e) {
+			Log.exit("Couldn't load \""+binaryPath+"\": "+e.getMessage(), 1);
+			return;
+		}
+		boolean quiet = out == System.out; // Keep stdout to result lines only
+		if(!quiet) Log.log("Exploring "+inputs.length+" inputs, "+depth+" deep, on "+threads+" threads...");
+		
+		// The emulator's logging isn't per machine, so keep it out of the results:
+		int level = Log.logLevel;
+		Log.setLogLevel(Log.NOTHING);
+		waiting = new ConcurrentHashMap<Snapshot, int[]>();
+		ends = new ConcurrentHashMap<Snapshot, End>();
+		runs.set(0);
+		pruned.set(0);
+		
+		Machine machine = new Machine(memory);
+		Feed feed = new Feed();
+		machine.gpio = feed;
+		Fork root = run(machine, new int[0], new byte[8][0]);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		if(root != null) pool.invoke(root);
+		pool.shutdown();
+		
+		List<End> sorted = new ArrayList<End>(ends.values());
+		sorted.sort((a, b) -> compare(a.path, b.path));
+		int[] halts = new int[Machine.HALT_REASONS.length];
+		int failed = 0;
+		for(End end : sorted) {
+			if(end.halt < 0) failed++;
+			else halts[end.halt]++;
+			out.println(end.line);
+		}
+		out.flush();
+		
+		Log.setLogLevel(level);
+		if(quiet) return;
+		StringBuilder summary = new StringBuilder();
+		for(int halt = 0; halt < halts.length; halt++)
+			if(halts[halt] > 0) summary.append(", ").append(halts[halt]).append(' ').append(Machine.HALT_REASONS[halt]);
+		if(failed > 0) summary.append(", ").append(failed).append(" failed");
+		Log.log(String.format("Done! %,d runs, %,d states at a GPI, %,d pruned, %,d ends%s",
+			runs.get(), waiting.size(), pruned.get(), sorted.size(), summary
+		));
+	}
+	
+	/**
+	 * Parses a set of input bytes of the form {@code 48-57,43}: bytes and
+	 * ranges of bytes.
+	 * @param inputs Set to parse
+	 * @return Each byte in the set, once, in order
+	 * @throws IllegalArgumentException If a byte or range is invalid
+	 */
+	public static int[] parseInputs(String inputs) {
+		boolean[] set = new boolean[256];
+		for(String part : inputs.split(",")) {
+			String[] range = part.trim().split("-", 2);
+			try {
+				int from = Integer.parseInt(range[0].trim());
+				int to = range.length == 2 ? Integer.parseInt(range[1].trim()) : from;
+				if(from < 0 || to > 255 || from > to) throw new NumberFormatException();
+				for(int i = from; i <= to; i++) set[i] = true;
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid input byte or range \""+part.trim()+"\"");
+			}
+		}
+		
+		int[] bytes = new int[256];
+		int count = 0;
+		for(int i = 0; i < 256; i++) if(set[i]) bytes[count++] = i;
+		return Arrays.copyOf(bytes, count);
+	}
+	
+	/**
+	 * Runs a machine until its next {@code GPI}, or it ends.
+	 * @param path Inputs given so far
+	 * @param output Bytes written to each port before this run
+	 * @return A fork to explore the {@code GPI} with, if it's new and there
+	 * are inputs left to give, else {@code null}
+	 */
+	private static Fork run(Machine machine, int[] path, byte[][] output) {
+		runs.incrementAndGet();
+		machine.halt = Machine.RUNNING;
+		machine.instructionLimit = machine.retired+budget;
+		RuntimeException error = null;
+		try {
+			machine.run();
+		} catch(RuntimeException e) { // e.g. an address past the end of memory
+			error = e;
+		}
+		output = append(output, ((Feed)machine.gpio).output);
+		
+		Snapshot state = machine.snapshot();
+		if(error == null && machine.halt == Machine.WAITING && path.length < depth) {
+			if(!claim(state, path)) {
+				pruned.incrementAndGet();
+				return null;
+			}
+			return new Fork(state, path, output);
+		}
+		
+		End end = new End();
+		end.path = path;
+		end.halt = error == null ? machine.halt : -1;
+		StringBuilder json = new StringBuilder("{\"inputs\":").append(Arrays.toString(path).replace(" ", ""));
+		if(error == null) end.line = Batch.state(json, machine, output).append('}').toString();
+		else end.line = json.append(",\"error\":").append(Batch.string(error.toString())).append('}').toString();
+		ends.merge(state, end, (a, b) -> compare(a.path, b.path) <= 0 ? a : b);
+		return null;
+	}
+	
+	/**
+	 * Records the inputs reaching a {@code GPI} state, if they're the first
+	 * to, or better than the last.
+	 * @return Whether they were, so should explore it
+	 */
+	private static boolean claim(Snapshot state, int[] path) {
+		int[] best = waiting.putIfAbsent(state, path);
+		while(best != null) {
+			if(compare(best, path) <= 0) return false;
+			if(waiting.replace(state, best, path)) return true;
+			best = waiting.get(state);
+		}
+		return true;
+	}
+	
+	/**
+	 * Orders sequences of inputs shortest first, then smallest.
+	 */
+	private static int compare(int[] a, int[] b) {
+		if(a.length != b.length) return Integer.compare(a.length, b.length);
+		return Arrays.compare(a, b);
+	}
+	
+	/**
+	 * @return Each port's output so far, followed by what's been written to it
+	 * since
+	 */
+	private static byte[][] append(byte[][] output, ByteArrayOutputStream[] more) {
+		byte[][] joined = new byte[8][];
+		for(int port = 0; port < 8; port++) {
+			if(more[port].size() == 0) {
+				joined[port] = output[port]; // Never changed, so can be shared
+				continue;
+			}
+			
+			byte[] written = more[port].toByteArray();
+			joined[port] = Arrays.copyOf(output[port], output[port].length+written.length);
+			System.arraycopy(written, 0, joined[port], output[port].length, written.length);
+		}
+		return joined;
+	}
+}
@@ -0,0 +1,248 @@
+package net.toydotgame.TRC3emu.workload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import net.toydotgame.utils.Log;
+
+/**
+ * Generates TRC3 assembly workloads for benchmarking. A workload is made of
+ * sections, each a loop running a few hundred to a few thousand instructions,
+ * of the following kinds:
+ * <ul>
+ * 	<li><b>{@code alu}:</b> Random ALU instructions over {@code r1}–{@code r5}</li>
+ * 	<li><b>{@code memory}:</b> {@code REA}/{@code STO} sweeps over every
+ * address of every page, switching with {@code PAS}. Only pages 4–7 are
+ * written to, so the program (which must fit in pages 0–3) is left alone,
+ * and only their bytes are summed into {@code r3}, so results don't depend
+ * on how the program's encoded (e.g. with {@code -O} or without)</li>
+ * 	<li><b>{@code calls}:</b> A chain of nested {@code JSR}s up to 16 deep, the
+ * size of the stack</li>
+ * 	<li><b>{@code branches}:</b> Compares of a changing value against random
+ * thresholds, each followed by a random conditional branch</li>
+ * 	<li><b>{@code gpio}:</b> {@code GPO}/{@code GPI} round trips, meant for
+ * the emulator's null device (see {@link
+ * net.toydotgame.TRC3emu.emulator.Emulator#nullDevice Emulator.nullDevice})</li>
+ * </ul>
+ * The mix says how many sections of each kind to make. Sections are shuffled,
+ * and their sizes and contents picked, from the seed, so the same mix and seed
+ * always give the same source. Every workload halts, and doesn't need input.
+ */
+public class Generator {
+	/**
+	 * Section kinds, in the order of the mix array.
+	 */
+	public static final String[] KINDS = {"alu", "memory", "calls", "branches", "gpio"};
+	public static final int ALU = 0;
+	public static final int MEMORY = 1;
+	public static final int CALLS = 2;
+	public static final int BRANCHES = 3;
+	public static final int GPIO = 4;
+	/**
+	 * Most instructions to generate, so the program stays within pages 0–3
+	 * while memory sections write to pages 4–7.
+	 */
+	public static final int MAX_INSTRUCTIONS = 512;
+	
+	private static final String[] ALU_OPS = {"add", "sub", "xor", "xno", "ior", "nor", "and", "nan", "rsh"};
+	private static final String[] BRANCH_OPS = {"beq", "bne", "bgt", "blt"};
+	
+	private static Random random;
+	private static List<String> source;
+	private static int instructions;
+	
+	/**
+	 * Parses a mix of the form {@code kind=count,kind=count}, e.g. {@code
+	 * alu=2,calls=1}. Kinds not given get no sections.
+	 * @param mix Mix to parse
+	 * @return Sections of each kind, in the order of {@link #KINDS}
+	 * @throws IllegalArgumentException If a kind or count is invalid
+	 */
+	public static int[] parseMix(String mix) {
+		int[] counts = new int[KINDS.length];
+		for(String part : mix.split(",")) {
+			String[] pair = part.trim().split("=", 2);
+			int kind = -1;
+			for(int i = 0; i < KINDS.length; i++) if(KINDS[i].equalsIgnoreCase(pair[0])) kind = i;
+			if(kind < 0) throw new IllegalArgumentException("Unknown workload kind \""+pair[0]+"\"");
+			
+			try {
+				counts[kind] = pair.length == 2 ? Integer.parseInt(pair[1]) : 1;
+				if(counts[kind] < 0) throw new NumberFormatException();
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid count for \""+pair[0]+"\"");
+			}
+		}
+		return counts;
+	}
+	
+	/**
+	 * Generates a workload.
+	 * @param mix Sections of each kind, in the order of {@link #KINDS}
+	 * @param seed Random seed
+	 * @return Source lines
+	 */
+	public static List<String> generate(int[] mix, long seed) {
+		random = new Random(seed);
+		source = new ArrayList<String>();
+		instructions = 0;
+		
+		StringBuilder description = new StringBuilder();
+		List<Integer> sections = new ArrayList<Integer>();
+		for(int kind = 0; kind < mix.length; kind++) {
+			for(int i = 0; i < mix[kind]; i++) sections.add(kind);
+			if(mix[kind] > 0) description.append(description.length() > 0 ? "," : "").append(KINDS[kind]+"="+mix[kind]);
+		}
+		Collections.shuffle(sections, random);
+		
+		source.add("; Generated workload: "+description+", seed "+seed);
+		instruction("ldi 1 r6", "Loop counters count down by r6");
+		for(int register = 1; register <= 5; register++)
+			instruction("ldi "+random.nextInt(256)+" r"+register, null);
+		
+		for(int i = 0; i < sections.size(); i++) {
+			int sizeBefore = source.size(), instructionsBefore = instructions;
+			source.add("");
+			source.add("; Section "+i+": "+KINDS[sections.get(i)]);
+			switch(sections.get(i)) {
+				case ALU:
+					alu("s"+i);
+					break;
+				case MEMORY:
+					memory("s"+i);
+					break;
+				case CALLS:
+					calls("s"+i);
+					break;
+				case BRANCHES:
+					branches("s"+i);
+					break;
+				case GPIO:
+					gpio("s"+i);
+			}
+			
+			if(instructions >= MAX_INSTRUCTIONS) { // Drop the section and stop
+				source.subList(sizeBefore, source.size()).clear();
+				instructions = instructionsBefore;
+				Log.error("Workload is too big! Only the first "+i+" of "+sections.size()+" sections were generated");
+				break;
+			}
+		}
+		
+		source.add("");
+		instruction("hlt", null);
+		return source;
+	}
+	
+	private static void alu(String label) {
+		instruction("ldi "+iterations()+" r7", null);
+		label(label+"_loop");
+		for(int i = 4+random.nextInt(12); i > 0; i--) {
+			String op = ALU_OPS[random.nextInt(ALU_OPS.length)];
+			if(op.equals("rsh")) instruction("rsh "+register()+" "+register(), null);
+			else instruction(op+" "+register()+" "+register()+" "+register(), null);
+		}
+		loop(label+"_loop");
+	}
+	
+	private static void memory(String label) {
+		List<Integer> pages = new ArrayList<Integer>();
+		for(int page = 0; page < 8; page++) pages.add(page);
+		Collections.shuffle(pages, random);
+		
+		instruction("ldi "+(1+random.nextInt(8))+" r7", "Sweeps");
+		label(label+"_sweep");
+		for(int page : pages) {
+			instruction("pas "+page+" r0", null);
+			instruction("ldi 0 r1", "Address");
+			label(label+"_page"+page);
+			instruction("rea r1 "+random.nextInt(8)+" r2", null);
+			if(page >= 4) {
+				instruction("add r2 r3 r3", null);
+				instruction("sto r1 "+random.nextInt(8)+" r3", null);
+			}
+			instruction("adi 8 r1", null);
+			instruction("ior r1 r0 r0", "Until r1 wraps around to 0");
+			instruction("bne "+label+"_page"+page, null);
+			if(page < 4) instruction("ldi 0 r2", "Forget the code read, which depends on how it's encoded");
+		}
+		loop(label+"_sweep");
+		instruction("pas 0 r0", null);
+	}
+	
+	private static void calls(String label) {
+		int depth = 4+random.nextInt(13); // 4–16
+		instruction("ldi "+iterations()+" r7", null);
+		label(label+"_loop");
+		instruction("jsr "+label+"_f0", null);
+		loop(label+"_loop");
+		instruction("jmp "+label+"_end", null);
+		
+		for(int i = 0; i < depth; i++) {
+			label(label+"_f"+i);
+			instruction("adi "+random.nextInt(256)+" r"+(1+random.nextInt(5)), null);
+			if(i < depth-1) instruction("jsr "+label+"_f"+(i+1), null);
+			instruction("rts", null);
+		}
+		label(label+"_end");
+	}
+	
+	private static void branches(String label) {
+		instruction("ldi "+iterations()+" r7", null);
+		instruction("ldi "+random.nextInt(256)+" r1", null);
+		label(label+"_loop");
+		instruction("adi "+(1|random.nextInt(256))+" r1", null);
+		instruction("xor r1 r2 r2", "Value to compare");
+		
+		int branches = 2+random.nextInt(6);
+		for(int i = 0; i < branches; i++) {
+			instruction("ldi "+random.nextInt(256)+" r3", null);
+			instruction("sub r2 r3 r0", null);
+			instruction(BRANCH_OPS[random.nextInt(BRANCH_OPS.length)]+" "+label+"_b"+i, null);
+			instruction("adi 1 r4", null);
+			label(label+"_b"+i);
+		}
+		loop(label+"_loop");
+	}
+	
+	private static void gpio(String label) {
+		int port = random.nextInt(8);
+		instruction("ldi "+iterations()+" r7", null);
+		label(label+"_loop");
+		instruction("gpo r1 p"+port, null);
+		instruction("gpi p"+port+" r2", null);
+		instruction("add r1 r2 r1", null);
+		loop(label+"_loop");
+	}
+	
+	/**
+	 * Closes a loop counted down in {@code r7}.
+	 * @param label Label at the top of the loop
+	 */
+	private static void loop(String label) {
+		instruction("sub r7 r6 r7", null);
+		instruction("bne "+label, null);
+	}
+	
+	private static int iterations() {
+		return 16+random.nextInt(240);
+	}
+	
+	/**
+	 * @return Random register from {@code r1}–{@code r5}. {@code r6} and
+	 * {@code r7} are kept for loop counters
+	 */
+	private static String register() {
+		return "r"+(1+random.nextInt(5));
+	}
+	
+	private static void label(String label) {
+		source.add(label+":");
+	}
+	
+	private static void instruction(String instruction, String comment) {
+		source.add("\t"+instruction+(comment == null ? "" : " ; "+comment));
+		instructions++;
+	}
+}
@@ -0,0 +1,113 @@
+package net.toydotgame.TRC3emu.workload;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import net.toydotgame.utils.Package;
+
+/**
+ * A cable from one machine's GPIO port to another's, in a {@link Network}:
+ * bytes written by {@code GPO} on one end are read by {@code GPI} on the
+ * other, in order.<br>
+ * <br>
+ * The cable is a ring of {@link #CAPACITY} bytes with one writer and one
+ * reader, so needs no locks: the writer only moves the tail, and the reader
+ * only the head. An end that finds it empty (or full) parks until the other
+ * end unparks it, if it said it was {@linkplain #readerParked parking}.
+ */
+@Package class Link {
+	/**
+	 * Bytes a cable holds before {@code GPO} blocks. A power of two.
+	 */
+	@Package static final int CAPACITY = 256;
+	
+	@Package final String from, to;
+	@Package final int fromPort, toPort;
+	private final byte[] ring = new byte[CAPACITY];
+	/**
+	 * Bytes read and written so far. The ring holds the bytes between them.
+	 */
+	private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+	/**
+	 * Each end's thread, to unpark, and whether it's parked (or about to).
+	 */
+	@Package Thread reader, writer;
+	@Package volatile boolean readerParked, writerParked;
+	/**
+	 * Set once an end's machine has stopped: no more bytes will be written,
+	 * or read.
+	 */
+	@Package volatile boolean writerDone, readerDone;
+	/**
+	 * Time each end spent blocked: nanoseconds, or steps in deterministic
+	 * mode. Each is only touched by its end.
+	 */
+	@Package long readBlocked, writeBlocked;
+	
+	/**
+	 * @param from Name of the machine writing
+	 * @param fromPort Port it writes with {@code GPO}
+	 * @param to Name of the machine reading
+	 * @param toPort Port it reads with {@code GPI}
+	 */
+	@Package Link(String from, int fromPort, String to, int toPort) {
+		this.from = from;
+		this.fromPort = fromPort;
+		this.to = to;
+		this.toPort = toPort;
+	}
+	
+	/**
+	 * Writes a byte, if there's room, and wakes the reader.
+	 * @return Whether there was room
+	 */
+	@Package boolean offer(int value) {
+		long t = tail.get();
+		if(t-head.get() == CAPACITY) return false;
+		
+		ring[(int)t&CAPACITY-1] = (byte)value;
+		tail.set(t+1); // Not lazySet(), so a reader parking sees it, or we see it parking
+		if(readerParked) LockSupport.unpark(reader);
+		return true;
+	}
+	
+	/**
+	 * Reads a byte, if there is one, and wakes the writer.
+	 * @return The byte, or {@code -1} if there's none
+	 */
+	@Package int poll() {
+		long h = head.get();
+		if(h == tail.get()) return -1;
+		
+		int value = ring[(int)h&CAPACITY-1]&0xFF;
+		head.set(h+1);
+		if(writerParked) LockSupport.unpark(writer);
+		return value;
+	}
+	
+	@Package boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+	
+	@Package boolean isFull() {
+		return tail.get()-head.get() == CAPACITY;
+	}
+	
+	/**
+	 * @return Bytes read from the cable so far
+	 */
+	@Package long bytes() {
+		return head.get();
+	}
+	
+	/**
+	 * @return Bytes read and written so far, which changes whenever either
+	 * end gets anywhere
+	 */
+	@Package long progress() {
+		return head.get()+tail.get();
+	}
+	
+	@Override public String toString() {
+		return from+":"+fromPort+" -> "+to+":"+toPort;
+	}
+}
@@ -0,0 +1,180 @@
+package net.toydotgame.TRC3emu.workload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.toydotgame.TRC3emu.emulator.Gpio;
+import net.toydotgame.TRC3emu.emulator.Machine;
+import net.toydotgame.TRC3emu.emulator.Metrics;
+import net.toydotgame.utils.Log;
+
+/**
+ * Runs one program on many cores sharing one memory, each core on its own
+ * thread, and writes one line of JSON per core. An experiment, for trying out
+ * parallel programs before there's a second CPU to run them on.<br>
+ * <br>
+ * Each core is a {@link Machine} with its own program counter, registers,
+ * stack, flags, and page, all starting from the program's first instruction.
+ * Two GPIO ports are reserved:<br>
+ * {@link #CORE_PORT}: {@code GPI} reads the core's number, from 0<br>
+ * {@link #LOCK_PORT}: {@code GPI} tests and sets the lock, atomically, reading
+ * {@code 0} if it was free (and is now held) or {@code 1} if it was already
+ * held. {@code GPO} frees it.<br>
+ * The other ports are null devices, whose output is kept for the results.<br>
+ * <br>
+ * Memory ordering is release/acquire at the lock: everything a core wrote to
+ * memory before freeing the lock is seen by the next core to take it. Other
+ * accesses are unordered, so a core reading memory another is writing,
+ * without holding the lock, may see its writes late, or in a different order.
+ * <br>
+ * <br>
+ * Each core stops when it halts, after {@link #budget} instructions, or after
+ * {@link #timeout} milliseconds. Its line has its final registers, flags,
+ * page, and program counter, the bytes written to each port, instructions
+ * run, and why it stopped, as {@link Batch}'s do, then how many times it
+ * took the lock and how many times it found it held (contention).
+ */
+public class Multicore {
+	public static final int DEFAULT_CORES = 2;
+	/**
+	 * Port {@code GPI} reads the core's number from.
+	 */
+	public static final int CORE_PORT = 6;
+	/**
+	 * Port of the lock.
+	 */
+	public static final int LOCK_PORT = 7;
+	/**
+	 * Cores to run. Two by default.
+	 */
+	public static int cores = DEFAULT_CORES;
+	/**
+	 * Instructions each core may run. Ten million by default.
+	 */
+	public static long budget = Batch.DEFAULT_BUDGET;
+	/**
+	 * Milliseconds the cores may run for, or {@code 0} for no limit. Ten
+	 * seconds by default.
+	 */
+	public static long timeout = Batch.DEFAULT_TIMEOUT;
+	
+	/**
+	 * One core's GPIO, and what it's done with the lock.
+	 */
+	private static class Core implements Gpio {
+		final int number;
+		final Machine machine;
+		final AtomicInteger lock;
+		final ByteArrayOutputStream[] output = new ByteArrayOutputStream[8];
+		long acquired = 0, contended = 0;
+		RuntimeException error;
+		
+		Core(int number, int[] memory, AtomicInteger lock) {
+			this.number = number;
+			this.lock = lock;
+			machine = new Machine(memory);
+			machine.gpio = this;
+			machine.instructionLimit = budget;
+			machine.idioms = false; // Wouldn't see another core write over a loop
+			if(Metrics.enabled) Metrics.register(machine, "core"+number);
+			for(int i = 0; i < output.length; i++) output[i] = new ByteArrayOutputStream();
+		}
+		
+		@Override public int read(int port) {
+			if(port == CORE_PORT) return number&0xFF;
+			if(port != LOCK_PORT) return 0;
+			
+			if(lock.compareAndSet(0, 1)) { // Acquires what the last holder wrote before freeing it
+				acquired++;
+				return 0;
+			}
+			contended++;
+			return 1;
+		}
+		
+		@Override public void write(int port, int value) {
+			if(port == LOCK_PORT) lock.set(0); // Releases what we've written to the next holder
+			else output[port].write(value);
+		}
+		
+		@Override public boolean idle(int port) {
+			return port != LOCK_PORT; // Another core can free the lock
+		}
+	}
+	
+	/**
+	 * Runs a program on {@link #cores} cores.
+	 * @param binaryPath Text binary, or source ending in {@code .s}
+	 * @param out Where to write result lines
+	 */
+	public static void main(String binaryPath, PrintStream out) {
+		List<Integer> program;
+		try {
+			program = Batch.loadBinary(new File(binaryPath));
+		} catch(IllegalArgumentException e) {
+			Log.exit("Couldn't load \""+binaryPath+"\": "+e.getMessage(), 1);
+			return;
+		}
+		boolean quiet = out == System.out; // Keep stdout to result lines only
+		if(!quiet) Log.log("Running on "+cores+" cores...");
+		
+		int[] memory = new int[2048]; // Shared by every core
+		for(int i = 0; i < memory.length; i++) memory[i] = program.get(i)&0xFF;
+		AtomicInteger lock = new AtomicInteger();
+		Core[] machines = new Core[cores];
+		Thread[] threads = new Thread[cores];
+		
+		// The emulator's logging isn't per machine, so keep it out of the results:
+		int level = Log.logLevel;
+		Log.setLogLevel(Log.NOTHING);
+		long start = System.nanoTime();
+		for(int i = 0; i < cores; i++) {
+			Core core = machines[i] = new Core(i, memory, lock);
+			if(timeout > 0) core.machine.deadline = start+TimeUnit.MILLISECONDS.toNanos(timeout);
+			threads[i] = new Thread(() -> {
+				try {
+					core.machine.run();
+				} catch(RuntimeException e) { // e.g. an address past the end of memory
+					core.error = e;
+				}
+			}, "TRC3emu core "+i);
+			threads[i].setDaemon(true); // Runaway cores can't keep the JVM alive
+		}
+		for(Thread thread : threads) thread.start();
+		for(Thread thread : threads) {
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				break;
+			}
+		}
+		double seconds = (System.nanoTime()-start)/1e9;
+		for(Core core : machines) if(core.machine.metrics != null) core.machine.metrics.unregister();
+		
+		long instructions = 0, contended = 0;
+		for(Core core : machines) {
+			instructions += core.machine.retired;
+			contended += core.contended;
+			StringBuilder json = new StringBuilder("{\"core\":").append(core.number);
+			if(core.error != null) json.append(",\"error\":").append(Batch.string(core.error.toString()));
+			else {
+				byte[][] output = new byte[8][];
+				for(int port = 0; port < 8; port++) output[port] = core.output[port].toByteArray();
+				Batch.state(json, core.machine, output);
+			}
+			json.append(",\"locksTaken\":").append(core.acquired);
+			json.append(",\"lockContended\":").append(core.contended);
+			out.println(json.append('}'));
+		}
+		out.flush();
+		
+		Log.setLogLevel(level);
+		if(!quiet) Log.log(String.format(Locale.ROOT, "Done! %,d instructions in %.3fs, %,d times the lock was held",
+			instructions, seconds, contended
+		));
+	}
+}
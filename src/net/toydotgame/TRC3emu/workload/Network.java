@@ -0,0 +1,415 @@
+package net.toydotgame.TRC3emu.workload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import net.toydotgame.TRC3emu.emulator.Gpio;
+import net.toydotgame.TRC3emu.emulator.Machine;
+import net.toydotgame.TRC3emu.emulator.Metrics;
+import net.toydotgame.utils.FileHandler;
+import net.toydotgame.utils.Log;
+
+/**
+ * Runs a network of machines, with GPIO ports connected by {@link Link}s,
+ * and writes one line of JSON per machine and per link.<br>
+ * <br>
+ * The network is given by a config file, one line each:<br>
+ * {@code machine name binary}: a machine running a binary or source (ending
+ * in {@code .s}), with its path relative to the config file unless it's
+ * absolute<br>
+ * {@code link from:port to:port}: a cable from one machine's {@code GPO}
+ * port to another's {@code GPI} port<br>
+ * Blank lines and lines starting with {@code #} are skipped. Each port has at
+ * most one cable in, and one out. Ports without a cable in read {@code 0},
+ * and bytes written to ports without one out are kept for the results.<br>
+ * <br>
+ * Each machine runs on its own thread. {@code GPI} on an empty cable, or
+ * {@code GPO} on a full one, blocks until the other end reads or writes.
+ * Once a machine stops, reads from its empty cables find their input used
+ * up, and writes to its cables are dropped. With {@link #deterministic} set,
+ * the machines instead run on one thread, taking turns one instruction at a
+ * time, so every run goes the same way.<br>
+ * <br>
+ * Each machine stops when it halts, after {@link #budget} instructions, or
+ * when the network has run for {@link #timeout} milliseconds. If every
+ * machine still running is blocked on a cable, they're deadlocked, and stop
+ * {@link Machine#WAITING}. Machine lines are as {@link Batch}'s; link lines
+ * have the bytes sent, bytes per second, and how long each end was blocked:
+ * in milliseconds, or steps in deterministic mode.
+ */
+public class Network {
+	/**
+	 * Instructions each machine may run. Ten million by default.
+	 */
+	public static long budget = Batch.DEFAULT_BUDGET;
+	/**
+	 * Milliseconds the network may run for, or {@code 0} for no limit. Ten
+	 * seconds by default.
+	 */
+	public static long timeout = Batch.DEFAULT_TIMEOUT;
+	/**
+	 * Run the machines in turn on one thread, rather than each on its own.
+	 * Off by default.
+	 */
+	public static boolean deterministic = false;
+	/**
+	 * Longest a blocked machine parks before checking whether the network's
+	 * stopping, and how often the main thread checks for deadlock.
+	 */
+	private static final long CHECK = TimeUnit.MILLISECONDS.toNanos(10);
+	/**
+	 * Steps between checks of the deadline in deterministic mode.
+	 */
+	private static final int DEADLINE_CHECK = 4096;
+	/**
+	 * Why blocked machines should give up, or {@link Machine#RUNNING}.
+	 */
+	private static volatile int stopping;
+	
+	/**
+	 * One machine, and its ends of each cable.
+	 */
+	private static class Node implements Gpio {
+		final String name, binary;
+		final Machine machine;
+		final Link[] in = new Link[8], out = new Link[8];
+		final ByteArrayOutputStream[] output = new ByteArrayOutputStream[8];
+		RuntimeException error;
+		Thread thread;
+		volatile boolean blocked = false;
+		
+		Node(String name, String binary, List<Integer> memory) {
+			this.name = name;
+			this.binary = binary;
+			machine = new Machine(memory);
+			machine.gpio = this;
+			machine.instructionLimit = budget;
+			for(int i = 0; i < output.length; i++) output[i] = new ByteArrayOutputStream();
+		}
+		
+		@Override public int read(int port) {
+			Link link = in[port];
+			if(link == null) return 0;
+			
+			int value = link.poll();
+			if(value >= 0) return value;
+			if(deterministic) { // Only run now if the writer's done
+				machine.halt = Machine.INPUT;
+				return 0;
+			}
+			
+			long start = System.nanoTime();
+			blocked = true;
+			try {
+				while(true) {
+					link.readerParked = true;
+					value = link.poll();
+					if(value >= 0) return value;
+					boolean writerDone = link.writerDone;
+					// Before the writer being done, which it may be because the network's stopping:
+					if(stopping != Machine.RUNNING) return BLOCKED; // Leave the PC on the GPI
+					if(writerDone) {
+						value = link.poll(); // Written just before it stopped
+						if(value >= 0) return value;
+						
+						machine.halt = Machine.INPUT;
+						return 0;
+					}
+					
+					LockSupport.parkNanos(CHECK);
+				}
+			} finally {
+				link.readerParked = false;
+				blocked = false;
+				link.readBlocked += System.nanoTime()-start;
+			}
+		}
+		
+		@Override public void write(int port, int value) {
+			Link link = out[port];
+			if(link == null) {
+				output[port].write(value);
+				return;
+			}
+			if(link.offer(value) || link.readerDone || deterministic) return;
+			
+			long start = System.nanoTime();
+			blocked = true;
+			try {
+				while(true) {
+					link.writerParked = true;
+					if(link.offer(value) || link.readerDone) return;
+					if(stopping != Machine.RUNNING) { // The byte's lost
+						machine.halt = stopping;
+						return;
+					}
+					
+					LockSupport.parkNanos(CHECK);
+				}
+			} finally {
+				link.writerParked = false;
+				blocked = false;
+				link.writeBlocked += System.nanoTime()-start;
+			}
+		}
+		
+		@Override public boolean idle(int port) {
+			return in[port] == null;
+		}
+		
+		/**
+		 * @return The cable the next instruction would block on, if it's a
+		 * {@code GPI} or {@code GPO}, or {@code null}
+		 */
+		Link blockedOn() {
+			int at = machine.pc<<1;
+			int instruction = machine.memory[at] | machine.memory[at+1]<<8;
+			int opcode = instruction>>11;
+			int port = instruction>>3&0x7;
+			if(opcode == 22 && in[port] != null && in[port].isEmpty() && !in[port].writerDone) return in[port];
+			if(opcode == 23 && out[port] != null && out[port].isFull() && !out[port].readerDone) return out[port];
+			return null;
+		}
+		
+		/**
+		 * Marks the machine's cables as done, and wakes whoever's on the
+		 * other ends.
+		 */
+		void finish() {
+			for(Link link : out) {
+				if(link == null) continue;
+				
+				link.writerDone = true;
+				if(link.reader != null) LockSupport.unpark(link.reader);
+			}
+			for(Link link : in) {
+				if(link == null) continue;
+				
+				link.readerDone = true;
+				if(link.writer != null) LockSupport.unpark(link.writer);
+			}
+		}
+	}
+	
+	/**
+	 * Runs a network.
+	 * @param configPath Config file
+	 * @param out Where to write result lines
+	 */
+	public static void main(String configPath, PrintStream out) {
+		List<Node> nodes = new ArrayList<Node>();
+		List<Link> links = new ArrayList<Link>();
+		try {
+			readConfig(configPath, nodes, links);
+		} catch(IllegalArgumentException e) {
+			Log.exit("Couldn't load \""+configPath+"\": "+e.getMessage(), 1);
+			return;
+		}
+		boolean quiet = out == System.out; // Keep stdout to result lines only
+		if(!quiet) Log.log("Running "+nodes.size()+" machines and "+links.size()+" links"
+			+(deterministic ? " deterministically..." : "...")
+		);
+		
+		// The emulator's logging isn't per machine, so keep it out of the results:
+		int level = Log.logLevel;
+		Log.setLogLevel(Log.NOTHING);
+		stopping = Machine.RUNNING;
+		if(Metrics.enabled) for(Node node : nodes) Metrics.register(node.machine, node.name);
+		long start = System.nanoTime();
+		long deadline = timeout > 0 ? start+TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE;
+		boolean deadlock = deterministic ? runDeterministic(nodes, deadline) : runThreaded(nodes, links, deadline);
+		double seconds = (System.nanoTime()-start)/1e9;
+		for(Node node : nodes) if(node.machine.metrics != null) node.machine.metrics.unregister();
+		
+		for(Node node : nodes) {
+			StringBuilder json = new StringBuilder("{\"machine\":").append(Batch.string(node.name));
+			json.append(",\"binary\":").append(Batch.string(node.binary));
+			if(node.error != null) {
+				out.println(json.append(",\"error\":").append(Batch.string(node.error.toString())).append('}'));
+				continue;
+			}
+			
+			byte[][] output = new byte[8][];
+			for(int port = 0; port < 8; port++) output[port] = node.output[port].toByteArray();
+			out.println(Batch.state(json, node.machine, output).append('}'));
+		}
+		double scale = deterministic ? 1 : 1e6; // Steps, or nanoseconds to milliseconds
+		String unit = deterministic ? "Steps\":" : "Millis\":";
+		for(Link link : links) {
+			out.println("{\"link\":"+Batch.string(link.toString())
+				+",\"bytes\":"+link.bytes()
+				+",\"bytesPerSecond\":"+String.format(Locale.ROOT, "%.1f", link.bytes()/seconds)
+				+",\"readBlocked"+unit+String.format(Locale.ROOT, deterministic ? "%.0f" : "%.3f", link.readBlocked/scale)
+				+",\"writeBlocked"+unit+String.format(Locale.ROOT, deterministic ? "%.0f" : "%.3f", link.writeBlocked/scale)
+				+"}"
+			);
+		}
+		out.flush();
+		
+		Log.setLogLevel(level);
+		if(!quiet) Log.log(String.format("Done in %.3fs%s", seconds, deadlock ? ", deadlocked" : ""));
+	}
+	
+	/**
+	 * Reads the config, and loads (or assembles) every binary.
+	 * @throws IllegalArgumentException If a line, machine, or port is invalid
+	 */
+	private static void readConfig(String configPath, List<Node> nodes, List<Link> links) {
+		File base = new File(configPath).getAbsoluteFile().getParentFile();
+		Map<String, Node> names = new LinkedHashMap<String, Node>();
+		List<String> lines = new FileHandler(configPath).readIntoList();
+		for(int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			
+			String[] fields = line.split("\\s+");
+			String where = "line "+(i+1)+": ";
+			if(fields.length != 3) throw new IllegalArgumentException(where+"expected three fields");
+			
+			if(fields[0].equals("machine")) {
+				if(names.containsKey(fields[1])) throw new IllegalArgumentException(where+"machine \""+fields[1]+"\" already exists");
+				try {
+					names.put(fields[1], new Node(fields[1], fields[2], Batch.loadBinary(Batch.resolve(base, fields[2]))));
+				} catch(IllegalArgumentException e) {
+					throw new IllegalArgumentException(where+e.getMessage());
+				}
+			} else if(fields[0].equals("link")) {
+				String[] from = fields[1].split(":"), to = fields[2].split(":");
+				Node writer = names.get(from[0]), reader = names.get(to[0]);
+				if(writer == null || reader == null) throw new IllegalArgumentException(where+"no such machine");
+				int fromPort = port(from, where), toPort = port(to, where);
+				if(writer.out[fromPort] != null || reader.in[toPort] != null)
+					throw new IllegalArgumentException(where+"port already linked");
+				
+				Link link = new Link(writer.name, fromPort, reader.name, toPort);
+				writer.out[fromPort] = link;
+				reader.in[toPort] = link;
+				links.add(link);
+			} else throw new IllegalArgumentException(where+"unknown kind \""+fields[0]+"\"");
+		}
+		nodes.addAll(names.values());
+	}
+	
+	/**
+	 * @return The port of a {@code name:port} pair
+	 */
+	private static int port(String[] pair, String where) {
+		try {
+			int port = Integer.parseInt(pair[1]);
+			if(port < 0 || port > 7) throw new NumberFormatException();
+			return port;
+		} catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException(where+"expected machine:port, with a port 0–7");
+		}
+	}
+	
+	/**
+	 * Runs each machine on its own thread, and watches for timeout and
+	 * deadlock until they've all stopped.
+	 * @return Whether they deadlocked
+	 */
+	private static boolean runThreaded(List<Node> nodes, List<Link> links, long deadline) {
+		for(Node node : nodes) {
+			node.machine.deadline = deadline;
+			node.thread = new Thread(() -> {
+				try {
+					node.machine.run();
+				} catch(RuntimeException e) { // e.g. an address past the end of memory
+					node.error = e;
+				}
+				if(node.machine.halt == Machine.WAITING) node.machine.halt = stopping; // Gave up on a GPI
+				node.finish();
+			}, "TRC3emu "+node.name);
+			node.thread.setDaemon(true); // Runaway machines can't keep the JVM alive
+			for(Link link : node.in) if(link != null) link.reader = node.thread;
+			for(Link link : node.out) if(link != null) link.writer = node.thread;
+		}
+		for(Node node : nodes) node.thread.start();
+		
+		boolean deadlock = false;
+		long lastProgress = -1;
+		while(true) {
+			int alive = 0, blocked = 0;
+			for(Node node : nodes) {
+				if(!node.thread.isAlive()) continue;
+				
+				alive++;
+				if(node.blocked) blocked++;
+			}
+			if(alive == 0) break;
+			
+			long progress = alive;
+			for(Link link : links) progress += link.progress();
+			if(System.nanoTime()-deadline >= 0) stop(nodes, Machine.TIMEOUT);
+			else if(blocked == alive && progress == lastProgress) { // Blocked since the last check, with nothing moving
+				deadlock = true;
+				stop(nodes, Machine.WAITING);
+			}
+			lastProgress = blocked == alive ? progress : -1;
+			
+			LockSupport.parkNanos(CHECK);
+		}
+		return deadlock;
+	}
+	
+	/**
+	 * Tells blocked machines to give up, and wakes them.
+	 */
+	private static void stop(List<Node> nodes, int reason) {
+		stopping = reason;
+		for(Node node : nodes) LockSupport.unpark(node.thread);
+	}
+	
+	/**
+	 * Runs the machines in turn, one instruction each per step, on this
+	 * thread. A machine whose next instruction would block sits its turn out.
+	 * @return Whether they deadlocked
+	 */
+	private static boolean runDeterministic(List<Node> nodes, long deadline) {
+		for(long steps = 1;; steps++) {
+			int running = 0, ran = 0;
+			for(Node node : nodes) {
+				Machine machine = node.machine;
+				if(machine.halt != Machine.RUNNING) continue;
+				
+				running++;
+				Link link = node.blockedOn();
+				if(link != null) {
+					if(link.isEmpty()) link.readBlocked++; // Full if it's the writer waiting
+					else link.writeBlocked++;
+					continue;
+				}
+				
+				ran++;
+				try {
+					machine.step();
+				} catch(RuntimeException e) {
+					node.error = e;
+					machine.halt = Machine.STOPPED;
+				}
+				if(machine.halt != Machine.RUNNING) node.finish();
+			}
+			if(running == 0) return false;
+			
+			int reason = Machine.RUNNING;
+			if(ran == 0) reason = Machine.WAITING;
+			else if(steps%DEADLINE_CHECK == 0 && System.nanoTime()-deadline >= 0) reason = Machine.TIMEOUT;
+			if(reason == Machine.RUNNING) continue;
+			
+			for(Node node : nodes) {
+				if(node.machine.halt != Machine.RUNNING) continue;
+				
+				node.machine.halt = reason;
+				node.finish();
+			}
+			return reason == Machine.WAITING;
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package net.toydotgame.TRC3emu.workload;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.toydotgame.TRC3emu.assembler.Assembler;
+import net.toydotgame.TRC3emu.emulator.Emulator;
+import net.toydotgame.TRC3emu.emulator.Gpio;
+import net.toydotgame.TRC3emu.emulator.Machine;
+import net.toydotgame.utils.FileHandler;
+import net.toydotgame.utils.Log;
+
+/**
+ * Performance regression runner for the test programs. Every {@code .s} file
+ * in the tests directory is assembled and run, with the bytes in a {@code .in}
+ * file of the same name (one decimal byte per line) replayed as its input and
+ * output thrown away. Programs that don't halt are stopped after {@link
+ * #INSTRUCTION_LIMIT} instructions. For each program, this measures:
+ * <ul>
+ * 	<li>Instructions run (the guest's work, which should never change unless
+ * the program or the ISA does)</li>
+ * 	<li>Instructions run per second of host CPU time, the best of several
+ * rounds of repeated runs, after every program has been warmed up</li>
+ * 	<li>Host wall time per run</li>
+ * 	<li>Peak heap use and allocation rate while running</li>
+ * </ul>
+ * and compares them against a baseline file. Each program that halts is also
+ * assembled with the {@link net.toydotgame.TRC3emu.assembler.Optimizer
+ * Optimizer} and run once more, and should output exactly what it did
+ * before. The run fails (exit code 1) if a program's instruction count
+ * changed, if a program in the baseline no longer assembles, or if the
+ * optimiser changed a program's output.<br>
+ * <br>
+ * Throughput, heap, and allocation are only reported, as they depend on the
+ * host the baseline was made on, and vary from run to run on a busy one. With
+ * {@code --throughput}, the run also fails if throughput dropped by more than
+ * the tolerance, for when the baseline was made on this host, e.g. by a run
+ * of the code before a change.<br>
+ * <br>
+ * Usage: {@code Regression <tests directory> <baseline> [--update]
+ * [--throughput] [--tolerance <fraction>]}. With {@code --update}, the
+ * baseline is rewritten from this run instead.
+ */
+public class Regression {
+	/**
+	 * Instructions to stop programs that don't halt after.
+	 */
+	public static final long INSTRUCTION_LIMIT = 1_000_000;
+	/**
+	 * Fraction of baseline throughput a program can lose before failing, with
+	 * {@code --throughput}.
+	 */
+	private static final double DEFAULT_TOLERANCE = 0.25;
+	private static final long WARMUP_NANOS = 2_000_000_000;
+	private static final int ROUNDS = 10;
+	private static final long ROUND_NANOS = 100_000_000;
+	
+	private static final com.sun.management.ThreadMXBean threads
+		= (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	
+	/**
+	 * Results for one program.
+	 */
+	private static class Result {
+		long instructions;
+		double throughput;   // Instructions per second of CPU time
+		double wall;         // Microseconds per run
+		long peakHeap;       // Bytes
+		double allocation;   // Bytes per second
+		
+		@Override public String toString() {
+			return instructions+"\t"+Math.round(throughput)+"\t"+String.format("%.1f", wall)
+				+"\t"+peakHeap+"\t"+Math.round(allocation);
+		}
+	}
+	
+	public static void main(String[] args) {
+		if(args.length < 2)
+			Log.exit("Usage: Regression <tests directory> <baseline> [--update] [--throughput] [--tolerance <fraction>]");
+		File tests = new File(args[0]);
+		String baselinePath = args[1];
+		boolean update = false, throughput = false;
+		double tolerance = DEFAULT_TOLERANCE;
+		for(int i = 2; i < args.length; i++) {
+			if(args[i].equals("--update")) update = true;
+			else if(args[i].equals("--throughput")) throughput = true;
+			else if(args[i].equals("--tolerance") && i+1 < args.length) tolerance = Double.parseDouble(args[++i]);
+			else Log.exit("Unknown argument \""+args[i]+"\"!");
+		}
+		
+		File[] sources = tests.listFiles((directory, name) -> name.endsWith(".s"));
+		if(sources == null) Log.exit("Couldn't list \""+tests+"\"!");
+		Arrays.sort(sources);
+		
+		// Keep the emulator quiet:
+		PrintStream out = System.out;
+		Emulator.nullDevice = true;
+		Emulator.mute = true;
+		Emulator.instructionLimit = INSTRUCTION_LIMIT;
+		
+		int level = Log.logLevel;
+		Log.setLogLevel(Log.NOTHING);
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		List<Program> programs = new ArrayList<Program>();
+		List<String> skipped = new ArrayList<String>();
+		for(File source : sources) {
+			Program program = load(source);
+			if(program == null) skipped.add(source.getName());
+			else programs.add(program);
+		}
+		
+		warmUp(programs);
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+		for(Program program : programs) results.put(program.name, measure(program));
+		System.setOut(out);
+		Log.setLogLevel(level);
+		
+		if(skipped.size() > 0) Log.log("Skipped (assembly errors): "+String.join(", ", skipped));
+		List<String> miscompiled = new ArrayList<String>();
+		for(Program program : programs) if(!program.optimizes) miscompiled.add(program.name);
+		if(miscompiled.size() > 0) Log.error("Output changed by the optimiser: "+String.join(", ", miscompiled));
+		
+		if(update) {
+			List<String> lines = new ArrayList<String>();
+			lines.add("# TRC3emu performance baseline, from Regression. Regenerate with: ./gradlew perfCheck -Pupdate");
+			lines.add("# program\tinstructions\tinstructions/s (CPU)\twall time (us/run)\tpeak heap (bytes)\tallocation (bytes/s)");
+			for(Map.Entry<String, Result> entry : results.entrySet())
+				lines.add(entry.getKey()+"\t"+entry.getValue());
+			new FileHandler(baselinePath, FileHandler.WRITE).writeList(lines);
+			Log.log("Wrote baseline for "+results.size()+" programs to "+baselinePath);
+			return;
+		}
+		
+		int failures = compare(results, readBaseline(baselinePath), throughput ? tolerance : -1)+miscompiled.size();
+		if(failures > 0) Log.exit(failures+" regressions!", 1);
+		Log.log("No regressions");
+	}
+	
+	/**
+	 * A program to measure.
+	 */
+	private static class Program {
+		String name;
+		List<Integer> memory; // Copied by each run, so programs can't change it
+		int[] input = new int[0];
+		boolean optimizes; // Outputs the same when optimised
+	}
+	
+	/**
+	 * @param source Source file
+	 * @return The program, or {@code null} if the source has assembly errors
+	 */
+	private static Program load(File source) {
+		Program program = new Program();
+		program.name = source.getName();
+		List<String> lines = new FileHandler(source.getPath()).readIntoList();
+		byte[] image = Assembler.assemble(lines);
+		if(image == null) return null;
+		program.memory = new ArrayList<Integer>(2048);
+		for(int i = 0; i < 2048; i++) program.memory.add(i < image.length ? image[i]&0xFF : 0);
+		
+		File inputFile = new File(source.getPath().replaceAll("\\.s$", ".in"));
+		if(inputFile.isFile()) {
+			List<String> input = new FileHandler(inputFile.getPath()).readIntoList();
+			input.removeIf(String::isEmpty);
+			program.input = input.stream().mapToInt(Integer::parseInt).toArray();
+		}
+		
+		Assembler.setOptimize(true);
+		byte[] optimized = Assembler.assemble(lines);
+		Assembler.setOptimize(false);
+		String output = output(image, program.input);
+		program.optimizes = output == null || optimized != null && output.equals(output(optimized, program.input));
+		return program;
+	}
+	
+	/**
+	 * Runs a memory image once, on a machine of its own.
+	 * @param input Bytes for each {@code GPI} in turn, then {@code 0}
+	 * @return Every byte it output, as {@code port:value}, or {@code null} if
+	 * it didn't halt within {@link #INSTRUCTION_LIMIT} instructions, as then
+	 * fewer instructions get further
+	 */
+	private static String output(byte[] image, int[] input) {
+		int[] memory = new int[2048];
+		for(int i = 0; i < image.length; i++) memory[i] = image[i]&0xFF;
+		Machine machine = new Machine(memory);
+		machine.instructionLimit = INSTRUCTION_LIMIT;
+		StringBuilder output = new StringBuilder();
+		machine.gpio = new Gpio() {
+			private int next = 0;
+			
+			@Override public int read(int port) {
+				return next < input.length ? input[next++] : 0;
+			}
+			
+			@Override public void write(int port, int value) {
+				output.append(port+":"+value+" ");
+			}
+		};
+		
+		return machine.run() == Machine.BUDGET ? null : output.toString();
+	}
+	
+	/**
+	 * Runs every program in turn until the warmup time is up, so the JIT has
+	 * seen all of them before any are measured.
+	 */
+	private static void warmUp(List<Program> programs) {
+		long start = System.nanoTime();
+		while(System.nanoTime()-start < WARMUP_NANOS)
+			for(Program program : programs) run(program);
+	}
+	
+	/**
+	 * Measures a program over {@link #ROUNDS} rounds, keeping the best
+	 * throughput, which is the least affected by noise from the host.
+	 * Throughput is taken over this thread's CPU time rather than wall time,
+	 * so the JIT, GC, and other processes on a busy machine don't count.
+	 */
+	private static Result measure(Program program) {
+		Result result = new Result();
+		result.instructions = run(program);
+		
+		List<MemoryPoolMXBean> heap = new ArrayList<MemoryPoolMXBean>();
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() != MemoryType.HEAP) continue;
+			pool.resetPeakUsage();
+			heap.add(pool);
+		}
+		
+		long allocated = threads.getCurrentThreadAllocatedBytes();
+		long total = 0, runs = 0;
+		for(int round = 0; round < ROUNDS; round++) {
+			long instructions = 0, elapsed;
+			long start = System.nanoTime(), cpuStart = threads.getCurrentThreadCpuTime();
+			do {
+				instructions += run(program);
+				runs++;
+				elapsed = System.nanoTime()-start;
+			} while(elapsed < ROUND_NANOS);
+			
+			total += elapsed;
+			double cpu = (threads.getCurrentThreadCpuTime()-cpuStart)/1e9;
+			result.throughput = Math.max(result.throughput, instructions/cpu);
+		}
+		
+		result.wall = total/1e3/runs;
+		result.allocation = (threads.getCurrentThreadAllocatedBytes()-allocated)/(total/1e9);
+		for(MemoryPoolMXBean pool : heap) result.peakHeap += pool.getPeakUsage().getUsed();
+		return result;
+	}
+	
+	/**
+	 * Runs a program once from power-on.
+	 * @return Instructions run
+	 */
+	private static long run(Program program) {
+		Emulator.replay(program.input);
+		Emulator.main(program.memory);
+		return Emulator.machine.retired;
+	}
+	
+	private static Map<String, Result> readBaseline(String path) {
+		if(!new File(path).isFile()) Log.exit("No baseline at \""+path+"\"! Create one with --update", 1);
+		
+		Map<String, Result> baseline = new LinkedHashMap<String, Result>();
+		for(String line : new FileHandler(path).readIntoList()) {
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			
+			String[] fields = line.split("\\s+");
+			Result result = new Result();
+			result.instructions = Long.parseLong(fields[1]);
+			result.throughput = Double.parseDouble(fields[2]);
+			result.wall = Double.parseDouble(fields[3]);
+			result.peakHeap = Long.parseLong(fields[4]);
+			result.allocation = Double.parseDouble(fields[5]);
+			baseline.put(fields[0], result);
+		}
+		return baseline;
+	}
+	
+	/**
+	 * Prints each program's results against its baseline.
+	 * @param tolerance Fraction of throughput a program can lose, or {@code -1}
+	 * to not check throughput
+	 * @return Number of failures
+	 */
+	private static int compare(Map<String, Result> results, Map<String, Result> baseline, double tolerance) {
+		int failures = 0;
+		Log.log(String.format(
+			"%-12s %12s %16s %8s %12s %12s %14s",
+			"program", "instructions", "instructions/s", "", "us/run", "peak heap", "allocation/s"
+		));
+		for(Map.Entry<String, Result> entry : baseline.entrySet()) {
+			String name = entry.getKey();
+			Result before = entry.getValue(), after = results.get(name);
+			if(after == null) {
+				Log.error(name+": no longer assembles, or was removed");
+				failures++;
+				continue;
+			}
+			
+			double change = after.throughput/before.throughput-1;
+			Log.log(String.format(
+				"%-12s %,12d %,16.0f %+7.1f%% %,12.1f %,10dkB %,12.0fkB",
+				name, after.instructions, after.throughput, 100*change, after.wall,
+				after.peakHeap>>10, after.allocation/1024
+			));
+			
+			if(after.instructions != before.instructions) {
+				Log.error(name+": ran "+after.instructions+" instructions, expected "+before.instructions);
+				failures++;
+			}
+			if(tolerance >= 0 && change < -tolerance) {
+				Log.error(String.format("%s: throughput dropped %.1f%%, more than the %.0f%% allowed", name, -100*change, 100*tolerance));
+				failures++;
+			}
+		}
+		
+		for(String name : results.keySet())
+			if(!baseline.containsKey(name)) Log.log(name+" isn't in the baseline yet");
+		return failures;
+	}
+}
@@ -0,0 +1,18 @@
+package net.toydotgame.utils;
+
+/**
+ * Thrown in place of quitting the JVM when {@link Log#trapExits} is set.
+ * @see Log#quit(int)
+ */
+@SuppressWarnings("serial") // This class is not serialised in this project
+public class Exit extends RuntimeException {
+	/**
+	 * Exit code the JVM would have quit with.
+	 */
+	public final int code;
+	
+	public Exit(int code) {
+		super("Exit code "+code);
+		this.code = code;
+	}
+}
@@ -36,6 +36,12 @@ public class Log {
 	 * Default exit code for fatal errors that don't specify otherwise
 	 */
 	private static final int DEFAULT_EXIT = 2;
+	/**
+	 * Throw {@link Exit} instead of quitting the JVM, so a process that runs
+	 * many jobs (the daemon) can end one without ending itself. Off by
+	 * default.
+	 */
+	public static boolean trapExits = false;
 	
 	/**
 	 * Set log level
@@ -58,12 +64,12 @@ public class Log {
 	 * @param exitCode Exit code to quit with
 	 */
 	public static void fatalError(String message, int exitCode) {
-		if(logLevel < FATAL) System.exit(exitCode);
+		if(logLevel < FATAL) quit(exitCode);
 		
 		Exception e = new Exception(message);
 		System.err.println("[FATAL]:");
 		e.printStackTrace();
-		System.exit(exitCode);
+		quit(exitCode);
 	}
 	/**
 	 * Calls {@code fatalError(message, DEFAULT_EXIT)}
@@ -83,10 +89,10 @@ public class Log {
 	 * @see Log#fatalError(String, int)
 	 */
 	public static void exit(String message, int exitCode) {
-		if(logLevel < FATAL) System.exit(exitCode);
+		if(logLevel < FATAL) quit(exitCode);
 		
 		System.err.println("[FATAL] "+message);
-		System.exit(exitCode);
+		quit(exitCode);
 	}
 	/**
 	 * Calls {@code exit(message, DEFAULT_EXIT)}
@@ -98,6 +104,16 @@ public class Log {
 		exit(message, DEFAULT_EXIT);
 	}
 	
+	/**
+	 * Quits with the given exit code, or throws {@link Exit} if {@link
+	 * #trapExits} is set
+	 * @param exitCode Exit code
+	 */
+	public static void quit(int exitCode) {
+		if(trapExits) throw new Exit(exitCode);
+		System.exit(exitCode);
+	}
+	
 	/**
 	 * Prints an error to the standard error stream
 	 * @param message Message to print
@@ -45,7 +45,13 @@ public class Utils {
 	 * @return {@code true} if digits-only, {@code false} otherwise
 	 */
 	public static boolean isDigital(String str) {
-		return str.matches("[0-9]+");
+		if(str.length() == 0) return false;
+		
+		for(int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if(c < '0' || c > '9') return false;
+		}
+		return true;
 	}
 	
 	/**
@@ -57,10 +63,13 @@ public class Utils {
 	 * @see Utils#paddedHex(int, int)
 	 */
 	public static String paddedBinary(int x, int len) {
-		if(len <= 0) len = 1; // String.format() requires a non-zero value
+		if(len <= 0) len = 1;
+		if(x < 0 || len < 31 && x>>len != 0) // Too long, don't pad
+			return Integer.toBinaryString(x);
 		
-		return String.format("%"+len+"s", Integer.toBinaryString(x))
-			.replace(" ", "0");
+		char[] digits = new char[len];
+		for(int i = len-1; i >= 0; i--, x >>= 1) digits[i] = (char)('0'+(x&1));
+		return new String(digits);
 	}
 	
 	/**
@@ -74,7 +83,12 @@ public class Utils {
 	 */
 	public static String paddedHex(int x, int len) {
 		if(len <= 0) len = 1;
+		if(x < 0 || len < 8 && x>>(len<<2) != 0) // Too long, don't pad
+			return Integer.toHexString(x).toUpperCase();
 		
-		return String.format("%0"+len+"X", x);
+		char[] digits = new char[len];
+		for(int i = len-1; i >= 0; i--, x >>= 4) digits[i] = HEX_DIGITS[x&0xF];
+		return new String(digits);
 	}
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 }
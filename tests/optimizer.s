@@ -0,0 +1,21 @@
+; Jump targets the optimiser removes (the NOPs) still start a block, so
+; what's known before the jump can't be carried past them. Outputs 5, then 10
+LDI 9 r1
+GPI p0 r2
+SUB r2 r0 r0 ; Input 0?
+BNE reload   ; If not, jump straight to the NOP
+LDI 5 r1
+reload:
+NOP
+LDI 5 r1     ; Not redundant when jumped to
+GPO r1 p0
+
+LDI 9 r1
+SUB r2 r0 r0
+BNE fold
+LDI 5 r1
+fold:
+NOP
+ADI 1 r1     ; Can't be folded into the LDI
+GPO r1 p0
+HLT